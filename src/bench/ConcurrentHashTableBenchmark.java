@@ -0,0 +1,194 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import model.ConcurrentHashTable;
+import model.HashStrategy;
+import model.HashTable;
+import model.KeyTable;
+import model.ProbeStats;
+
+/**
+ * Benchmark de la tabla hash con varios hilos (1, 2, 4, 8 y 16). Compara la
+ * {@link ConcurrentHashTable} (un candado por segmento) contra una
+ * {@link HashTable} con un solo candado para todo.
+ * <ul>
+ *   <li>Insertar: cada hilo inserta su parte de las claves en una tabla
+ *       vacia, asi que los segmentos crecen mientras otros hilos insertan.</li>
+ *   <li>Mezcla: cada hilo hace busquedas (9 de cada 10) e inserciones sobre
+ *       la tabla ya llena.</li>
+ * </ul>
+ *
+ * Uso: java bench.ConcurrentHashTableBenchmark [claves]
+ * @author maryori
+ */
+public class ConcurrentHashTableBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "clave-" + i;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS[THREADS.length - 1]);
+        try {
+            // Calentamiento
+            for (int threads : THREADS) {
+                run(executor, new ConcurrentHashTable(), keys, threads);
+                run(executor, new SynchronizedTable(), keys, threads);
+            }
+            for (int threads : THREADS) {
+                report("Segmentos", threads, run(executor, new ConcurrentHashTable(), keys, threads), count);
+                report("Un candado", threads, run(executor, new SynchronizedTable(), keys, threads), count);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Corre las dos fases con el numero de hilos dado.
+     * @return Nanosegundos de insertar y de la mezcla.
+     */
+    private static long[] run(ExecutorService executor, KeyTable table, String[] keys, int threads)
+            throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        runAll(executor, threads, part -> () -> {
+            for (int i = part; i < keys.length; i += threads) {
+                table.put(keys[i]);
+            }
+            return 0L;
+        });
+        long insertNs = System.nanoTime() - start;
+        if (table.size() != keys.length) {
+            System.out.println("Faltan claves: " + (keys.length - table.size()));
+        }
+
+        start = System.nanoTime();
+        List<Long> found = runAll(executor, threads, part -> () -> {
+            long hits = 0;
+            // Cada hilo recorre las claves en otro orden
+            int step = 7919;
+            for (int n = 0, i = part; n < keys.length / threads; n++, i = (i + step) % keys.length) {
+                if (n % 10 == 0) {
+                    table.put(keys[i]);
+                } else if (table.getHashValue(keys[i]) >= 0) {
+                    hits++;
+                }
+            }
+            return hits;
+        });
+        long mixedNs = System.nanoTime() - start;
+        long expected = 0;
+        for (int part = 0; part < threads; part++) {
+            int operations = keys.length / threads;
+            expected += operations - (operations + 9) / 10;
+        }
+        long hits = 0;
+        for (long value : found) hits += value;
+        if (hits != expected) {
+            System.out.println("Busquedas fallidas: " + (expected - hits));
+        }
+        return new long[] {insertNs, mixedNs};
+    }
+
+    private interface Task {
+        Callable<Long> forPart(int part);
+    }
+
+    private static List<Long> runAll(ExecutorService executor, int threads, Task task)
+            throws InterruptedException, ExecutionException {
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int part = 0; part < threads; part++) {
+            futures.add(executor.submit(task.forPart(part)));
+        }
+        List<Long> results = new ArrayList<>();
+        for (Future<Long> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    private static void report(String label, int threads, long[] result, int count) {
+        System.out.printf("%s, %2d hilos: insertar %.1f M op/s, mezcla %.1f M op/s%n",
+            label, threads, count * 1e3 / result[0], count * 1e3 / result[1]);
+    }
+
+    /**
+     * Tabla de un hilo protegida por un solo candado, para comparar.
+     */
+    private static final class SynchronizedTable implements KeyTable {
+        private final HashTable table = new HashTable();
+
+        @Override
+        public synchronized void put(String key) {
+            table.put(key);
+        }
+
+        @Override
+        public synchronized int getHashValue(String key) {
+            return table.getHashValue(key);
+        }
+
+        @Override
+        public synchronized boolean remove(String key) {
+            return table.remove(key);
+        }
+
+        @Override
+        public synchronized int size() {
+            return table.size();
+        }
+
+        @Override
+        public synchronized int capacity() {
+            return table.capacity();
+        }
+
+        @Override
+        public synchronized String[] getKeys() {
+            return table.getKeys().clone();
+        }
+
+        @Override
+        public synchronized int[] getHashValues() {
+            return table.getHashValues().clone();
+        }
+
+        @Override
+        public synchronized ProbeStats getStats() {
+            return table.getStats();
+        }
+
+        @Override
+        public synchronized void setHashStrategy(HashStrategy strategy) {
+            table.setHashStrategy(strategy);
+        }
+
+        @Override
+        public synchronized HashStrategy getHashStrategy() {
+            return table.getHashStrategy();
+        }
+
+        @Override
+        public synchronized void setRobinHood(boolean robinHood) {
+            table.setRobinHood(robinHood);
+        }
+
+        @Override
+        public synchronized boolean isRobinHood() {
+            return table.isRobinHood();
+        }
+    }
+}
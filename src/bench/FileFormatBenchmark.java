@@ -0,0 +1,80 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package bench;
+
+import controller.SheetController;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import model.Sheet;
+
+/**
+ * Benchmark que compara guardar y abrir un libro con el formato binario
+ * contra la serializacion de Java que se usaba antes.
+ *
+ * Uso: java bench.FileFormatBenchmark [filas] [columnas]
+ * @author maryori
+ */
+public class FileFormatBenchmark {
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        SheetController controller = new SheetController();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols - 2; c++) {
+                controller.setCellValue(r, c, Integer.toString((r * 31 + c) % 1000));
+            }
+            controller.setCellValue(r, cols - 2, "fila " + (r % 100));
+            controller.setCellValue(r, cols - 1, "=suma((" + (r + 1) + ",1),(" + (r + 1) + ",2))");
+        }
+
+        File binary = File.createTempFile("libro", ".mxl");
+        File serialized = File.createTempFile("libro", ".ser");
+        binary.deleteOnExit();
+        serialized.deleteOnExit();
+
+        long start = System.nanoTime();
+        controller.saveToFile(binary.getPath());
+        long binarySave = System.nanoTime() - start;
+        start = System.nanoTime();
+        new SheetController().loadFromFile(binary.getPath());
+        long binaryLoad = System.nanoTime() - start;
+        System.out.printf("Binario:       guardar %.0f ms, abrir %.0f ms, %d KB%n",
+            binarySave / 1e6, binaryLoad / 1e6, binary.length() / 1024);
+
+        // Cargar la hoja completa contra leer solo 100 filas del medio
+        start = System.nanoTime();
+        SheetController reader = new SheetController();
+        reader.loadFromFile(binary.getPath());
+        reader.getWorkbook().getCurrentSheet().getMatrix();
+        long sheetLoad = System.nanoTime() - start;
+        start = System.nanoTime();
+        Sheet band = reader.readSheetRows(binary.getPath(), "Hoja 1", rows / 2, rows / 2 + 99);
+        long bandLoad = System.nanoTime() - start;
+        System.out.printf("Hoja completa %.0f ms; 100 filas %.1f ms (%d celdas)%n",
+            sheetLoad / 1e6, bandLoad / 1e6, band.getMatrix().getCellCount());
+
+        try {
+            start = System.nanoTime();
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serialized))) {
+                out.writeObject(controller.getWorkbook());
+            }
+            long serialSave = System.nanoTime() - start;
+            start = System.nanoTime();
+            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(serialized))) {
+                in.readObject();
+            }
+            long serialLoad = System.nanoTime() - start;
+            System.out.printf("Serializacion: guardar %.0f ms, abrir %.0f ms, %d KB%n",
+                serialSave / 1e6, serialLoad / 1e6, serialized.length() / 1024);
+        } catch (StackOverflowError | ClassNotFoundException e) {
+            System.out.println("Serializacion: falla con " + e);
+        }
+    }
+}
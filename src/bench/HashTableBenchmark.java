@@ -0,0 +1,111 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package bench;
+
+import model.HashTable;
+import model.StandardHash;
+
+/**
+ * Benchmark de la tabla hash: inserta millones de claves desde una tabla
+ * chica (la tabla crece varias veces) y despues las busca todas, con el
+ * reacomodo en un hilo y en paralelo. Despues compara los sondeos que deja
+ * cada funcion hash con las mismas claves, y el sondeo lineal simple contra
+ * Robin Hood en una tabla llena al 90% que quita y agrega claves.
+ *
+ * Uso: java bench.HashTableBenchmark [claves]
+ * @author maryori
+ */
+public class HashTableBenchmark {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "clave-" + i;
+        }
+
+        // Calentamiento
+        for (int i = 0; i < 2; i++) {
+            run(keys, false);
+            run(keys, true);
+        }
+        report("Reacomodo en un hilo", run(keys, false), count);
+        report("Reacomodo en paralelo", run(keys, true), count);
+
+        for (StandardHash strategy : StandardHash.values()) {
+            HashTable table = new HashTable(HashTable.DEFAULT_CAPACITY, HashTable.DEFAULT_LOAD_FACTOR, false, strategy);
+            long start = System.nanoTime();
+            for (String key : keys) {
+                table.put(key);
+            }
+            long insertNs = System.nanoTime() - start;
+            System.out.printf("%s: insertar %.1f ns/clave, %s%n", strategy, (double) insertNs / count, table.getStats());
+        }
+
+        for (boolean robinHood : new boolean[] {false, true}) {
+            churn(keys, robinHood);
+        }
+    }
+
+    /**
+     * Llena una tabla fija al 90%, luego quita la clave mas vieja y agrega
+     * una nueva muchas veces (la carga no cambia y la tabla no crece) y mide
+     * las busquedas de claves que no estan.
+     */
+    private static void churn(String[] keys, boolean robinHood) {
+        int capacity = Integer.highestOneBit(keys.length);
+        int live = (int) (capacity * 0.9);
+        HashTable table = new HashTable(capacity, 0.95f, false);
+        table.setRobinHood(robinHood);
+        for (int i = 0; i < live; i++) {
+            table.put(keys[i]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < live; i++) {
+            table.remove(keys[i]);
+            table.put(keys[(i + live) % keys.length]);
+        }
+        long churnNs = System.nanoTime() - start;
+
+        // Quedan las claves [live, 2 * live) (modulo el total); las primeras se quitaron
+        int misses = Math.max(1, keys.length - live);
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < misses; i++) {
+            if (table.getHashValue(keys[(2 * live + i) % keys.length]) >= 0) found++;
+        }
+        long missNs = System.nanoTime() - start;
+        if (found > 0) {
+            System.out.println("Claves que no deberian estar: " + found);
+        }
+        System.out.printf("%s con carga alta: quitar+agregar %.1f ns, buscar ausente %.1f ns/clave, %s%n",
+            robinHood ? "Robin Hood" : "Sondeo lineal", (double) churnNs / live,
+            (double) missNs / misses, table.getStats());
+    }
+
+    private static long[] run(String[] keys, boolean parallel) {
+        HashTable table = new HashTable(HashTable.DEFAULT_CAPACITY, HashTable.DEFAULT_LOAD_FACTOR, parallel);
+        long start = System.nanoTime();
+        for (String key : keys) {
+            table.put(key);
+        }
+        long insertNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long missing = 0;
+        for (String key : keys) {
+            if (table.getHashValue(key) < 0) missing++;
+        }
+        long lookupNs = System.nanoTime() - start;
+        if (missing > 0 || table.size() != keys.length) {
+            System.out.println("Faltan claves: " + missing + ", tamaño " + table.size());
+        }
+        return new long[] {insertNs, lookupNs, table.capacity()};
+    }
+
+    private static void report(String label, long[] result, int count) {
+        System.out.printf("%s: insertar %.1f ns/clave, buscar %.1f ns/clave (capacidad %d)%n",
+            label, (double) result[0] / count, (double) result[1] / count, result[2]);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package bench;
+
+import java.util.Random;
+import model.Cell;
+import model.OrthogonalMatrix;
+
+/**
+ * Benchmark que compara la latencia de {@code getCell} aleatorio contra el
+ * recorrido anterior (desde la cabeza siguiendo enlaces abajo y derecha).
+ * 
+ * Uso: java bench.MatrixBenchmark [filas] [columnas] [consultas]
+ * @author maryori
+ */
+public class MatrixBenchmark {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1100;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        System.out.println("Llenando matriz de " + rows + "x" + cols + " (" + ((long) rows * cols) + " celdas)...");
+        OrthogonalMatrix matrix = new OrthogonalMatrix(rows, cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                matrix.setCellValue(r, c, String.valueOf(r + c));
+            }
+        }
+
+        int[] targetRows = new int[lookups];
+        int[] targetCols = new int[lookups];
+        Random random = new Random(42);
+        for (int i = 0; i < lookups; i++) {
+            targetRows[i] = random.nextInt(rows);
+            targetCols[i] = random.nextInt(cols);
+        }
+
+        // Calentamiento para que ambos caminos lleguen compilados
+        for (int i = 0; i < 3; i++) {
+            runLinked(matrix, targetRows, targetCols, Math.min(lookups, 20_000));
+            runIndexed(matrix, targetRows, targetCols, lookups);
+        }
+
+        long start = System.nanoTime();
+        long check1 = runLinked(matrix, targetRows, targetCols, lookups);
+        long linkedNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long check2 = runIndexed(matrix, targetRows, targetCols, lookups);
+        long indexedNs = System.nanoTime() - start;
+
+        if (check1 != check2) {
+            System.out.println("Los recorridos no coinciden: " + check1 + " vs " + check2);
+        }
+        System.out.printf("Antes (enlaces desde la cabeza): %.1f ns/consulta%n", (double) linkedNs / lookups);
+        System.out.printf("Despues (cabeceras indexadas):   %.1f ns/consulta%n", (double) indexedNs / lookups);
+    }
+
+    /**
+     * Recorrido anterior: baja por la columna 0 y luego avanza a la derecha.
+     */
+    private static long runLinked(OrthogonalMatrix matrix, int[] rows, int[] cols, int count) {
+        long check = 0;
+        for (int i = 0; i < count; i++) {
+            Cell current = matrix.getRowHeader(0);
+            for (int r = 0; r < rows[i] && current != null; r++) {
+                current = current.getDown();
+            }
+            for (int c = 0; c < cols[i] && current != null; c++) {
+                current = current.getRight();
+            }
+            if (current != null) check += current.getX() + current.getY();
+        }
+        return check;
+    }
+
+    private static long runIndexed(OrthogonalMatrix matrix, int[] rows, int[] cols, int count) {
+        long check = 0;
+        for (int i = 0; i < count; i++) {
+            Cell current = matrix.getCell(rows[i], cols[i]);
+            if (current != null) check += current.getX() + current.getY();
+        }
+        return check;
+    }
+}
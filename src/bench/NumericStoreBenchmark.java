@@ -0,0 +1,64 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package bench;
+
+import model.OrthogonalMatrix;
+
+/**
+ * Benchmark que compara la memoria por celda numerica y el tiempo de sumar
+ * columnas entre nodos enlazados y el almacen por columnas.
+ * 
+ * Uso: java bench.NumericStoreBenchmark [filas] [columnas]
+ * @author maryori
+ */
+public class NumericStoreBenchmark {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long cells = (long) rows * cols;
+
+        for (boolean columnar : new boolean[]{false, true}) {
+            long before = usedHeap();
+            OrthogonalMatrix matrix = new OrthogonalMatrix();
+            matrix.setColumnarNumbers(columnar);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    matrix.setCellValue(r, c, Integer.toString(r % 1000));
+                }
+            }
+            long bytes = usedHeap() - before;
+
+            double sum = 0;
+            for (int i = 0; i < 5; i++) {
+                sum += sumAll(matrix, rows, cols);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                sum += sumAll(matrix, rows, cols);
+            }
+            long elapsed = (System.nanoTime() - start) / 10;
+
+            System.out.printf("%s: %.1f bytes/celda, suma de %d celdas en %.2f ms (%.0f)%n",
+                columnar ? "Por columnas" : "Nodos       ",
+                (double) bytes / cells, cells, elapsed / 1e6, sum);
+        }
+    }
+
+    private static double sumAll(OrthogonalMatrix matrix, int rows, int cols) {
+        double sum = 0;
+        for (int c = 0; c < cols; c++) {
+            sum += matrix.sumColumn(c, 0, rows - 1);
+        }
+        return sum;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
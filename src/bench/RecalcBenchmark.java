@@ -0,0 +1,47 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package bench;
+
+import controller.SheetController;
+
+/**
+ * Benchmark del recalculo de un libro ancho y poco profundo: muchas
+ * formulas que suman la misma columna de datos. Cambiar un dato obliga a
+ * recalcularlas todas; se mide con distinto numero de hilos.
+ *
+ * Uso: java bench.RecalcBenchmark [formulas] [filasDeDatos]
+ * @author maryori
+ */
+public class RecalcBenchmark {
+    public static void main(String[] args) {
+        int formulas = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int dataRows = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            System.setProperty("maxcell.recalc.threads", Integer.toString(threads));
+            SheetController controller = new SheetController();
+            for (int r = 0; r < dataRows; r++) {
+                controller.setCellValue(r, 0, Integer.toString(r % 100));
+            }
+            String formula = "=suma(Hoja 1, (1,1), (" + dataRows + ",1))";
+            for (int i = 0; i < formulas; i++) {
+                controller.setCellValue(i % 1000, 1 + i / 1000, formula);
+            }
+
+            for (int i = 0; i < 3; i++) {
+                controller.setCellValue(0, 0, Integer.toString(i));
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                controller.setCellValue(0, 0, Integer.toString(i));
+            }
+            long elapsed = (System.nanoTime() - start) / 10;
+
+            System.out.printf("%2d hilos: %d formulas recalculadas en %.2f ms (%s)%n",
+                threads, formulas, elapsed / 1e6, controller.getCellValue(0, 1));
+        }
+    }
+}
@@ -4,19 +4,33 @@
  */
 package controller;
 
+import model.ConcurrentHashTable;
+import model.HashStrategy;
 import model.HashTable;
+import model.KeyTable;
+import model.ProbeStats;
 /**
  * Controlador que gestiona las operaciones de la tabla Hash.
  * Se comunica con la clase {@code HashTable} para insertar y obtener datos.
+ * Con {@code -Dmaxcell.hash.concurrent=true} usa una
+ * {@link ConcurrentHashTable}, y entonces se puede llamar desde varios hilos.
  * @author maryori
  */
 public class HashTableController {
-    private HashTable hashTable;
+    private KeyTable hashTable;
     /**
      * Constructor que inicializa una nueva instancia de la tabla Hash.  
      */
     public HashTableController() {
-        this.hashTable = new HashTable();
+        this(Boolean.getBoolean("maxcell.hash.concurrent") ? new ConcurrentHashTable() : new HashTable());
+    }
+
+    /**
+     * Constructor con una tabla ya creada.
+     * @param hashTable Tabla que usa el controlador.
+     */
+    public HashTableController(KeyTable hashTable) {
+        this.hashTable = hashTable;
     }
     /**
      * Agrega una nueva clave a la tabla hash.
@@ -26,6 +40,15 @@ public class HashTableController {
         hashTable.put(key);
     }
 
+    /**
+     * Quita una clave de la tabla hash.
+     * @param key Clave que se va a quitar.
+     * @return true si la clave estaba en la tabla.
+     */
+    public boolean removeKey(String key) {
+        return hashTable.remove(key);
+    }
+
     /**
      * Obtiene el valor hash asociado a una clave.
      * @param key Clave de la que quiero el valor hash.
@@ -52,10 +75,58 @@ public class HashTableController {
     }
 
     /**
-     * Obtiene el tamaño actual de la tabla
-     * @return Numero de elementos en la tabla.
+     * Obtiene el tamaño actual de la tabla (su capacidad; crece sola).
+     * @return Numero de posiciones de la tabla.
      */
     public int getTableSize() {
-        return hashTable.getSize();
+        return hashTable.capacity();
+    }
+
+    /**
+     * Obtiene la cantidad de claves guardadas.
+     * @return Numero de claves en la tabla.
+     */
+    public int getKeyCount() {
+        return hashTable.size();
+    }
+
+    /**
+     * Cambia la funcion hash de la tabla; las claves se reacomodan.
+     * @param strategy Funcion hash nueva.
+     */
+    public void setHashStrategy(HashStrategy strategy) {
+        hashTable.setHashStrategy(strategy);
+    }
+
+    /**
+     * Obtiene la funcion hash en uso.
+     * @return Funcion hash de la tabla.
+     */
+    public HashStrategy getHashStrategy() {
+        return hashTable.getHashStrategy();
+    }
+
+    /**
+     * Activa o desactiva el modo Robin Hood de la tabla; las claves se reacomodan.
+     * @param robinHood true para usar Robin Hood.
+     */
+    public void setRobinHood(boolean robinHood) {
+        hashTable.setRobinHood(robinHood);
+    }
+
+    /**
+     * Indica si la tabla usa el modo Robin Hood.
+     * @return true si usa Robin Hood.
+     */
+    public boolean isRobinHood() {
+        return hashTable.isRobinHood();
+    }
+
+    /**
+     * Mide los sondeos y los grupos de posiciones ocupadas de la tabla.
+     * @return Medidas de la tabla.
+     */
+    public ProbeStats getStats() {
+        return hashTable.getStats();
     }
 }
\ No newline at end of file
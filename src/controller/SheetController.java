@@ -4,7 +4,14 @@
  */
 package controller;
 
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
 import model.*;
+import util.CellRef;
 import util.FormulaParser;
 import util.FileManager;
 /**
@@ -28,10 +35,11 @@ public class SheetController {
         this.workbook = new Workbook();
         this.formulaParser = new FormulaParser(this);
         this.fileManager = new FileManager(this);
+        this.workbook.setSheetSpill(fileManager.getSheetSpill());
         
         // Configurar el parser en todas las matrices existentes
         for (Sheet sheet : workbook.getSheets()) {
-            sheet.getMatrix().setFormulaParser(this.formulaParser);
+            sheet.setFormulaParser(this.formulaParser);
         }
     }
 
@@ -54,6 +62,8 @@ public class SheetController {
         
         Sheet currentSheet = workbook.getCurrentSheet();
         currentSheet.getMatrix().setCellValue(row, col, value);
+        fileManager.recordCellChange(workbook.getCurrentSheetIndex(), row, col, value);
+        workbook.releaseMemory();
     }
 
     /**
@@ -92,52 +102,301 @@ public class SheetController {
         if (name == null || name.trim().isEmpty()) return;
         
         Sheet newSheet = new Sheet(name);
-        newSheet.getMatrix().setFormulaParser(this.formulaParser);
-        workbook.getSheets().add(newSheet);
+        newSheet.setFormulaParser(this.formulaParser);
+        workbook.addSheet(newSheet);
+        fileManager.recordSheetAdded(name);
+        formulaParser.sheetAdded(newSheet);
+        workbook.releaseMemory();
+    }
+
+    /**
+     * Cambia el nombre de una hoja. Las formulas que la usaban con el nombre
+     * anterior se reescriben con el nombre nuevo; para eso se cargan, una
+     * por una, las hojas que no estaban cargadas.
+     * @param index Indice de la hoja.
+     * @param name Nombre nuevo.
+     * @return false si el nombre no es valido o ya es de otra hoja.
+     */
+    public boolean renameSheet(int index, String name) {
+        if (index < 0 || index >= workbook.getSheetCount() || !isValidSheetName(name)) return false;
+        Sheet sheet = workbook.getSheet(index);
+        String oldName = sheet.getName();
+        // Si hay otra hoja con el mismo nombre antes, las formulas son de esa
+        boolean referenced = workbook.getSheet(oldName) == sheet;
+        if (!workbook.renameSheet(index, name)) return false;
+        fileManager.recordSheetRenamed(index, sheet.getName());
+        if (!referenced) {
+            formulaParser.sheetAdded(sheet);
+            return true;
+        }
+
+        Map<Sheet, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < workbook.getSheetCount(); i++) {
+            indexes.put(workbook.getSheet(i), i);
+        }
+        Map<Sheet, Boolean> visited = new IdentityHashMap<>();
+        while (true) {
+            recordRewritten(formulaParser.sheetRenamed(oldName, sheet.getName()), indexes);
+            // Las hojas que salgan de memoria ya tienen sus formulas reescritas
+            workbook.releaseMemory();
+            // Cargar la siguiente hoja sin cargar; sus formulas quedan en el grafo
+            Sheet pending = null;
+            for (Sheet other : workbook.getSheets()) {
+                if (!other.isLoaded() && visited.put(other, Boolean.TRUE) == null) {
+                    pending = other;
+                    break;
+                }
+            }
+            if (pending == null) return true;
+            try {
+                pending.getMatrix();
+            } catch (SheetLoadException e) {
+                // Sus formulas se quedan con el nombre anterior
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void recordRewritten(List<CellRef> cells, Map<Sheet, Integer> indexes) {
+        for (CellRef ref : cells) {
+            Cell cell = ref.getSheet().getMatrix().getCell(ref.getRow(), ref.getCol());
+            fileManager.recordCellChange(indexes.get(ref.getSheet()), ref.getRow(), ref.getCol(), cell.getFormula());
+        }
+    }
+
+    /**
+     * Mueve una hoja a otra posicion.
+     * @param from Indice actual de la hoja.
+     * @param to Indice nuevo.
+     */
+    public void moveSheet(int from, int to) {
+        int count = workbook.getSheetCount();
+        if (from < 0 || from >= count || to < 0 || to >= count || from == to) return;
+        workbook.moveSheet(from, to);
+        fileManager.recordSheetMoved(from, to);
+    }
+
+    /**
+     * Quita una hoja del libro (siempre queda al menos una). Las formulas
+     * de otras hojas que la usaban se recalculan.
+     * @param index Indice de la hoja.
+     * @return false si no se pudo quitar.
+     */
+    public boolean removeSheet(int index) {
+        if (index < 0 || index >= workbook.getSheetCount()) return false;
+        Sheet removed = workbook.removeSheet(index);
+        if (removed == null) return false;
+        fileManager.recordSheetRemoved(index);
+        formulaParser.sheetRemoved(removed);
+        workbook.releaseMemory();
+        return true;
+    }
+
+    /**
+     * Indica si un nombre se puede usar en las formulas de rango: no puede
+     * estar vacio ni tener comas, ni empezar con '(' o terminar con ')'.
+     * @param name Nombre propuesto.
+     * @return true si el nombre es valido.
+     */
+    public static boolean isValidSheetName(String name) {
+        if (name == null) return false;
+        String trimmed = name.trim();
+        return !trimmed.isEmpty() && trimmed.indexOf(',') < 0
+            && !trimmed.startsWith("(") && !trimmed.endsWith(")");
+    }
+
+    /**
+     * Lee solo un rango de filas de una hoja de un libro guardado, sin abrir
+     * el libro completo (ver {@link FileManager#readSheetRows}).
+     * @param filename Nombre del archivo del libro.
+     * @param sheetName Nombre de la hoja.
+     * @param firstRow Primera fila.
+     * @param lastRow Ultima fila.
+     * @return Hoja con las celdas de esas filas, o null si no existe la hoja.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    public Sheet readSheetRows(String filename, String sheetName, int firstRow, int lastRow) throws IOException {
+        return fileManager.readSheetRows(filename, sheetName, firstRow, lastRow);
+    }
+
+    /**
+     * Lee un archivo CSV (o TSV, segun su extension) en una hoja nueva. El
+     * archivo se lee por partes y no se guarda completo en memoria. No toca
+     * el libro, asi que se puede llamar fuera del hilo de la interfaz; la hoja
+     * se agrega despues con {@link #addImportedSheet}.
+     * @param filename Nombre del archivo.
+     * @param sheetName Nombre de la hoja nueva.
+     * @param progress Recibe la fraccion leida del archivo (de 0 a 1).
+     * @return Hoja con el contenido del archivo.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    public Sheet importSheet(String filename, String sheetName, DoubleConsumer progress) throws IOException {
+        return fileManager.importDelimited(filename, delimiterFor(filename), sheetName, progress);
+    }
+
+    /**
+     * Agrega al libro una hoja importada y calcula sus formulas.
+     * @param sheet Hoja regresada por {@link #importSheet}.
+     */
+    public void addImportedSheet(Sheet sheet) {
+        sheet.setFormulaParser(this.formulaParser);
+        workbook.addSheet(sheet);
+        fileManager.recordSheetImported();
+        formulaParser.sheetLoaded(sheet);
+        formulaParser.sheetAdded(sheet);
+        workbook.releaseMemory();
+    }
+
+    /**
+     * Congela el contenido de la hoja actual para exportarlo en segundo
+     * plano con {@link #exportSheet}. Es barato: no copia las celdas.
+     * @return Contenido congelado de la hoja actual.
+     */
+    public FrozenMatrix freezeCurrentSheet() {
+        return workbook.getCurrentSheet().getMatrix().freeze();
+    }
+
+    /**
+     * Escribe una hoja congelada como CSV (o TSV, segun la extension). Se
+     * puede llamar desde otro hilo mientras el libro se sigue editando.
+     * @param sheet Contenido congelado de la hoja (ver {@link #freezeCurrentSheet()}).
+     * @param filename Nombre del archivo.
+     * @param progress Recibe la fraccion de filas escritas (de 0 a 1).
+     * @throws IOException Si no se puede escribir el archivo.
+     */
+    public void exportSheet(FrozenMatrix sheet, String filename, DoubleConsumer progress) throws IOException {
+        fileManager.exportDelimited(sheet, filename, delimiterFor(filename), progress);
+    }
+
+    /**
+     * Regresa un nombre de hoja que no este en uso, a partir de uno propuesto.
+     * @param name Nombre propuesto.
+     * @return El mismo nombre o con un numero al final si ya existe.
+     */
+    public String uniqueSheetName(String name) {
+        String candidate = name;
+        for (int i = 2; getSheetByName(candidate) != null; i++) {
+            candidate = name + " (" + i + ")";
+        }
+        return candidate;
+    }
+
+    private static char delimiterFor(String filename) {
+        String lower = filename.toLowerCase();
+        return lower.endsWith(".tsv") || lower.endsWith(".tab") || lower.endsWith(".txt") ? '\t' : ',';
     }
 
     /**
      * Cambia la hoja activa en baje a un indice.
      * @param index Indice de la hoja a activa.
+     * @throws SheetLoadException Si la hoja no se pudo cargar; la hoja
+     * activa no cambia.
      */
     public void switchSheet(int index) {
         if (index >= 0 && index < workbook.getSheets().size()) {
+            workbook.getSheet(index).getMatrix();
             workbook.setCurrentSheetIndex(index);
+            workbook.releaseMemory();
         }
     }
 
     /**
-     * Guarda el contenido del libro en un archivo.
+     * Guarda el contenido del libro en un archivo. Si ya se habia guardado
+     * ahi, solo se aseguran en disco los cambios desde entonces.
      * @param filename Nombre del archivo.
      */
     public void saveToFile(String filename) {
         fileManager.saveWorkbook(filename);
     }
 
+    /**
+     * Guarda el libro en segundo plano; aqui solo se toma una instantanea,
+     * asi se puede seguir editando mientras se escribe.
+     * @param filename Nombre del archivo.
+     * @return Se completa cuando el libro esta en disco.
+     */
+    public CompletableFuture<Void> saveToFileAsync(String filename) {
+        return fileManager.saveWorkbookAsync(filename);
+    }
+
+    /**
+     * Guarda automaticamente el libro en su archivo si tiene cambios.
+     * @return Se completa con true si se escribio el libro.
+     */
+    public CompletableFuture<Boolean> autosave() {
+        return fileManager.autosave();
+    }
+
+    /**
+     * Termina las escrituras pendientes del libro antes de salir.
+     */
+    public void close() {
+        fileManager.closeJournal();
+        fileManager.closeSpill();
+    }
+
     /**
      * Carga un libro desde un archivo.
      * @param filename Nombre del archivo que recuperamos.
+     * @throws SheetLoadException Si la hoja activa no se pudo cargar; el
+     * libro queda abierto en la primera hoja que si se pudo cargar.
      */
     public void loadFromFile(String filename) {
         fileManager.loadWorkbook(filename);
-        // Configurar el parser en todas las hojas cargadas
+        // Configurar el parser en todas las hojas (sin cargarlas)
         for (Sheet sheet : workbook.getSheets()) {
-            sheet.getMatrix().setFormulaParser(this.formulaParser);
+            sheet.setFormulaParser(this.formulaParser);
+        }
+        // Con -Dmaxcell.load.eager=true todas las hojas se leen al abrir, en paralelo
+        if (Boolean.getBoolean("maxcell.load.eager")) {
+            fileManager.loadAllSheets();
+        }
+        // Reconstruir dependencias y recalcular las formulas cargadas
+        formulaParser.rebuild(workbook);
+        SheetLoadException failure = loadCurrentSheet();
+        workbook.releaseMemory();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Carga la hoja activa. Si no se puede, cambia a la primera hoja que
+     * si se pueda cargar.
+     * @return Error de la hoja activa o null si se cargo.
+     */
+    private SheetLoadException loadCurrentSheet() {
+        try {
+            workbook.getCurrentSheet().getMatrix();
+            return null;
+        } catch (SheetLoadException e) {
+            for (int i = 0; i < workbook.getSheetCount(); i++) {
+                if (workbook.getSheet(i).isLoadFailed()) continue;
+                try {
+                    switchSheet(i);
+                    break;
+                } catch (SheetLoadException other) {
+                    other.printStackTrace();
+                }
+            }
+            return e;
         }
     }
 
+    /**
+     * Carga en paralelo las hojas que siguen sin cargar y calcula sus
+     * formulas. Por omision cada hoja se carga hasta que se usa.
+     */
+    public void loadAllSheets() {
+        formulaParser.sheetsLoaded(fileManager.loadAllSheets());
+        workbook.releaseMemory();
+    }
+
     /**
      * Busca y regresa una hoja de acuerdo al nombre.
      * @param name Nombre del archivo.
      * @return {@code Sheet} o {@code null} si no existe.
      */
     public Sheet getSheetByName(String name) {
-        for (Sheet sheet : workbook.getSheets()) {
-            if (sheet.getName().equalsIgnoreCase(name.trim())) {
-                return sheet;
-            }
-        }
-        return null;
+        return workbook.getSheet(name);
     }
 
     /**
@@ -159,6 +418,8 @@ public class SheetController {
     
     public void setWorkbook(Workbook workbook) {
         this.workbook = workbook;
+        workbook.setSheetSpill(fileManager.getSheetSpill());
+        formulaParser.reset();
     }
 
     public double evaluarFormula(String formula, int row, int col) {
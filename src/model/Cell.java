@@ -4,7 +4,10 @@
  */
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import util.CompiledFormula;
 
 /**
  * Clase que modela una celda en una hoja de calculo.
@@ -17,7 +20,9 @@ public class Cell implements Serializable {
     private int x,y;
     private String content;
     private String formula;
+    private transient CompiledFormula compiledFormula;
     private Object value;
+    private double number;
     private CellType type;
     private Cell up, down, left, right;
 
@@ -68,11 +73,26 @@ public class Cell implements Serializable {
         this.formula = formula; 
     }
     /**
-     * Obtiene el valor de la celda.
+     * Obtiene la formula ya interpretada de la celda.
+     * @return Formula interpretada o null si no hay (o no se ha interpretado).
+     */
+    public CompiledFormula getCompiledFormula(){
+        return compiledFormula;
+    }
+    /**
+     * Establece la formula ya interpretada de la celda.
+     * @param compiledFormula Formula interpretada.
+     */
+    public void setCompiledFormula(CompiledFormula compiledFormula){
+        this.compiledFormula = compiledFormula;
+    }
+    /**
+     * Obtiene el valor de la celda. Si la celda es numerica el numero se
+     * envuelve en un {@code Double} en este momento.
      * @return Valor de la celda actual.
      */
     public Object getValue(){ 
-        return value; 
+        return type == CellType.NUMBER ? (Object) number : value; 
     }
     /**
      * Establece el valor evaluado de la celda.
@@ -81,6 +101,37 @@ public class Cell implements Serializable {
     public void setValue(Object value){ 
         this.value = value; 
     }
+    /**
+     * Indica si la celda aporta un numero a las formulas: un numero escrito
+     * o una formula cuyo resultado es numerico.
+     * @return true si la celda tiene valor numerico.
+     */
+    public boolean isNumeric(){
+        return type == CellType.NUMBER || (type == CellType.FORMULA && value instanceof Double);
+    }
+    /**
+     * Obtiene el valor numerico que la celda aporta a las formulas, ya
+     * calculado (no se vuelve a leer el texto).
+     * @return Numero escrito, resultado numerico de la formula o 0.
+     */
+    public double getNumericValue(){
+        if (type == CellType.NUMBER) return number;
+        return type == CellType.FORMULA && value instanceof Double ? (Double) value : 0;
+    }
+    /**
+     * Obtiene el valor numerico de la celda sin envolverlo.
+     * @return Numero de la celda (0 si no es numerica).
+     */
+    public double getNumber(){
+        return number;
+    }
+    /**
+     * Establece el valor numerico de la celda.
+     * @param number Numero a guardar.
+     */
+    public void setNumber(double number){
+        this.number = number;
+    }
     /**
      * Obtiene la celda vecina de arriba.
      * @return Referencia de la celda de arriba.
@@ -151,4 +202,61 @@ public class Cell implements Serializable {
     public void setType(CellType type){
         this.type = type;
     }
+
+    /**
+     * Crea una celda numerica suelta (sin vecinos enlazados), usada para
+     * mostrar los numeros que viven en el almacen por columnas.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param number Numero de la celda.
+     * @return Celda con el numero y su texto.
+     */
+    public static Cell detachedNumber(int row, int col, double number) {
+        Cell cell = new Cell(col, row);
+        cell.setContent(formatNumber(number));
+        cell.setNumber(number);
+        cell.setType(CellType.NUMBER);
+        return cell;
+    }
+
+    /**
+     * Copia el contenido de la celda sin sus vecinos, para no cambiar una
+     * celda que comparte una instantanea.
+     * @return Celda nueva con las mismas coordenadas y contenido.
+     */
+    Cell copy() {
+        Cell cell = new Cell(x, y);
+        cell.content = content;
+        cell.formula = formula;
+        cell.compiledFormula = compiledFormula;
+        cell.value = value;
+        cell.number = number;
+        cell.type = type;
+        return cell;
+    }
+
+    /**
+     * Lee la celda. Las versiones anteriores guardaban el numero de una
+     * celda {@code NUMBER} como {@code Double} en el valor.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (type == CellType.NUMBER && value instanceof Double) {
+            number = (Double) value;
+            value = null;
+        }
+    }
+
+    /**
+     * Convierte un numero al texto que se muestra en la celda. Los enteros
+     * se muestran sin decimales.
+     * @param number Numero a convertir.
+     * @return Texto del numero.
+     */
+    public static String formatNumber(double number) {
+        if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+            return Long.toString((long) number);
+        }
+        return Double.toString(number);
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Bloque fijo de 64x64 posiciones de la matriz ortogonal.
+ * Solo se crea cuando alguna celda del bloque tiene contenido y se libera
+ * cuando vuelve a quedar vacio. Las posiciones se guardan por filas, asi que
+ * recorrer un tramo de fila dentro del bloque es leer posiciones contiguas.
+ * @author maryori
+ */
+class CellBlock implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int SHIFT = 6;
+    static final int SIZE = 1 << SHIFT;
+    static final int MASK = SIZE - 1;
+
+    final Cell[] cells = new Cell[SIZE * SIZE];
+    int count;
+    // Generacion de la matriz en que se creo o se copio el bloque
+    final transient int generation;
+
+    CellBlock(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Calcula la posicion de una celda dentro de su bloque.
+     * @param row Fila de la celda en la matriz.
+     * @param col Columna de la celda en la matriz.
+     * @return Posicion dentro del arreglo del bloque.
+     */
+    static int slot(int row, int col) {
+        return ((row & MASK) << SHIFT) | (col & MASK);
+    }
+}
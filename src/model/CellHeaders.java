@@ -0,0 +1,114 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Primer y ultimo nodo ocupado de cada fila (o de cada columna) de la matriz
+ * ortogonal. Se guardan en tramos de 64, igual que los bloques: un tramo se
+ * crea cuando una de sus filas recibe su primer nodo y se libera cuando
+ * todas vuelven a quedar vacias, asi que las filas vacias no ocupan memoria
+ * aunque esten lejos del inicio. Solo el directorio de tramos crece con el
+ * indice, como el directorio de bloques.
+ * @author maryori
+ */
+final class CellHeaders {
+    private static final int SHIFT = CellBlock.SHIFT;
+    private static final int SIZE = CellBlock.SIZE;
+    private static final int MASK = CellBlock.MASK;
+
+    private Chunk[] chunks = new Chunk[1];
+
+    /**
+     * Tramo de 64 filas con su primer y ultimo nodo.
+     */
+    private static final class Chunk {
+        final Cell[] first = new Cell[SIZE];
+        final Cell[] last = new Cell[SIZE];
+        // Filas del tramo con nodos
+        int count;
+    }
+
+    /**
+     * Regresa el primer nodo de una fila.
+     * @param index Fila (o columna).
+     * @return Nodo o null si la fila esta vacia.
+     */
+    Cell first(int index) {
+        Chunk chunk = chunk(index);
+        return chunk != null ? chunk.first[index & MASK] : null;
+    }
+
+    /**
+     * Regresa el ultimo nodo de una fila.
+     * @param index Fila (o columna).
+     * @return Nodo o null si la fila esta vacia.
+     */
+    Cell last(int index) {
+        Chunk chunk = chunk(index);
+        return chunk != null ? chunk.last[index & MASK] : null;
+    }
+
+    /**
+     * Cambia el primer nodo de una fila. Si la fila queda vacia y era la
+     * ultima ocupada del tramo, el tramo se libera.
+     * @param index Fila (o columna).
+     * @param cell Nodo nuevo o null si la fila queda vacia.
+     */
+    void setFirst(int index, Cell cell) {
+        int c = index >> SHIFT;
+        Chunk chunk = chunk(index);
+        if (chunk == null) {
+            if (cell == null) return;
+            if (c >= chunks.length) chunks = Arrays.copyOf(chunks, Math.max(c + 1, chunks.length * 2));
+            chunk = new Chunk();
+            chunks[c] = chunk;
+        }
+        Cell previous = chunk.first[index & MASK];
+        chunk.first[index & MASK] = cell;
+        if (previous == null && cell != null) {
+            chunk.count++;
+        } else if (previous != null && cell == null && --chunk.count == 0) {
+            chunks[c] = null;
+        }
+    }
+
+    /**
+     * Cambia el ultimo nodo de una fila. Se llama despues de
+     * {@link #setFirst}, que es el que crea o libera el tramo.
+     * @param index Fila (o columna).
+     * @param cell Nodo nuevo o null si la fila queda vacia.
+     */
+    void setLast(int index, Cell cell) {
+        Chunk chunk = chunk(index);
+        if (chunk != null) chunk.last[index & MASK] = cell;
+    }
+
+    /**
+     * Regresa la primera fila, desde la dada, cuyo tramo tiene nodos.
+     * @param index Fila inicial.
+     * @return Fila encontrada o -1 si ya no hay tramos ocupados.
+     */
+    int nextUsed(int index) {
+        for (int c = index >> SHIFT; c < chunks.length; c++) {
+            if (chunks[c] != null) return Math.max(index, c << SHIFT);
+        }
+        return -1;
+    }
+
+    /**
+     * Regresa el limite de las filas que pueden tener nodos.
+     * @return Una fila despues del ultimo tramo del directorio.
+     */
+    int limit() {
+        return chunks.length << SHIFT;
+    }
+
+    private Chunk chunk(int index) {
+        int c = index >> SHIFT;
+        return c < chunks.length ? chunks[c] : null;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Interfaz que recibe las celdas ocupadas al recorrer un rango de la matriz
+ * ortogonal. Las celdas vacias no se visitan.
+ * @author maryori
+ */
+public interface CellVisitor {
+    /**
+     * Recibe una celda ocupada del rango.
+     * @param cell Celda visitada.
+     */
+    void visitCell(Cell cell);
+
+    /**
+     * Recibe un numero guardado en el almacen por columnas (no tiene nodo).
+     * Por defecto lo entrega como una celda suelta; se puede sobreescribir
+     * para leer el numero sin crear objetos.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param number Numero de la celda.
+     */
+    default void visitNumber(int row, int col, double number) {
+        visitCell(Cell.detachedNumber(row, col, number));
+    }
+}
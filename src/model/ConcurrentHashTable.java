@@ -0,0 +1,368 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tabla hash que se puede usar desde varios hilos a la vez. Las claves se
+ * reparten en segmentos segun los bits altos de su hash; cada segmento es
+ * una {@link HashTable} con su propio candado de lectura y escritura, asi
+ * que los hilos que usan segmentos distintos no se esperan y varios hilos
+ * pueden buscar en el mismo segmento a la vez.
+ *
+ * Cada operacion sobre una clave se hace completa con el candado de su
+ * segmento, asi que insertar, buscar y quitar son atomicas (linealizables).
+ * Cada segmento crece por su cuenta cuando pasa del factor de carga, sin
+ * detener a los demas. Cambiar la funcion hash o el modo toma todos los
+ * candados.
+ *
+ * {@link #size()}, {@link #getKeys()}, {@link #getStats()} y similares
+ * recorren los segmentos de uno en uno; si otros hilos escriben mientras
+ * tanto, el resultado no es una foto de un solo instante.
+ * @author maryori
+ */
+public class ConcurrentHashTable implements KeyTable {
+    /** Segmentos por omision: cuatro por procesador, al menos 16. */
+    public static final int DEFAULT_SEGMENTS = Math.max(16,
+        Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+    private static final int MAXIMUM_SEGMENTS = 1 << 16;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final int segmentCapacity;
+    private final float loadFactor;
+    private volatile HashStrategy strategy;
+    private volatile boolean robinHood;
+
+    /**
+     * Segmento de la tabla. La tabla se lee y se cambia solo con el candado.
+     */
+    private static final class Segment {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        HashTable table;
+    }
+
+    /**
+     * Constructor con los segmentos, la capacidad, el factor de carga y la
+     * funcion hash por omision.
+     */
+    public ConcurrentHashTable() {
+        this(DEFAULT_SEGMENTS, HashTable.DEFAULT_CAPACITY * DEFAULT_SEGMENTS, HashTable.DEFAULT_LOAD_FACTOR,
+            StandardHash.MURMUR3);
+    }
+
+    /**
+     * Constructor de la tabla.
+     * @param segmentCount Numero de segmentos (se redondea a potencia de dos).
+     * @param initialCapacity Capacidad inicial total, repartida entre los segmentos.
+     * @param loadFactor Fraccion ocupada a partir de la cual un segmento crece (entre 0 y 1).
+     * @param strategy Funcion hash de las claves.
+     */
+    public ConcurrentHashTable(int segmentCount, int initialCapacity, float loadFactor, HashStrategy strategy) {
+        if (segmentCount < 1 || segmentCount > MAXIMUM_SEGMENTS) {
+            throw new IllegalArgumentException("Número de segmentos inválido: " + segmentCount);
+        }
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Capacidad inválida: " + initialCapacity);
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("Falta la función hash");
+        }
+        int count = segmentCount == 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+        this.segmentShift = 31 - Integer.numberOfTrailingZeros(count);
+        this.segmentCapacity = Math.max(2, initialCapacity / count);
+        this.loadFactor = loadFactor;
+        this.strategy = strategy;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+            segments[i].table = newTable(strategy);
+        }
+    }
+
+    private HashTable newTable(HashStrategy strategy) {
+        HashTable table = new HashTable(segmentCapacity, loadFactor, false, strategy);
+        table.setRobinHood(robinHood);
+        return table;
+    }
+
+    /**
+     * Funcion hash de la clave, segun la funcion elegida.
+     * @param key Clave a convertir.
+     * @return Valor hash de la clave, nunca negativo.
+     */
+    public int hashFunction(String key) {
+        return strategy.hash(key) & 0x7FFFFFFF;
+    }
+
+    /**
+     * Segmento de un hash: sus bits altos (la tabla del segmento usa los bajos).
+     */
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> segmentShift];
+    }
+
+    /**
+     * Inserta la clave; si ya existe o esta vacia, la omite. Si el segmento
+     * pasa del factor de carga, crece al doble.
+     * @param key Clave a insertar.
+     */
+    @Override
+    public void put(String key) {
+        if (key == null || key.trim().isEmpty()) return;
+        while (true) {
+            HashStrategy used = strategy;
+            int hash = used.hash(key) & 0x7FFFFFFF;
+            Segment segment = segmentFor(hash);
+            Lock lock = segment.lock.writeLock();
+            lock.lock();
+            try {
+                // Si la funcion hash cambio mientras esperaba, se vuelve a calcular
+                if (segment.table.getHashStrategy() == used) {
+                    segment.table.put(key, hash);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Devuelve el valor hash de una clave que esta almacenada.
+     * @param key Clave buscada.
+     * @return Valor hash si se encuentra la clave, -1 si no existe.
+     */
+    @Override
+    public int getHashValue(String key) {
+        if (key == null) return -1;
+        while (true) {
+            HashStrategy used = strategy;
+            int hash = used.hash(key) & 0x7FFFFFFF;
+            Segment segment = segmentFor(hash);
+            Lock lock = segment.lock.readLock();
+            lock.lock();
+            try {
+                if (segment.table.getHashStrategy() == used) {
+                    return segment.table.contains(key, hash) ? hash : -1;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Quita una clave de la tabla.
+     * @param key Clave a quitar.
+     * @return true si la clave estaba en la tabla.
+     */
+    @Override
+    public boolean remove(String key) {
+        if (key == null) return false;
+        while (true) {
+            HashStrategy used = strategy;
+            int hash = used.hash(key) & 0x7FFFFFFF;
+            Segment segment = segmentFor(hash);
+            Lock lock = segment.lock.writeLock();
+            lock.lock();
+            try {
+                if (segment.table.getHashStrategy() == used) {
+                    return segment.table.remove(key, hash);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de claves guardadas.
+     * @return Suma de las claves de los segmentos.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            Lock lock = segment.lock.readLock();
+            lock.lock();
+            try {
+                size += segment.table.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Devuelve la cantidad de posiciones de la tabla.
+     * @return Suma de las capacidades de los segmentos.
+     */
+    @Override
+    public int capacity() {
+        int capacity = 0;
+        for (Segment segment : segments) {
+            Lock lock = segment.lock.readLock();
+            lock.lock();
+            try {
+                capacity += segment.table.capacity();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Devuelve una copia de las claves de todos los segmentos, uno tras otro.
+     * @return Arreglo de claves por posicion.
+     */
+    @Override
+    public String[] getKeys() {
+        String[][] parts = new String[segments.length][];
+        int length = 0;
+        for (int i = 0; i < segments.length; i++) {
+            Lock lock = segments[i].lock.readLock();
+            lock.lock();
+            try {
+                parts[i] = segments[i].table.getKeys().clone();
+            } finally {
+                lock.unlock();
+            }
+            length += parts[i].length;
+        }
+        String[] keys = new String[length];
+        int position = 0;
+        for (String[] part : parts) {
+            System.arraycopy(part, 0, keys, position, part.length);
+            position += part.length;
+        }
+        return keys;
+    }
+
+    /**
+     * Devuelve una copia de los valores hash de todos los segmentos, en el
+     * mismo orden que {@link #getKeys()}.
+     * @return Arreglo de valores hash por posicion.
+     */
+    @Override
+    public int[] getHashValues() {
+        int[][] parts = new int[segments.length][];
+        int length = 0;
+        for (int i = 0; i < segments.length; i++) {
+            Lock lock = segments[i].lock.readLock();
+            lock.lock();
+            try {
+                parts[i] = segments[i].table.getHashValues().clone();
+            } finally {
+                lock.unlock();
+            }
+            length += parts[i].length;
+        }
+        int[] hashes = new int[length];
+        int position = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, hashes, position, part.length);
+            position += part.length;
+        }
+        return hashes;
+    }
+
+    /**
+     * Mide los sondeos de todos los segmentos juntos.
+     * @return Medidas de la tabla.
+     */
+    @Override
+    public ProbeStats getStats() {
+        ProbeStats stats = null;
+        for (Segment segment : segments) {
+            Lock lock = segment.lock.readLock();
+            lock.lock();
+            try {
+                ProbeStats part = segment.table.getStats();
+                stats = stats == null ? part : stats.merge(part);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Cambia la funcion hash. Como el segmento de cada clave sale de su hash,
+     * con todos los candados tomados se vuelven a repartir todas las claves.
+     * @param strategy Funcion hash nueva.
+     */
+    @Override
+    public void setHashStrategy(HashStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Falta la función hash");
+        }
+        lockAll();
+        try {
+            HashTable[] old = new HashTable[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                old[i] = segments[i].table;
+                segments[i].table = newTable(strategy);
+            }
+            this.strategy = strategy;
+            for (HashTable table : old) {
+                for (String key : table.getKeys()) {
+                    if (key == null) continue;
+                    int hash = hashFunction(key);
+                    segmentFor(hash).table.put(key, hash);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public HashStrategy getHashStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Activa o desactiva el modo Robin Hood en todos los segmentos.
+     * @param robinHood true para usar Robin Hood.
+     */
+    @Override
+    public void setRobinHood(boolean robinHood) {
+        lockAll();
+        try {
+            this.robinHood = robinHood;
+            for (Segment segment : segments) {
+                segment.table.setRobinHood(robinHood);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public boolean isRobinHood() {
+        return robinHood;
+    }
+
+    /**
+     * Toma los candados de escritura de todos los segmentos, siempre en el
+     * mismo orden para no trabarse con otro hilo que haga lo mismo.
+     */
+    private void lockAll() {
+        for (Segment segment : segments) {
+            segment.lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = segments.length - 1; i >= 0; i--) {
+            segments[i].lock.writeLock().unlock();
+        }
+    }
+}
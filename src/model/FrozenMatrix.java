@@ -0,0 +1,102 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Copia congelada del contenido de una matriz ortogonal, creada con
+ * {@link OrthogonalMatrix#freeze()}. Comparte los bloques de celdas y los
+ * tramos numericos con la matriz, que los copia antes de cambiarlos, asi que
+ * se puede leer desde otro hilo mientras la hoja se sigue editando o
+ * recalculando. Las celdas que entrega no se deben modificar.
+ * @author maryori
+ */
+public final class FrozenMatrix {
+    private static final int SHIFT = CellBlock.SHIFT;
+    private static final int SIZE = CellBlock.SIZE;
+    private static final int MASK = CellBlock.MASK;
+
+    private final int rows;
+    private final int cols;
+    private final int cellCount;
+    private final CellBlock[][] blocks;
+    private final NumericColumnStore numbers;
+    private final boolean rangeSumIndex;
+
+    FrozenMatrix(int rows, int cols, int cellCount, CellBlock[][] blocks,
+            NumericColumnStore numbers, boolean rangeSumIndex) {
+        this.rows = rows;
+        this.cols = cols;
+        this.cellCount = cellCount;
+        this.blocks = blocks;
+        this.numbers = numbers;
+        this.rangeSumIndex = rangeSumIndex;
+    }
+
+    /**
+     * Recorre todas las celdas ocupadas fila por fila, de izquierda a
+     * derecha, en el mismo orden que {@link OrthogonalMatrix#scanRowMajor}.
+     * Las filas se leen de los bloques y no de los enlaces, que siguen
+     * cambiando con la matriz.
+     * @param visitor Receptor de las celdas ocupadas.
+     */
+    public void scanRowMajor(CellVisitor visitor) {
+        int numberLimit = numbers != null ? numbers.getColumnLimit() : 0;
+        for (int row = 0; row < rows; row++) {
+            int band = row >> SHIFT;
+            CellBlock[] line = band < blocks.length ? blocks[band] : null;
+            int base = (row & MASK) << SHIFT;
+            int col = 0;
+            for (int b = 0; line != null && b < line.length; b++) {
+                CellBlock block = line[b];
+                if (block == null) continue;
+                for (int c = 0; c < SIZE; c++) {
+                    Cell cell = block.cells[base | c];
+                    if (cell == null) continue;
+                    int nodeCol = (b << SHIFT) | c;
+                    // Mezclar nodos y numeros por columna (nunca comparten posicion)
+                    for (; col < numberLimit && col < nodeCol; col++) {
+                        if (numbers.has(row, col)) visitor.visitNumber(row, col, numbers.get(row, col));
+                    }
+                    visitor.visitCell(cell);
+                    col = nodeCol + 1;
+                }
+            }
+            for (; col < numberLimit; col++) {
+                if (numbers.has(row, col)) visitor.visitNumber(row, col, numbers.get(row, col));
+            }
+        }
+    }
+
+    /**
+     * Regresa la cantidad de celdas con contenido.
+     * @return Numero de nodos ocupados mas los numeros guardados por columnas.
+     */
+    public int getCellCount() {
+        return cellCount + (numbers != null ? numbers.size() : 0);
+    }
+
+    /**
+     * Indica si los numeros se guardaban en el almacen por columnas.
+     * @return true si el almacen estaba activo.
+     */
+    public boolean isColumnarNumbers() {
+        return numbers != null;
+    }
+
+    /**
+     * Indica si la matriz mantenia el indice de sumas por bloque.
+     * @return true si el indice estaba activo.
+     */
+    public boolean isRangeSumIndex() {
+        return rangeSumIndex;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+    public int getCols() {
+        return cols;
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Funcion hash que usa la {@link HashTable} para sus claves. La tabla toma
+ * los bits bajos del valor como posicion inicial, asi que una buena funcion
+ * debe repartir bien esos bits (ver {@link StandardHash}).
+ * @author maryori
+ */
+public interface HashStrategy {
+    /**
+     * Calcula el hash de una clave.
+     * @param key Clave (nunca null).
+     * @return Valor hash de 32 bits.
+     */
+    int hash(String key);
+}
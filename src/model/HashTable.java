@@ -4,106 +4,543 @@
  */
 package model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
 /**
  * Clase que implementa tabla hash usando sondeo lineal para colisiones.
  * Admite cadenas como claves y da el valor hash.
- * La tabla hash tiene tamaño fijo (10 posiciones) y encuentra el indice por medio
- * de una funcion hash.
+ *
+ * La capacidad es siempre una potencia de dos, asi el indice sale del hash
+ * con una mascara. Cuando las claves pasan del factor de carga la tabla
+ * duplica su capacidad y reacomoda las claves, asi insertar y buscar siguen
+ * siendo O(1) amortizado y nunca se pierde una clave por falta de espacio.
+ * El reacomodo de tablas muy grandes se puede hacer en paralelo.
+ *
+ * La funcion hash se puede cambiar (ver {@link HashStrategy}); como la
+ * posicion sale de los bits bajos, una funcion que los reparte mal forma
+ * grupos largos de posiciones ocupadas. {@link #getStats()} mide que tan
+ * largos quedan los sondeos para comparar funciones.
+ *
+ * En modo Robin Hood, al insertar una clave que ya se alejo mas de su
+ * posicion inicial que la clave que ocupa el lugar, le quita el lugar y
+ * sigue insertando la otra. Asi las distancias quedan parejas y el sondeo
+ * mas largo se mantiene corto aun con mucha carga; ademas una busqueda que
+ * falla termina en cuanto encuentra una clave mas cerca de su inicio que
+ * la buscada. En los dos modos quitar una clave recorre hacia atras las
+ * que siguen en su grupo, sin dejar marcas de borrado.
  * @author maryori
  */
 
-public class HashTable {
-    private static final int TABLE_SIZE = 10;
+public class HashTable implements KeyTable {
+    /** Capacidad inicial por omision. */
+    public static final int DEFAULT_CAPACITY = 16;
+    /** Factor de carga por omision. */
+    public static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    // Capacidad desde la que el reacomodo en paralelo vale la pena
+    private static final int PARALLEL_REHASH_MIN = 1 << 16;
+    // Posiciones de la tabla nueva que reacomoda cada tarea en paralelo
+    private static final int REHASH_CHUNK = 1 << 14;
+
     private String[] keys;
     private int[] hashValues; // valores hash calculados
+    private int size;
+    private int threshold;
+    private final float loadFactor;
+    private final boolean parallelRehash;
+    private HashStrategy strategy;
+    private boolean robinHood;
 
     /**
-     * Constructor que inicializa la tabla con tamaño fijo y espacios vacios.
+     * Constructor que inicializa la tabla vacia con la capacidad y el factor
+     * de carga por omision.
      */
     public HashTable() {
-        keys = new String[TABLE_SIZE];
-        hashValues = new int[TABLE_SIZE];
+        this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR, false);
+    }
+
+    /**
+     * Constructor de la tabla con la funcion hash por omision,
+     * {@link StandardHash#MURMUR3} (la que deja sondeos mas cortos con
+     * claves parecidas).
+     * @param initialCapacity Capacidad inicial (se redondea a potencia de dos).
+     * @param loadFactor Fraccion ocupada a partir de la cual la tabla crece (entre 0 y 1).
+     * @param parallelRehash true para reacomodar en paralelo las tablas grandes al crecer.
+     */
+    public HashTable(int initialCapacity, float loadFactor, boolean parallelRehash) {
+        this(initialCapacity, loadFactor, parallelRehash, StandardHash.MURMUR3);
+    }
+
+    /**
+     * Constructor de la tabla.
+     * @param initialCapacity Capacidad inicial (se redondea a potencia de dos).
+     * @param loadFactor Fraccion ocupada a partir de la cual la tabla crece (entre 0 y 1).
+     * @param parallelRehash true para reacomodar en paralelo las tablas grandes al crecer.
+     * @param strategy Funcion hash de las claves.
+     */
+    public HashTable(int initialCapacity, float loadFactor, boolean parallelRehash, HashStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Falta la función hash");
+        }
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Capacidad inválida: " + initialCapacity);
+        }
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("Factor de carga inválido: " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        this.parallelRehash = parallelRehash;
+        this.strategy = strategy;
+        int capacity = tableSizeFor(Math.max(2, initialCapacity));
+        keys = new String[capacity];
+        hashValues = new int[capacity];
+        threshold = thresholdFor(capacity);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        if (capacity >= MAXIMUM_CAPACITY) return MAXIMUM_CAPACITY;
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private int thresholdFor(int capacity) {
+        // Siempre queda al menos una posicion vacia para terminar los sondeos
+        return Math.min(capacity - 1, (int) (capacity * (double) loadFactor));
     }
 
     /**
-     * Funcion hash que convierte la clave en indice dentro del rango de la tabla (10p).
-     * @param key Clave a convertir en indice.
-     * @return Indice hash dentro de los limites de la tabla.
+     * Funcion hash de la clave, segun la funcion elegida. El indice en la
+     * tabla son los bits bajos de este valor (ver {@link #indexFor}).
+     * @param key Clave a convertir.
+     * @return Valor hash de la clave, nunca negativo.
      */
     public int hashFunction(String key) {
-        int hash = 0;
-        for (int i = 0; i < key.length(); i++) {
-            hash = (31 * hash + key.charAt(i)) % TABLE_SIZE;
+        return strategy.hash(key) & 0x7FFFFFFF; // Aseguro que sea positivo
+    }
+
+    /**
+     * Posicion inicial de un hash en una tabla de la capacidad dada.
+     */
+    private static int indexFor(int hash, int mask) {
+        return hash & mask;
+    }
+
+    /**
+     * Cambia la funcion hash y reacomoda todas las claves con ella.
+     * @param strategy Funcion hash nueva.
+     */
+    @Override
+    public void setHashStrategy(HashStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Falta la función hash");
         }
-        return Math.abs(hash); // Aseguro que sea positivo
+        this.strategy = strategy;
+        rehash();
+    }
+
+    /**
+     * Devuelve la funcion hash en uso.
+     * @return Funcion hash de la tabla.
+     */
+    @Override
+    public HashStrategy getHashStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Activa o desactiva el modo Robin Hood; las claves se reacomodan.
+     * @param robinHood true para usar Robin Hood, false para sondeo lineal simple.
+     */
+    @Override
+    public void setRobinHood(boolean robinHood) {
+        if (this.robinHood == robinHood) return;
+        this.robinHood = robinHood;
+        rehash();
+    }
+
+    /**
+     * Indica si la tabla usa el modo Robin Hood.
+     * @return true si usa Robin Hood.
+     */
+    @Override
+    public boolean isRobinHood() {
+        return robinHood;
+    }
+
+    /**
+     * Vuelve a insertar todas las claves con la funcion hash y el modo
+     * actuales, sin cambiar la capacidad.
+     */
+    private void rehash() {
+        String[] newKeys = new String[keys.length];
+        int[] newHashes = new int[keys.length];
+        for (String key : keys) {
+            if (key != null) insert(newKeys, newHashes, key, hashFunction(key));
+        }
+        keys = newKeys;
+        hashValues = newHashes;
+    }
+
+    /**
+     * Distancia de la posicion index a la posicion inicial de la clave que
+     * la ocupa.
+     */
+    private static int distance(int[] hashes, int index, int mask) {
+        return (index - indexFor(hashes[index], mask)) & mask;
     }
 
     /**
      * Inserta la clave en la tabla. Si ya existe, la omite.
-     * Sy hay colision, usa sondeo lineal para encontrar la siguiente posicion.
+     * Si hay colision, usa sondeo lineal para encontrar la siguiente posicion
+     * (en modo Robin Hood, la clave puede quitarle el lugar a otra).
+     * Si la tabla pasa del factor de carga, crece al doble.
      * @param key Clave a insertar
      */
+    @Override
     public void put(String key) {
         if (key == null || key.trim().isEmpty()) return;
-        
-        int hashValue = hashFunction(key);
-        int index = hashValue;
-        int originalIndex = index;
-        
+        put(key, hashFunction(key));
+    }
+
+    /**
+     * Inserta una clave cuyo hash ya se calculo con {@link #hashFunction}.
+     * @return true si la clave no estaba.
+     */
+    boolean put(String key, int hashValue) {
+        int mask = keys.length - 1;
+        int index = indexFor(hashValue, mask);
+        int dist = 0;
+
         // Manejo de colisiones con sondeo lineal
-        while (keys[index] != null && !keys[index].equals(key)) {
-            index = (index + 1) % TABLE_SIZE;
-            if (index == originalIndex) {
-                // Tabla llena
-                return;
-            }
+        while (keys[index] != null) {
+            if (hashValues[index] == hashValue && keys[index].equals(key)) return false;
+            // En Robin Hood la clave no puede estar mas adelante
+            if (robinHood && distance(hashValues, index, mask) < dist) break;
+            index = (index + 1) & mask;
+            dist++;
+        }
+
+        if (robinHood) {
+            placeRobinHood(keys, hashValues, index, dist, key, hashValue);
+        } else {
+            keys[index] = key;
+            hashValues[index] = hashValue; // Almacenamos el valor hash calculado
         }
-        
-        keys[index] = key;
-        hashValues[index] = hashValue; // Almacenamos el valor hash calculado
+        if (++size > threshold) {
+            resize();
+        }
+        return true;
     }
 
     /**
      * Devuelve el valor hash de una clave que esta almacenada.
      * @param key Clave buscada.
-     * @return Valor hash si se enceutnre la clave, - si no existe.
+     * @return Valor hash si se encuentra la clave, -1 si no existe.
      */
+    @Override
     public int getHashValue(String key) {
-        int index = hashFunction(key);
-        int originalIndex = index;
-        
+        if (key == null) return -1;
+        int hashValue = hashFunction(key);
+        return contains(key, hashValue) ? hashValue : -1;
+    }
+
+    /**
+     * Indica si esta una clave cuyo hash ya se calculo con {@link #hashFunction}.
+     */
+    boolean contains(String key, int hashValue) {
+        return find(key, hashValue) >= 0;
+    }
+
+    /**
+     * Busca la posicion de una clave.
+     * @return Posicion de la clave o -1 si no esta.
+     */
+    private int find(String key, int hashValue) {
+        int mask = keys.length - 1;
+        int index = indexFor(hashValue, mask);
+        int dist = 0;
+
         while (keys[index] != null) {
-            if (keys[index].equals(key)) {
-                return hashValues[index];
-            }
-            index = (index + 1) % TABLE_SIZE;
-            if (index == originalIndex) {
-                break;
+            if (hashValues[index] == hashValue && keys[index].equals(key)) {
+                return index;
             }
+            if (robinHood && distance(hashValues, index, mask) < dist) break;
+            index = (index + 1) & mask;
+            dist++;
         }
-        
+
         return -1; // No encontrado
     }
 
     /**
-     * Devuelve el arreglo de claves guardadas.
+     * Quita una clave de la tabla. Las claves que siguen en su grupo se
+     * recorren hacia atras para que los sondeos no se corten.
+     * @param key Clave a quitar.
+     * @return true si la clave estaba en la tabla.
+     */
+    @Override
+    public boolean remove(String key) {
+        if (key == null) return false;
+        return remove(key, hashFunction(key));
+    }
+
+    /**
+     * Quita una clave cuyo hash ya se calculo con {@link #hashFunction}.
+     * @return true si la clave estaba.
+     */
+    boolean remove(String key, int hashValue) {
+        int index = find(key, hashValue);
+        if (index < 0) return false;
+
+        int mask = keys.length - 1;
+        int next = (index + 1) & mask;
+        if (robinHood) {
+            // Se recorren las claves hasta una vacia o una que ya esta en su inicio
+            while (keys[next] != null && distance(hashValues, next, mask) > 0) {
+                keys[index] = keys[next];
+                hashValues[index] = hashValues[next];
+                index = next;
+                next = (next + 1) & mask;
+            }
+        } else {
+            // Se mueve al hueco cada clave cuyo inicio no queda entre el hueco y ella
+            while (keys[next] != null) {
+                if (distance(hashValues, next, mask) >= ((next - index) & mask)) {
+                    keys[index] = keys[next];
+                    hashValues[index] = hashValues[next];
+                    index = next;
+                }
+                next = (next + 1) & mask;
+            }
+        }
+        keys[index] = null;
+        hashValues[index] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Duplica la capacidad y reacomoda todas las claves.
+     */
+    private void resize() {
+        int oldCapacity = keys.length;
+        if (oldCapacity >= MAXIMUM_CAPACITY) {
+            if (size >= MAXIMUM_CAPACITY - 1) throw new IllegalStateException("La tabla hash está llena");
+            threshold = MAXIMUM_CAPACITY - 1;
+            return;
+        }
+        int capacity = oldCapacity << 1;
+        String[] newKeys = new String[capacity];
+        int[] newHashes = new int[capacity];
+        if (parallelRehash && capacity >= PARALLEL_REHASH_MIN) {
+            rehashParallel(newKeys, newHashes);
+        } else {
+            for (int i = 0; i < oldCapacity; i++) {
+                if (keys[i] != null) insert(newKeys, newHashes, keys[i], hashValues[i]);
+            }
+        }
+        keys = newKeys;
+        hashValues = newHashes;
+        threshold = thresholdFor(capacity);
+    }
+
+    /**
+     * Reacomoda las claves en paralelo. Al duplicar, una clave con posicion
+     * inicial h en la tabla vieja queda en h o en h + capacidad vieja. Cada
+     * tarea toma un tramo [a, b) de posiciones iniciales viejas y solo
+     * escribe en los tramos [a, b) y [a + vieja, b + vieja) de la tabla
+     * nueva, asi las tareas no se pisan. Las claves que en el sondeo se
+     * salen de su tramo se guardan aparte y se insertan al final en este hilo.
+     * En modo Robin Hood cada tramo se llena con Robin Hood; en el limite entre
+     * tramos la primera clave de un tramo esta en su inicio, asi que la tabla
+     * queda bien ordenada.
+     */
+    private void rehashParallel(String[] newKeys, int[] newHashes) {
+        int oldCapacity = keys.length;
+        int oldMask = oldCapacity - 1;
+        int newMask = newKeys.length - 1;
+        int chunk = Math.min(REHASH_CHUNK, oldCapacity);
+        int chunks = oldCapacity / chunk;
+        List<List<String>> overflow = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) overflow.add(new ArrayList<>());
+
+        IntStream.range(0, chunks).parallel().forEach(part -> {
+            int start = part * chunk;
+            int end = start + chunk;
+            List<String> spilled = overflow.get(part);
+            // Las claves con posicion inicial en [start, end) estan entre start
+            // y la primera posicion vacia desde end
+            boolean pastEnd = false;
+            for (int n = 0; n < oldCapacity; n++) {
+                int i = (start + n) & oldMask;
+                if (n >= chunk) pastEnd = true;
+                String key = keys[i];
+                if (key == null) {
+                    if (pastEnd) break;
+                    continue;
+                }
+                int hash = hashValues[i];
+                int home = indexFor(hash, oldMask);
+                if (home < start || home >= end) continue;
+                int index = indexFor(hash, newMask);
+                int limit = (index & oldCapacity) == 0 ? end : end + oldCapacity;
+                // Dentro del tramo no se da la vuelta, asi que la distancia es una resta
+                for (int dist = 0; index < limit && newKeys[index] != null; index++, dist++) {
+                    int other = index - indexFor(newHashes[index], newMask);
+                    if (robinHood && other < dist) {
+                        String carriedKey = newKeys[index];
+                        int carriedHash = newHashes[index];
+                        newKeys[index] = key;
+                        newHashes[index] = hash;
+                        key = carriedKey;
+                        hash = carriedHash;
+                        dist = other;
+                    }
+                }
+                if (index < limit) {
+                    newKeys[index] = key;
+                    newHashes[index] = hash;
+                } else {
+                    spilled.add(key);
+                }
+            }
+        });
+        // Pocas claves se salen de su tramo; su hash se vuelve a calcular
+        for (List<String> spilled : overflow) {
+            for (String key : spilled) insert(newKeys, newHashes, key, hashFunction(key));
+        }
+    }
+
+    /**
+     * Mide los sondeos y los grupos de posiciones ocupadas de la tabla.
+     * Recorre toda la tabla una vez.
+     * @return Medidas de la tabla.
+     */
+    @Override
+    public ProbeStats getStats() {
+        int capacity = keys.length;
+        int mask = capacity - 1;
+        long totalProbes = 0;
+        int maxProbe = 0;
+        int[] histogram = new int[Integer.SIZE - Integer.numberOfLeadingZeros(capacity)];
+        int maxCluster = 0;
+
+        // Se empieza despues de una posicion vacia (siempre hay una) para
+        // no partir en dos el grupo que da la vuelta al final
+        int first = 0;
+        while (keys[first] != null) first++;
+        int cluster = 0;
+        for (int n = 1; n <= capacity; n++) {
+            int i = (first + n) & mask;
+            if (keys[i] == null) {
+                if (cluster > 0) {
+                    histogram[31 - Integer.numberOfLeadingZeros(cluster)]++;
+                    maxCluster = Math.max(maxCluster, cluster);
+                    cluster = 0;
+                }
+                continue;
+            }
+            cluster++;
+            int probe = distance(hashValues, i, mask) + 1;
+            totalProbes += probe;
+            maxProbe = Math.max(maxProbe, probe);
+        }
+        int buckets = histogram.length;
+        while (buckets > 0 && histogram[buckets - 1] == 0) buckets--;
+        return new ProbeStats(size, capacity, totalProbes, maxProbe,
+            Arrays.copyOf(histogram, buckets), maxCluster);
+    }
+
+    /**
+     * Inserta una clave que no esta en la tabla dada, segun el modo.
+     */
+    private void insert(String[] table, int[] hashes, String key, int hash) {
+        int mask = table.length - 1;
+        int index = indexFor(hash, mask);
+        if (robinHood) {
+            placeRobinHood(table, hashes, index, 0, key, hash);
+            return;
+        }
+        while (table[index] != null) index = (index + 1) & mask;
+        table[index] = key;
+        hashes[index] = hash;
+    }
+
+    /**
+     * Pone una clave desde la posicion index, a distancia dist de su inicio.
+     * Si una clave ocupante esta mas cerca de su inicio, se queda con su
+     * lugar y se sigue con la ocupante.
+     */
+    private static void placeRobinHood(String[] table, int[] hashes, int index, int dist, String key, int hash) {
+        int mask = table.length - 1;
+        while (table[index] != null) {
+            int other = distance(hashes, index, mask);
+            if (other < dist) {
+                String carriedKey = table[index];
+                int carriedHash = hashes[index];
+                table[index] = key;
+                hashes[index] = hash;
+                key = carriedKey;
+                hash = carriedHash;
+                dist = other;
+            }
+            index = (index + 1) & mask;
+            dist++;
+        }
+        table[index] = key;
+        hashes[index] = hash;
+    }
+
+    /**
+     * Devuelve la cantidad de claves guardadas.
+     * @return Numero de claves.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Devuelve la cantidad de posiciones de la tabla.
+     * @return Capacidad actual (potencia de dos).
+     */
+    @Override
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Devuelve el factor de carga con el que crece la tabla.
+     * @return Factor de carga.
+     */
+    public float getLoadFactor() {
+        return loadFactor;
+    }
+
+    /**
+     * Devuelve el arreglo de claves guardadas (una posicion por lugar de la
+     * tabla, null si esta vacia). Cambia de arreglo cuando la tabla crece.
      * @return Arrego de cadenas que contiene las claves en la tabla.
      */
-    public String[] getKeys(){ 
-        return keys; 
+    @Override
+    public String[] getKeys(){
+        return keys;
     }
     /**
      * Devuelve el arreglo de valores hash de cada clave guardada.
      * @return Arreglo de enteror con valores hash.
      */
-    public int[] getHashValues(){ 
-        return hashValues; 
+    @Override
+    public int[] getHashValues(){
+        return hashValues;
     }
     /**
-     * Devuelve el tamaño fijo de la tabla.
-     * @return Tamaño total de la tabla (10 fijos).
+     * Devuelve el tamaño de la tabla (su capacidad).
+     * @return Tamaño total de la tabla.
      */
-    public int getSize(){ 
-        return TABLE_SIZE; 
+    public int getSize(){
+        return keys.length;
     }
-}
\ No newline at end of file
+}
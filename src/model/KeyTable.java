@@ -0,0 +1,87 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Operaciones de una tabla hash de claves de texto. La implementan
+ * {@link HashTable} (un solo hilo) y {@link ConcurrentHashTable} (varios
+ * hilos a la vez).
+ * @author maryori
+ */
+public interface KeyTable {
+    /**
+     * Inserta una clave; si ya existe o esta vacia, la omite.
+     * @param key Clave a insertar.
+     */
+    void put(String key);
+
+    /**
+     * Devuelve el valor hash de una clave que esta almacenada.
+     * @param key Clave buscada.
+     * @return Valor hash si se encuentra la clave, -1 si no existe.
+     */
+    int getHashValue(String key);
+
+    /**
+     * Quita una clave de la tabla.
+     * @param key Clave a quitar.
+     * @return true si la clave estaba en la tabla.
+     */
+    boolean remove(String key);
+
+    /**
+     * Devuelve la cantidad de claves guardadas.
+     * @return Numero de claves.
+     */
+    int size();
+
+    /**
+     * Devuelve la cantidad de posiciones de la tabla.
+     * @return Capacidad actual.
+     */
+    int capacity();
+
+    /**
+     * Devuelve las claves por posicion de la tabla (null si esta vacia).
+     * @return Arreglo de claves.
+     */
+    String[] getKeys();
+
+    /**
+     * Devuelve el valor hash guardado en cada posicion (0 si esta vacia).
+     * @return Arreglo de valores hash.
+     */
+    int[] getHashValues();
+
+    /**
+     * Mide los sondeos y los grupos de posiciones ocupadas de la tabla.
+     * @return Medidas de la tabla.
+     */
+    ProbeStats getStats();
+
+    /**
+     * Cambia la funcion hash y reacomoda todas las claves con ella.
+     * @param strategy Funcion hash nueva.
+     */
+    void setHashStrategy(HashStrategy strategy);
+
+    /**
+     * Devuelve la funcion hash en uso.
+     * @return Funcion hash de la tabla.
+     */
+    HashStrategy getHashStrategy();
+
+    /**
+     * Activa o desactiva el modo Robin Hood; las claves se reacomodan.
+     * @param robinHood true para usar Robin Hood.
+     */
+    void setRobinHood(boolean robinHood);
+
+    /**
+     * Indica si la tabla usa el modo Robin Hood.
+     * @return true si usa Robin Hood.
+     */
+    boolean isRobinHood();
+}
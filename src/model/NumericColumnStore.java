@@ -0,0 +1,248 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Almacen por columnas para las celdas numericas de una hoja.
+ * Cada columna guarda sus valores en arreglos {@code double[]} y un mapa de
+ * bits que indica que filas tienen numero. Los arreglos se dividen en tramos
+ * de 4096 filas que se crean solo cuando se escribe en ellos, asi que una
+ * columna casi vacia no reserva memoria para todas sus filas.
+ * @author maryori
+ */
+public class NumericColumnStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // values[col][tramo][fila dentro del tramo]
+    private double[][][] values;
+    // present[col][tramo][palabra]: un bit por fila
+    private long[][][] present;
+    private int[][] chunkCounts;
+    private int count;
+    // Generacion de la ultima instantanea y de cada tramo: un tramo de una
+    // generacion anterior se comparte con una instantanea
+    private transient int generation;
+    private transient int[][] chunkGenerations;
+
+    /**
+     * Constructor que crea el almacen vacio.
+     */
+    public NumericColumnStore() {
+        values = new double[8][][];
+        present = new long[8][][];
+        chunkCounts = new int[8][];
+    }
+
+    /**
+     * Indica si una celda tiene numero guardado.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @return true si la celda tiene numero.
+     */
+    public boolean has(int row, int col) {
+        long[] bits = bits(row, col);
+        return bits != null && (bits[(row & CHUNK_MASK) >> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Obtiene el numero de una celda.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @return Valor guardado o 0 si la celda no tiene numero.
+     */
+    public double get(int row, int col) {
+        if (col >= values.length || values[col] == null) return 0;
+        double[][] chunks = values[col];
+        int chunk = row >>> CHUNK_SHIFT;
+        return chunk < chunks.length && chunks[chunk] != null ? chunks[chunk][row & CHUNK_MASK] : 0;
+    }
+
+    /**
+     * Guarda el numero de una celda.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param value Valor numerico.
+     */
+    public void set(int row, int col, double value) {
+        ensureColumn(col);
+        int chunk = row >>> CHUNK_SHIFT;
+        if (chunk >= values[col].length) {
+            int capacity = Math.max(chunk + 1, values[col].length * 2);
+            values[col] = Arrays.copyOf(values[col], capacity);
+            present[col] = Arrays.copyOf(present[col], capacity);
+            chunkCounts[col] = Arrays.copyOf(chunkCounts[col], capacity);
+        }
+        if (values[col][chunk] == null) {
+            values[col][chunk] = new double[CHUNK_SIZE];
+            present[col][chunk] = new long[CHUNK_SIZE >> 6];
+            int[] generations = generations(col);
+            if (generations != null) generations[chunk] = generation;
+        } else {
+            thaw(col, chunk);
+        }
+        long[] bits = present[col][chunk];
+        int word = (row & CHUNK_MASK) >> 6;
+        if ((bits[word] & (1L << row)) == 0) {
+            bits[word] |= 1L << row;
+            chunkCounts[col][chunk]++;
+            count++;
+        }
+        values[col][chunk][row & CHUNK_MASK] = value;
+    }
+
+    /**
+     * Quita el numero de una celda. Si el tramo queda vacio se libera.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @return true si la celda tenia numero.
+     */
+    public boolean remove(int row, int col) {
+        long[] bits = bits(row, col);
+        int word = (row & CHUNK_MASK) >> 6;
+        if (bits == null || (bits[word] & (1L << row)) == 0) return false;
+
+        int chunk = row >>> CHUNK_SHIFT;
+        count--;
+        if (--chunkCounts[col][chunk] == 0) {
+            values[col][chunk] = null;
+            present[col][chunk] = null;
+            return true;
+        }
+        thaw(col, chunk);
+        present[col][chunk][word] &= ~(1L << row);
+        return true;
+    }
+
+    /**
+     * Busca la siguiente fila con numero en una columna.
+     * @param col Columna a revisar.
+     * @param fromRow Primera fila a considerar.
+     * @return Fila encontrada o -1 si no hay mas numeros en la columna.
+     */
+    public int nextRow(int col, int fromRow) {
+        if (col >= present.length || present[col] == null) return -1;
+        long[][] chunks = present[col];
+        for (int chunk = fromRow >>> CHUNK_SHIFT; chunk < chunks.length; chunk++) {
+            long[] bits = chunks[chunk];
+            if (bits == null) {
+                fromRow = (chunk + 1) << CHUNK_SHIFT;
+                continue;
+            }
+            int word = (fromRow & CHUNK_MASK) >> 6;
+            long pending = bits[word] & (-1L << fromRow);
+            while (true) {
+                if (pending != 0) {
+                    return (chunk << CHUNK_SHIFT) | (word << 6) | Long.numberOfTrailingZeros(pending);
+                }
+                if (++word == bits.length) break;
+                pending = bits[word];
+            }
+            fromRow = (chunk + 1) << CHUNK_SHIFT;
+        }
+        return -1;
+    }
+
+    /**
+     * Suma los numeros de una columna entre dos filas (inclusivas),
+     * recorriendo directamente los arreglos primitivos.
+     * @param col Columna a sumar.
+     * @param fromRow Fila inicial.
+     * @param toRow Fila final.
+     * @return Suma de los numeros presentes.
+     */
+    public double sum(int col, int fromRow, int toRow) {
+        double sum = 0;
+        for (int row = nextRow(col, fromRow); row >= 0 && row <= toRow; row = nextRow(col, row + 1)) {
+            sum += values[col][row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        }
+        return sum;
+    }
+
+    /**
+     * Regresa la cantidad de columnas que el almacen puede tener ocupadas.
+     * @return Limite (exclusivo) de columnas a revisar.
+     */
+    public int getColumnLimit() {
+        return values.length;
+    }
+
+    /**
+     * Regresa la cantidad de numeros guardados.
+     * @return Numero de celdas numericas.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Congela el contenido actual para leerlo desde otro hilo. La copia
+     * comparte los tramos; el almacen copia un tramo compartido la primera
+     * vez que lo cambia, asi que congelar solo copia los directorios.
+     * @return Copia que no debe modificarse.
+     */
+    NumericColumnStore freeze() {
+        NumericColumnStore frozen = new NumericColumnStore();
+        frozen.values = values.clone();
+        frozen.present = present.clone();
+        for (int col = 0; col < values.length; col++) {
+            if (values[col] == null) continue;
+            frozen.values[col] = values[col].clone();
+            frozen.present[col] = present[col].clone();
+        }
+        frozen.count = count;
+        generation++;
+        return frozen;
+    }
+
+    private void thaw(int col, int chunk) {
+        int[] generations = generations(col);
+        if (generations == null || generations[chunk] == generation) return;
+        values[col][chunk] = values[col][chunk].clone();
+        present[col][chunk] = present[col][chunk].clone();
+        generations[chunk] = generation;
+    }
+
+    private int[] generations(int col) {
+        if (generation == 0) return null;
+        if (chunkGenerations == null || chunkGenerations.length < values.length) {
+            chunkGenerations = chunkGenerations == null
+                    ? new int[values.length][] : Arrays.copyOf(chunkGenerations, values.length);
+        }
+        int[] generations = chunkGenerations[col];
+        if (generations == null || generations.length < values[col].length) {
+            generations = generations == null
+                    ? new int[values[col].length] : Arrays.copyOf(generations, values[col].length);
+            chunkGenerations[col] = generations;
+        }
+        return generations;
+    }
+
+    private long[] bits(int row, int col) {
+        if (row < 0 || col < 0 || col >= present.length || present[col] == null) return null;
+        long[][] chunks = present[col];
+        int chunk = row >>> CHUNK_SHIFT;
+        return chunk < chunks.length ? chunks[chunk] : null;
+    }
+
+    private void ensureColumn(int col) {
+        if (col >= values.length) {
+            int capacity = Math.max(col + 1, values.length * 2);
+            values = Arrays.copyOf(values, capacity);
+            present = Arrays.copyOf(present, capacity);
+            chunkCounts = Arrays.copyOf(chunkCounts, capacity);
+        }
+        if (values[col] == null) {
+            values[col] = new double[4][];
+            present[col] = new long[4][];
+            chunkCounts[col] = new int[4];
+        }
+    }
+}
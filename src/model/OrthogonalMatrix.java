@@ -10,21 +10,126 @@
  */
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+import util.CompiledFormula;
 import util.FormulaParser;
 
 public class OrthogonalMatrix implements Serializable {
     private static final long serialVersionUID = 3L;
-    private Cell head;
+    // Forma guardada: head es la cuadricula enlazada de las versiones
+    // anteriores (ya no se escribe); las celdas nuevas van en arreglos planos
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("head", Cell.class),
+        new ObjectStreamField("rows", int.class),
+        new ObjectStreamField("cols", int.class),
+        new ObjectStreamField("cellRows", int[].class),
+        new ObjectStreamField("cellCols", int[].class),
+        new ObjectStreamField("cellTypes", CellType[].class),
+        new ObjectStreamField("cellContents", String[].class),
+        new ObjectStreamField("cellNumbers", double[].class),
+        new ObjectStreamField("columnNumbers", NumericColumnStore.class),
+        new ObjectStreamField("rangeSumIndex", boolean.class)
+    };
+    /** Limite de filas de una hoja. */
+    public static final int MAX_ROWS = 1 << 24;
+    /** Limite de columnas de una hoja. */
+    public static final int MAX_COLS = 1 << 14;
+    private static final int INITIAL_HEADERS = 8;
+    private static final int SHIFT = CellBlock.SHIFT;
+    private static final int MASK = CellBlock.MASK;
+    // Fuente de las marcas de version, unicas entre todas las matrices
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    // Filas y columnas en uso (crecen al escribir fuera de ellas)
     private int rows=20;
     private int cols=20;
+    // Cabeceras de fila: primer y ultimo nodo ocupado de cada fila.
+    private CellHeaders rowHeaders;
+    // Cabeceras de columna: primer y ultimo nodo ocupado de cada columna.
+    private CellHeaders colHeaders;
+    // Directorio de bloques de 64x64: blocks[filaBloque][columnaBloque].
+    // Las lineas y los bloques se crean solo cuando se escribe en ellos.
+    private CellBlock[][] blocks;
+    private int cellCount;
+    // Almacen por columnas para las celdas numericas (null si no se usa).
+    private NumericColumnStore numbers;
+    // Sumas parciales por bloque para sumar rangos (null si no se usa).
+    private RangeSumIndex sums;
+
+    // Hoja a la que pertenece la matriz
+    private Sheet sheet;
+
     private transient FormulaParser formulaParser;
+    // Cambia con cada escritura del contenido (no con los recalculos)
+    private transient long version = VERSIONS.incrementAndGet();
+    // Generacion de la ultima copia congelada (ver freeze): los bloques de
+    // una generacion anterior se comparten con ella
+    private transient int generation;
 
     /**
-     * Constructor que crea una matriz de 20x20 de celdas enlazadas.
+     * Constructor que crea una matriz vacia que se muestra de 20x20. Solo se
+     * crean nodos para las celdas que llegan a tener contenido.
      */
     public OrthogonalMatrix() {
-        this.head = new Cell(0,0);
+        this(20, 20);
+    }
+
+    /**
+     * Constructor que crea una matriz vacia con las dimensiones iniciales
+     * indicadas. La matriz crece si se escribe fuera de ellas.
+     * @param rows Cantidad de filas iniciales.
+     * @param cols Cantidad de columnas iniciales.
+     */
+    public OrthogonalMatrix(int rows, int cols) {
+        this.rows = Math.min(rows, MAX_ROWS);
+        this.cols = Math.min(cols, MAX_COLS);
+        initCells();
+    }
+
+    /**
+     * Deja la matriz sin celdas.
+     */
+    private void initCells() {
+        rowHeaders = new CellHeaders();
+        colHeaders = new CellHeaders();
+        blocks = new CellBlock[INITIAL_HEADERS][];
+        cellCount = 0;
+    }
+
+    /**
+     * Regresa la marca de version del contenido. Cambia cada vez que se
+     * escribe una celda, asi una instantanea de la hoja se puede reutilizar
+     * mientras la marca siga igual.
+     * @return Marca de version, distinta para cada cambio de cualquier matriz.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private void touch() {
+        version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Establece la hoja a la que pertenece la matriz.
+     * @param sheet Hoja duena de la matriz.
+     */
+    void setSheet(Sheet sheet) {
+        this.sheet = sheet;
+    }
+
+    /**
+     * Regresa la hoja a la que pertenece la matriz.
+     * @return Hoja duena o null si la matriz no esta en una hoja.
+     */
+    public Sheet getSheet() {
+        return sheet;
     }
 
     /**
@@ -43,60 +148,279 @@ public class OrthogonalMatrix implements Serializable {
      * @param value Valor o formula de la celda.
      */
     public void setCellValue(int row, int col, String value) {
-        if (row < 0 || col < 0 || row >= rows || col >= cols) return;
+        if (row < 0 || col < 0 || row >= MAX_ROWS || col >= MAX_COLS) return;
+        touch();
+        boolean hadNumber = sums != null && hasNumber(row, col);
+        storeValue(row, col, value);
+        if (hadNumber || sums != null && hasNumber(row, col)) {
+            updateSums(row, col);
+        }
+        notifyDependents(row, col);
+    }
+
+    /**
+     * Vuelve a sumar en el indice la columna del bloque de una celda (a lo
+     * mas 64 numeros, de arriba hacia abajo), en vez de restar el numero
+     * anterior y sumar el nuevo, que acumula error de redondeo.
+     * @param row Fila de la celda que cambio.
+     * @param col Columna de la celda que cambio.
+     */
+    private void updateSums(int row, int col) {
+        int top = row & ~MASK;
+        double[] sum = new double[1];
+        int count = forEachNumber(top, col, top + MASK, col, number -> sum[0] += number);
+        sums.setColumn(row, col, sum[0], count);
+    }
+
+    /**
+     * Guarda el valor en la celda (o la quita si el valor esta vacio).
+     */
+    private void storeValue(int row, int col, String value) {
+        if (value == null || value.isEmpty()) {
+            removeCell(row, col);
+            if (numbers != null) numbers.remove(row, col);
+            return;
+        }
+        if (numbers != null) {
+            if (!value.startsWith("=") && storeNumber(row, col, value)) return;
+            numbers.remove(row, col);
+        }
         Cell cell = getOrCreateCell(row, col);
-        if (cell != null) {
-            cell.setContent(value);
-        
-            if (value != null && value.startsWith("=")) {
-                handleFormula(cell, value, row, col);
-            } else {
-                handlePlainValue(cell, value);
-            }
-        //notifyDependents(row, col);
+        cell.setContent(value);
+
+        if (value.startsWith("=")) {
+            handleFormula(cell, value, row, col);
+        } else {
+            handlePlainValue(cell, value);
+        }
+    }
+
+    /**
+     * Intenta guardar el valor en el almacen por columnas.
+     * @return true si el valor era numero y quedo guardado.
+     */
+    private boolean storeNumber(int row, int col, String value) {
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return false;
         }
+        removeCell(row, col);
+        numbers.set(row, col, number);
+        growTo(row, col);
+        return true;
+    }
+
+    private void growTo(int row, int col) {
+        if (row >= rows) rows = row + 1;
+        if (col >= cols) cols = col + 1;
     }
 
     private Cell getOrCreateCell(int row, int col) {
-        // Crear o obtener la fila
-        Cell rowStart = getOrCreateRow(row);
-        
-        // Crear o obtener la columna
-        return getOrCreateColumn(rowStart, row, col);
+        CellBlock block = getOrCreateBlock(row, col);
+        int slot = CellBlock.slot(row, col);
+        Cell cell = block.cells[slot];
+        if (cell != null) return cell;
+
+        cell = new Cell(col, row);
+        linkInRow(cell, row, col);
+        linkInColumn(cell, row, col);
+        block.cells[slot] = cell;
+        block.count++;
+        cellCount++;
+        growTo(row, col);
+        return cell;
     }
-    
-    private Cell getOrCreateRow(int row) {
-        Cell current = head;
-        Cell prev = null;
-        
-        // Buscar la fila
-        for (int r = 0; r < row; r++) {
-            prev = current;
-            if (current.getDown() == null) {
-                current.setDown(new Cell(0, r+1));
+
+    /**
+     * Quita el nodo de una celda y lo desenlaza de su fila y su columna.
+     * Si el bloque queda vacio se libera.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     */
+    private void removeCell(int row, int col) {
+        CellBlock block = getBlock(row, col);
+        int slot = CellBlock.slot(row, col);
+        if (block == null || block.cells[slot] == null) return;
+        block = thaw(row >> SHIFT, col >> SHIFT);
+        Cell cell = block.cells[slot];
+
+        Cell left = cell.getLeft(), right = cell.getRight();
+        if (left != null) left.setRight(right); else rowHeaders.setFirst(row, right);
+        if (right != null) right.setLeft(left); else rowHeaders.setLast(row, left);
+
+        Cell up = cell.getUp(), down = cell.getDown();
+        if (up != null) up.setDown(down); else colHeaders.setFirst(col, down);
+        if (down != null) down.setUp(up); else colHeaders.setLast(col, up);
+
+        block.cells[slot] = null;
+        cellCount--;
+        if (--block.count == 0) {
+            blocks[row >> SHIFT][col >> SHIFT] = null;
+        }
+    }
+
+    /**
+     * Busca el bloque que contiene una celda.
+     * @return Bloque o null si esa region no tiene contenido.
+     */
+    private CellBlock getBlock(int row, int col) {
+        int blockRow = row >> SHIFT, blockCol = col >> SHIFT;
+        if (blockRow >= blocks.length) return null;
+        CellBlock[] line = blocks[blockRow];
+        return line != null && blockCol < line.length ? line[blockCol] : null;
+    }
+
+    private CellBlock getOrCreateBlock(int row, int col) {
+        int blockRow = row >> SHIFT, blockCol = col >> SHIFT;
+        if (blockRow >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(blockRow + 1, blocks.length * 2));
+        }
+        CellBlock[] line = blocks[blockRow];
+        if (line == null) {
+            line = new CellBlock[Math.max(blockCol + 1, 4)];
+            blocks[blockRow] = line;
+        } else if (blockCol >= line.length) {
+            line = Arrays.copyOf(line, Math.max(blockCol + 1, line.length * 2));
+            blocks[blockRow] = line;
+        }
+        if (line[blockCol] == null) {
+            line[blockCol] = new CellBlock(generation);
+        }
+        return thaw(blockRow, blockCol);
+    }
+
+    /**
+     * Prepara un bloque para cambiarlo. Si lo comparte una copia congelada,
+     * se reemplaza por una copia con copias de sus celdas, y sus vecinos y
+     * cabeceras se enlazan a las copias; las celdas originales quedan como
+     * estaban para la copia congelada.
+     * @return Bloque que ya se puede cambiar.
+     */
+    private CellBlock thaw(int blockRow, int blockCol) {
+        CellBlock block = blocks[blockRow][blockCol];
+        if (block.generation == generation) return block;
+
+        CellBlock copy = new CellBlock(generation);
+        copy.count = block.count;
+        for (int slot = 0; slot < block.cells.length; slot++) {
+            if (block.cells[slot] != null) copy.cells[slot] = block.cells[slot].copy();
+        }
+        for (int slot = 0; slot < block.cells.length; slot++) {
+            Cell original = block.cells[slot];
+            if (original == null) continue;
+            Cell cell = copy.cells[slot];
+            int row = cell.getY(), col = cell.getX();
+            Cell left = current(copy, original.getLeft(), blockRow, blockCol);
+            Cell right = current(copy, original.getRight(), blockRow, blockCol);
+            Cell up = current(copy, original.getUp(), blockRow, blockCol);
+            Cell down = current(copy, original.getDown(), blockRow, blockCol);
+            cell.setLeft(left);
+            cell.setRight(right);
+            cell.setUp(up);
+            cell.setDown(down);
+            if (left != null) left.setRight(cell); else rowHeaders.setFirst(row, cell);
+            if (right != null) right.setLeft(cell); else rowHeaders.setLast(row, cell);
+            if (up != null) up.setDown(cell); else colHeaders.setFirst(col, cell);
+            if (down != null) down.setUp(cell); else colHeaders.setLast(col, cell);
+        }
+        blocks[blockRow][blockCol] = copy;
+        return copy;
+    }
+
+    /**
+     * Regresa la copia de un vecino si esta en el bloque copiado, o el
+     * vecino mismo si esta en otro bloque.
+     */
+    private static Cell current(CellBlock copy, Cell cell, int blockRow, int blockCol) {
+        if (cell == null || cell.getY() >> SHIFT != blockRow || cell.getX() >> SHIFT != blockCol) {
+            return cell;
+        }
+        return copy.cells[CellBlock.slot(cell.getY(), cell.getX())];
+    }
+
+    /**
+     * Busca el nodo ocupado mas cercano a la izquierda de una columna,
+     * revisando el tramo de la fila en cada bloque y saltando los bloques
+     * que no existen.
+     */
+    private Cell findLeft(int row, int col) {
+        int blockRow = row >> SHIFT;
+        if (blockRow >= blocks.length || blocks[blockRow] == null) return null;
+        CellBlock[] line = blocks[blockRow];
+        int blockCol = col >> SHIFT;
+        int base = (row & MASK) << SHIFT;
+        int c = (col & MASK) - 1;
+        for (int b = Math.min(blockCol, line.length - 1); b >= 0; b--) {
+            if (b != blockCol) c = MASK;
+            CellBlock block = line[b];
+            if (block == null) continue;
+            for (; c >= 0; c--) {
+                Cell cell = block.cells[base | c];
+                if (cell != null) return cell;
             }
-            current = current.getDown();
         }
-        
-        return current;
+        return null;
     }
-    
-    private Cell getOrCreateColumn(Cell rowStart, int row, int col) {
-        Cell current = rowStart;
-        Cell prev = null;
-        
-        // Buscar la columna
-        for (int c = 0; c < col; c++) {
-            prev = current;
-            if (current.getRight() == null) {
-                current.setRight(new Cell(c+1, row));
+
+    /**
+     * Busca el nodo ocupado mas cercano arriba de una fila en la misma
+     * columna, saltando los bloques que no existen.
+     */
+    private Cell findAbove(int row, int col) {
+        int blockRow = row >> SHIFT, blockCol = col >> SHIFT;
+        int inCol = col & MASK;
+        int r = (row & MASK) - 1;
+        for (int b = Math.min(blockRow, blocks.length - 1); b >= 0; b--) {
+            if (b != blockRow) r = MASK;
+            CellBlock[] line = blocks[b];
+            CellBlock block = line != null && blockCol < line.length ? line[blockCol] : null;
+            if (block == null) continue;
+            for (; r >= 0; r--) {
+                Cell cell = block.cells[(r << SHIFT) | inCol];
+                if (cell != null) return cell;
             }
-            current = current.getRight();
         }
-        
-        return current;
+        return null;
     }
-    
+
+    /**
+     * Inserta el nodo en la lista de su fila, ordenada por columna.
+     * Si va al final de la fila se usa la cola y no se recorre nada; si no,
+     * el punto de insercion se busca en los bloques.
+     */
+    private void linkInRow(Cell cell, int row, int col) {
+        Cell prev = rowHeaders.last(row);
+        if (prev != null && prev.getX() > col) {
+            prev = rowHeaders.first(row).getX() > col ? null : findLeft(row, col);
+        }
+        Cell next = prev != null ? prev.getRight() : rowHeaders.first(row);
+
+        cell.setLeft(prev);
+        cell.setRight(next);
+        if (prev != null) prev.setRight(cell); else rowHeaders.setFirst(row, cell);
+        if (next != null) next.setLeft(cell); else rowHeaders.setLast(row, cell);
+    }
+
+    /**
+     * Inserta el nodo en la lista de su columna, ordenada por fila.
+     * Si va al final de la columna se usa la cola y no se recorre nada; si
+     * no, el punto de insercion se busca en los bloques.
+     */
+    private void linkInColumn(Cell cell, int row, int col) {
+        Cell prev = colHeaders.last(col);
+        if (prev != null && prev.getY() > row) {
+            prev = colHeaders.first(col).getY() > row ? null : findAbove(row, col);
+        }
+        Cell next = prev != null ? prev.getDown() : colHeaders.first(col);
+
+        cell.setUp(prev);
+        cell.setDown(next);
+        if (prev != null) prev.setDown(cell); else colHeaders.setFirst(col, cell);
+        if (next != null) next.setUp(cell); else colHeaders.setLast(col, cell);
+    }
+
     /**
      * Maneja el procesamiento de formula y su evaluacion con el parser.
      * @param cell Celda a evaluar.
@@ -109,9 +433,9 @@ public class OrthogonalMatrix implements Serializable {
         cell.setType(CellType.FORMULA);
         
         if (formulaParser != null) {
-            Object result = formulaParser.parseFormula(
-                formula.substring(1), row, col);
-            cell.setValue(result);
+            CompiledFormula compiled = formulaParser.compile(formula.substring(1));
+            cell.setCompiledFormula(compiled);
+            cell.setValue(formulaParser.evaluate(compiled, sheet, row, col));
         } else {
             cell.setValue("#ERROR: No parser");
         }
@@ -124,9 +448,11 @@ public class OrthogonalMatrix implements Serializable {
      */
     private void handlePlainValue(Cell cell, String value) {
         cell.setFormula("");
+        cell.setCompiledFormula(null);
         try {
             double numValue = Double.parseDouble(value);
-            cell.setValue(numValue);
+            cell.setNumber(numValue);
+            cell.setValue(null);
             cell.setType(CellType.NUMBER);
         } catch (NumberFormatException e) {
             cell.setValue(value);
@@ -134,87 +460,597 @@ public class OrthogonalMatrix implements Serializable {
         }
     }
     
-    /*
-     * Vuelve a evaluar las formulas de la matriz cuando una celda se modifique.
+    /**
+     * Guarda una celda leida de un archivo, ya con su tipo. No interpreta
+     * el texto, no evalua formulas ni avisa a sus dependientes: al terminar
+     * de cargar el libro el parser recalcula todas las formulas.
      * @param row Fila de la celda.
      * @param col Columna de la celda.
-   
-    private void notifyDependents(int row, int col) {
-        String changedCellKey = createCellKey(row, col);
-        
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                Cell cell = matrix[i][j];
-                if (cell != null && cell.getType() == CellType.FORMULA) {
-                    if (dependsOn(cell.getFormula(), changedCellKey)) {
-                        handleFormula(cell, cell.getFormula(), i, j);
-                    }
-                }
-            }
+     * @param type Tipo de la celda (NUMBER, TEXT o FORMULA).
+     * @param content Texto de la celda (la formula con = si es FORMULA).
+     * @param number Numero de la celda si es NUMBER.
+     */
+    public void loadCell(int row, int col, CellType type, String content, double number) {
+        if (row < 0 || col < 0 || row >= MAX_ROWS || col >= MAX_COLS) return;
+        touch();
+        if (type == CellType.NUMBER && numbers != null) {
+            numbers.set(row, col, number);
+            growTo(row, col);
+            return;
+        }
+        Cell cell = getOrCreateCell(row, col);
+        cell.setContent(content);
+        cell.setCompiledFormula(null);
+        cell.setType(type);
+        if (type == CellType.NUMBER) {
+            cell.setFormula("");
+            cell.setNumber(number);
+            cell.setValue(null);
+        } else if (type == CellType.FORMULA) {
+            cell.setFormula(content);
+            cell.setValue(null);
+        } else {
+            cell.setFormula("");
+            cell.setValue(content);
         }
     }
 
-     * Verifica si la formula depende de una celda por su clave.
-     * @param formula Formula a evaluar/modificar.
-     * @param cellKey Clave de la celda (coordenada).
-     * @return 
-    private boolean dependsOn(String formula, String cellKey) {
-        return formula != null && formula.contains(cellKey);
+    /**
+     * Amplia las filas y columnas en uso hasta al menos las indicadas.
+     * @param rows Filas en uso.
+     * @param cols Columnas en uso.
+     */
+    public void ensureExtent(int rows, int cols) {
+        touch();
+        if (rows > 0 && cols > 0) growTo(Math.min(rows, MAX_ROWS) - 1, Math.min(cols, MAX_COLS) - 1);
     }
-    */
-    
+
     /**
-     * Crea la representacion de una celda
+     * Guarda el resultado recalculado de una celda con formula, manteniendo
+     * al dia el indice de sumas si la hoja lo usa.
      * @param row Fila de la celda.
      * @param col Columna de la celda.
-     * @return Reperesentacion de la celda (coordenada).
+     * @param value Resultado de la formula.
      */
-    private String createCellKey(int row, int col) {
-        char colChar = (char) ('A' + col);
-        return "" + colChar + (row + 1);
+    public void setFormulaValue(int row, int col, Object value) {
+        CellBlock block = getBlock(row, col);
+        int slot = CellBlock.slot(row, col);
+        Cell cell = block != null ? block.cells[slot] : null;
+        if (cell == null || cell.getType() != CellType.FORMULA) return;
+        cell = thaw(row >> SHIFT, col >> SHIFT).cells[slot];
+        boolean hadNumber = cell.isNumeric();
+        cell.setValue(value);
+        if (sums != null && (hadNumber || cell.isNumeric())) updateSums(row, col);
+    }
+
+    /**
+     * Avisa al parser que la hoja se acaba de cargar de su archivo, para que
+     * registre y calcule sus formulas.
+     */
+    void notifyLoaded() {
+        if (formulaParser != null && sheet != null) {
+            formulaParser.sheetLoaded(sheet);
+        }
+    }
+
+    /**
+     * Cambia el texto de una formula por otro equivalente (por ejemplo con el
+     * nombre nuevo de una hoja que usa), sin tocar su valor ni recalcular.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param formula Texto nuevo, con el signo =.
+     * @param compiled Formula interpretada del texto nuevo.
+     */
+    public void rewriteFormula(int row, int col, String formula, CompiledFormula compiled) {
+        CellBlock block = getBlock(row, col);
+        int slot = CellBlock.slot(row, col);
+        Cell cell = block != null ? block.cells[slot] : null;
+        if (cell == null || cell.getType() != CellType.FORMULA) return;
+        touch();
+        cell = thaw(row >> SHIFT, col >> SHIFT).cells[slot];
+        cell.setContent(formula);
+        cell.setFormula(formula);
+        cell.setCompiledFormula(compiled);
+    }
+
+    /**
+     * Avisa al parser que la hoja se saco de memoria, para que olvide sus formulas.
+     */
+    void notifyUnloaded() {
+        if (formulaParser != null && sheet != null) {
+            formulaParser.sheetUnloaded(sheet);
+        }
     }
 
+    /**
+     * Vacia la matriz (al sacar la hoja de memoria). Conserva la hoja y el
+     * parser; el almacen por columnas y el indice de sumas se desactivan.
+     */
+    void clear() {
+        touch();
+        rows = 20;
+        cols = 20;
+        initCells();
+        numbers = null;
+        sums = null;
+    }
+
+    /**
+     * Escribe la matriz con la forma guardada de {@link #serialPersistentFields}:
+     * las celdas van en arreglos planos y no por sus enlaces, que dependen
+     * de como se organiza la matriz en memoria.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        int[] cellRows = new int[cellCount];
+        int[] cellCols = new int[cellCount];
+        CellType[] cellTypes = new CellType[cellCount];
+        String[] cellContents = new String[cellCount];
+        double[] cellNumbers = new double[cellCount];
+        int[] next = new int[1];
+        scanRowMajor(0, 0, MAX_ROWS - 1, MAX_COLS - 1, new CellVisitor() {
+            @Override
+            public void visitCell(Cell cell) {
+                int i = next[0]++;
+                cellRows[i] = cell.getY();
+                cellCols[i] = cell.getX();
+                cellTypes[i] = cell.getType();
+                cellContents[i] = cell.getContent();
+                cellNumbers[i] = cell.getNumber();
+            }
+
+            @Override
+            public void visitNumber(int row, int col, double number) {
+                // Van en el almacen por columnas
+            }
+        });
+
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("rows", rows);
+        fields.put("cols", cols);
+        fields.put("cellRows", cellRows);
+        fields.put("cellCols", cellCols);
+        fields.put("cellTypes", cellTypes);
+        fields.put("cellContents", cellContents);
+        fields.put("cellNumbers", cellNumbers);
+        fields.put("columnNumbers", numbers);
+        fields.put("rangeSumIndex", sums != null);
+        out.writeFields();
+    }
+
+    /**
+     * Lee la matriz. Los archivos de versiones anteriores traen la cabeza
+     * de una cuadricula enlazada ({@code head}): sus celdas se recorren por
+     * filas y se cargan igual que las de un archivo nuevo. Las formulas se
+     * recalculan al poner el libro en el controlador.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        version = VERSIONS.incrementAndGet();
+        rows = Math.min(fields.get("rows", 20), MAX_ROWS);
+        cols = Math.min(fields.get("cols", 20), MAX_COLS);
+        initCells();
+
+        Cell head = (Cell) fields.get("head", null);
+        for (Cell rowStart = head; rowStart != null; rowStart = rowStart.getDown()) {
+            for (Cell cell = rowStart; cell != null; cell = cell.getRight()) {
+                String content = cell.getContent();
+                if (cell.getType() == null || cell.getType() == CellType.EMPTY
+                        || content == null || content.isEmpty()) continue;
+                loadCell(cell.getY(), cell.getX(), cell.getType(), content, cell.getNumber());
+            }
+        }
+
+        int[] cellRows = (int[]) fields.get("cellRows", null);
+        if (cellRows != null) {
+            int[] cellCols = (int[]) fields.get("cellCols", null);
+            CellType[] cellTypes = (CellType[]) fields.get("cellTypes", null);
+            String[] cellContents = (String[]) fields.get("cellContents", null);
+            double[] cellNumbers = (double[]) fields.get("cellNumbers", null);
+            for (int i = 0; i < cellRows.length; i++) {
+                loadCell(cellRows[i], cellCols[i], cellTypes[i], cellContents[i], cellNumbers[i]);
+            }
+        }
+        numbers = (NumericColumnStore) fields.get("columnNumbers", null);
+        if (fields.get("rangeSumIndex", false)) setRangeSumIndex(true);
+    }
+
+    /**
+     * Vuelve a evaluar las formulas que dependen de una celda modificada.
+     * El parser usa el grafo de dependencias del libro, asi que solo se
+     * recalculan las formulas afectadas y en orden.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     */
+    private void notifyDependents(int row, int col) {
+        if (formulaParser != null && sheet != null) {
+            formulaParser.cellChanged(sheet, row, col);
+        }
+    }
+    
     /**
      * Obtiene la celda ubicada en la fila y columna especifica.
      * @param row FIla de la celda.
      * @param col Columna de la celda.
-     * @return Celda correspondiente o null si esta fuera del rango.
+     * @return Celda correspondiente o null si esta fuera del rango o vacia.
      */
     public Cell getCell(int row, int col) {
-        if (row < 0 || col < 0 || row >= rows || col >= cols) {
+        if (row < 0 || col < 0) {
             return null;
         }
+        if (numbers != null && numbers.has(row, col)) {
+            return Cell.detachedNumber(row, col, numbers.get(row, col));
+        }
+        CellBlock block = getBlock(row, col);
+        return block != null ? block.cells[CellBlock.slot(row, col)] : null;
+    }
+
+    /**
+     * Indica si la celda tiene un numero (escrito o resultado de una
+     * formula), sin crear objetos.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @return true si la celda es numerica.
+     */
+    public boolean hasNumber(int row, int col) {
+        if (row < 0 || col < 0) return false;
+        if (numbers != null && numbers.has(row, col)) return true;
+        CellBlock block = getBlock(row, col);
+        Cell cell = block != null ? block.cells[CellBlock.slot(row, col)] : null;
+        return cell != null && cell.isNumeric();
+    }
+
+    /**
+     * Obtiene el numero de una celda sin envolverlo en un objeto.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @return Numero de la celda o 0 si no es numerica.
+     */
+    public double getNumber(int row, int col) {
+        if (row < 0 || col < 0) return 0;
+        if (numbers != null && numbers.has(row, col)) return numbers.get(row, col);
+        CellBlock block = getBlock(row, col);
+        Cell cell = block != null ? block.cells[CellBlock.slot(row, col)] : null;
+        return cell != null ? cell.getNumericValue() : 0;
+    }
+
+    /**
+     * Suma los numeros de una columna entre dos filas (inclusivas).
+     * Los numeros del almacen por columnas se suman sobre sus arreglos
+     * primitivos; los nodos numericos se suman recorriendo la columna.
+     * @param col Columna a sumar.
+     * @param fromRow Fila inicial.
+     * @param toRow Fila final.
+     * @return Suma de los numeros de la columna en ese tramo.
+     */
+    public double sumColumn(int col, int fromRow, int toRow) {
+        double sum = numbers != null ? numbers.sum(col, fromRow, toRow) : 0;
+        for (Cell cell = firstInColumn(fromRow, col); cell != null && cell.getY() <= toRow; cell = cell.getDown()) {
+            if (cell.isNumeric()) {
+                sum += cell.getNumericValue();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Suma los numeros de un rango. Con el indice de sumas activo, las
+     * bandas de 64 filas que quedan completas dentro del rango se suman con
+     * las sumas de sus bloques y solo se recorren las celdas de las bandas
+     * de las orillas; sin indice se recorren las celdas ocupadas del rango.
+     * @param row1 Fila inicial.
+     * @param col1 Columna inicial.
+     * @param row2 Fila final (inclusiva).
+     * @param col2 Columna final (inclusiva).
+     * @return Suma de los numeros del rango.
+     */
+    public double sumRange(int row1, int col1, int row2, int col2) {
+        double[] sum = new double[1];
+        row1 = Math.max(0, row1);
+        col1 = Math.max(0, col1);
+        if (sums == null) {
+            forEachNumber(row1, col1, row2, col2, number -> sum[0] += number);
+            return sum[0];
+        }
+        int lastBand = Math.min(row2 >> SHIFT, sums.getBandLimit() - 1);
+        for (int band = row1 >> SHIFT; band <= lastBand; band++) {
+            if (!sums.hasNumbers(band)) continue;
+            int top = band << SHIFT, bottom = top + MASK;
+            if (row1 <= top && bottom <= row2) {
+                sum[0] += sums.sumBand(band, col1, col2);
+            } else {
+                forEachNumber(Math.max(row1, top), col1, Math.min(row2, bottom), col2, number -> sum[0] += number);
+            }
+        }
+        return sum[0];
+    }
+
+    /**
+     * Recorre las celdas ocupadas de un rango fila por fila, de izquierda a
+     * derecha. Cada fila se recorre una sola vez por sus enlaces a la
+     * derecha, empezando en la primera celda del rango, asi que el costo es
+     * lineal en las filas del rango mas las celdas ocupadas.
+     * @param row1 Fila inicial.
+     * @param col1 Columna inicial.
+     * @param row2 Fila final (inclusiva).
+     * @param col2 Columna final (inclusiva).
+     * @param visitor Receptor de las celdas ocupadas.
+     */
+    public void scanRowMajor(int row1, int col1, int row2, int col2, CellVisitor visitor) {
+        row1 = Math.max(0, row1);
+        col1 = Math.max(0, col1);
+        row2 = Math.min(row2, (numbers != null ? rows : rowHeaders.limit()) - 1);
+        int numberLimit = numbers != null ? Math.min(col2, numbers.getColumnLimit() - 1) : -1;
+
+        for (int row = row1; row <= row2; row++) {
+            if (numberLimit < col1) {
+                // Saltar los tramos de 64 filas sin nodos
+                row = rowHeaders.nextUsed(row);
+                if (row < 0 || row > row2) break;
+            }
+            Cell node = firstInRow(row, col1);
+            if (numberLimit < col1) {
+                for (; node != null && node.getX() <= col2; node = node.getRight()) {
+                    visitor.visitCell(node);
+                }
+                continue;
+            }
+            // Mezclar nodos y numeros por columna (nunca comparten posicion)
+            int col = col1;
+            while (true) {
+                int nodeCol = node != null && node.getX() <= col2 ? node.getX() : Integer.MAX_VALUE;
+                for (; col <= numberLimit && col < nodeCol; col++) {
+                    if (numbers.has(row, col)) visitor.visitNumber(row, col, numbers.get(row, col));
+                }
+                if (nodeCol == Integer.MAX_VALUE) break;
+                visitor.visitCell(node);
+                col = nodeCol + 1;
+                node = node.getRight();
+            }
+        }
+    }
+
+    /**
+     * Recorre las celdas ocupadas de un rango columna por columna, de arriba
+     * hacia abajo. Cada columna se recorre una sola vez por sus enlaces hacia
+     * abajo y los numeros del almacen por columnas se toman de su mapa de
+     * bits, asi que el costo es lineal en las celdas ocupadas.
+     * @param row1 Fila inicial.
+     * @param col1 Columna inicial.
+     * @param row2 Fila final (inclusiva).
+     * @param col2 Columna final (inclusiva).
+     * @param visitor Receptor de las celdas ocupadas.
+     */
+    public void scanColumnMajor(int row1, int col1, int row2, int col2, CellVisitor visitor) {
+        row1 = Math.max(0, row1);
+        col1 = Math.max(0, col1);
+        int lastCol = Math.max(colHeaders.limit(), numbers != null ? numbers.getColumnLimit() : 0) - 1;
+        col2 = Math.min(col2, lastCol);
+
+        for (int col = col1; col <= col2; col++) {
+            Cell node = firstInColumn(row1, col);
+            int numberRow = numbers != null ? numbers.nextRow(col, row1) : -1;
+            while (true) {
+                int nodeRow = node != null && node.getY() <= row2 ? node.getY() : Integer.MAX_VALUE;
+                int nextNumber = numberRow >= 0 && numberRow <= row2 ? numberRow : Integer.MAX_VALUE;
+                if (nodeRow == Integer.MAX_VALUE && nextNumber == Integer.MAX_VALUE) break;
+                if (nodeRow < nextNumber) {
+                    visitor.visitCell(node);
+                    node = node.getDown();
+                } else {
+                    visitor.visitNumber(nextNumber, col, numbers.get(nextNumber, col));
+                    numberRow = numbers.nextRow(col, nextNumber + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Entrega a un consumidor primitivo los numeros de un rango (celdas
+     * {@code NUMBER} y formulas con resultado numerico), sin envolverlos en
+     * objetos.
+     * @param row1 Fila inicial.
+     * @param col1 Columna inicial.
+     * @param row2 Fila final (inclusiva).
+     * @param col2 Columna final (inclusiva).
+     * @param consumer Receptor de cada numero.
+     * @return Cantidad de numeros entregados.
+     */
+    public int forEachNumber(int row1, int col1, int row2, int col2, DoubleConsumer consumer) {
+        NumberVisitor visitor = new NumberVisitor(consumer);
+        if (numbers != null) {
+            scanColumnMajor(row1, col1, row2, col2, visitor);
+        } else {
+            scanRowMajor(row1, col1, row2, col2, visitor);
+        }
+        return visitor.count;
+    }
 
-        // Buscar fila
-        Cell rowStart = head;
-        for (int r = 0; r < row; r++) {
-            if (rowStart.getDown() == null) {
-                return null; // No existe la fila
+    /**
+     * Visitante que pasa solo los numeros a un consumidor primitivo.
+     */
+    private static class NumberVisitor implements CellVisitor {
+        private final DoubleConsumer consumer;
+        private int count;
+
+        NumberVisitor(DoubleConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void visitCell(Cell cell) {
+            if (cell.isNumeric()) {
+                consumer.accept(cell.getNumericValue());
+                count++;
             }
-            rowStart = rowStart.getDown();
         }
 
-        // Buscar columna
-        Cell current = rowStart;
-        for (int c = 0; c < col; c++) {
-            if (current.getRight() == null) {
-                return null; // No existe la columna
+        @Override
+        public void visitNumber(int row, int col, double number) {
+            consumer.accept(number);
+            count++;
+        }
+    }
+
+    /**
+     * Busca el primer nodo de una fila cuya columna sea mayor o igual a la dada.
+     */
+    private Cell firstInRow(int row, int col) {
+        Cell head = rowHeaders.first(row);
+        if (head == null || head.getX() >= col) return head;
+        if (rowHeaders.last(row).getX() < col) return null;
+        return findLeft(row, col).getRight();
+    }
+
+    /**
+     * Busca el primer nodo de una columna cuya fila sea mayor o igual a la dada.
+     */
+    private Cell firstInColumn(int row, int col) {
+        Cell head = colHeaders.first(col);
+        if (head == null || head.getY() >= row) return head;
+        if (colHeaders.last(col).getY() < row) return null;
+        return findAbove(row, col).getDown();
+    }
+
+    /**
+     * Activa o desactiva el almacen por columnas para las celdas numericas.
+     * Con el almacen activo los numeros no ocupan nodos: se guardan en
+     * arreglos primitivos por columna y su texto se genera a partir del
+     * numero. Al cambiar de modo se mueven los numeros que ya existan.
+     * @param enabled true para guardar los numeros por columnas.
+     */
+    public void setColumnarNumbers(boolean enabled) {
+        if (enabled == (numbers != null)) return;
+        touch();
+        if (enabled) {
+            numbers = new NumericColumnStore();
+            for (int row = rowHeaders.nextUsed(0); row >= 0; row = rowHeaders.nextUsed(row + 1)) {
+                Cell cell = rowHeaders.first(row);
+                while (cell != null) {
+                    Cell next = cell.getRight();
+                    if (cell.getType() == CellType.NUMBER) {
+                        numbers.set(row, cell.getX(), cell.getNumber());
+                        removeCell(row, cell.getX());
+                        // Quitar la celda pudo copiar su bloque: seguir por el nodo vigente
+                        if (next != null) next = getBlock(row, next.getX()).cells[CellBlock.slot(row, next.getX())];
+                    }
+                    cell = next;
+                }
+            }
+        } else {
+            NumericColumnStore stored = numbers;
+            numbers = null;
+            for (int col = 0; col < stored.getColumnLimit(); col++) {
+                for (int row = stored.nextRow(col, 0); row >= 0; row = stored.nextRow(col, row + 1)) {
+                    double number = stored.get(row, col);
+                    Cell cell = getOrCreateCell(row, col);
+                    cell.setContent(Cell.formatNumber(number));
+                    cell.setFormula("");
+                    cell.setNumber(number);
+                    cell.setValue(null);
+                    cell.setType(CellType.NUMBER);
+                }
             }
-            current = current.getRight();
         }
+    }
+
+    /**
+     * Congela el contenido actual para guardarlo desde otro hilo mientras la
+     * hoja se sigue editando. Solo se copian los directorios de bloques y de
+     * tramos numericos, asi que el costo depende del numero de bloques y no
+     * de celdas: la matriz copia un bloque compartido la primera vez que
+     * cambia una de sus celdas, tambien al recalcular una formula.
+     * @return Copia que no cambia con las ediciones siguientes.
+     */
+    public FrozenMatrix freeze() {
+        CellBlock[][] directory = blocks.clone();
+        for (int b = 0; b < directory.length; b++) {
+            if (directory[b] != null) directory[b] = directory[b].clone();
+        }
+        FrozenMatrix frozen = new FrozenMatrix(rows, cols, cellCount, directory,
+                numbers != null ? numbers.freeze() : null, sums != null);
+        generation++;
+        return frozen;
+    }
+
+    /**
+     * Indica si los numeros se guardan en el almacen por columnas.
+     * @return true si el almacen esta activo.
+     */
+    public boolean isColumnarNumbers() {
+        return numbers != null;
+    }
+
+    /**
+     * Activa o desactiva el indice de sumas por bloque usado por
+     * {@link #sumRange}. Al activarlo se suman los numeros que ya existan;
+     * despues se mantiene al dia en cada escritura.
+     * @param enabled true para mantener el indice.
+     */
+    public void setRangeSumIndex(boolean enabled) {
+        if (enabled == (sums != null)) return;
+        touch();
+        if (!enabled) {
+            sums = null;
+            return;
+        }
+        RangeSumIndex index = new RangeSumIndex();
+        scanRowMajor(0, 0, MAX_ROWS - 1, MAX_COLS - 1, new CellVisitor() {
+            @Override
+            public void visitCell(Cell cell) {
+                if (cell.isNumeric()) index.add(cell.getY(), cell.getX(), cell.getNumericValue());
+            }
 
-        return current;
+            @Override
+            public void visitNumber(int row, int col, double number) {
+                index.add(row, col, number);
+            }
+        });
+        sums = index;
+    }
+
+    /**
+     * Indica si la matriz mantiene el indice de sumas por bloque.
+     * @return true si el indice esta activo.
+     */
+    public boolean isRangeSumIndex() {
+        return sums != null;
+    }
+
+    /**
+     * Regresa el primer nodo ocupado de una fila.
+     * @param row Fila buscada.
+     * @return Nodo inicial de la fila o null si la fila esta vacia.
+     */
+    public Cell getRowHeader(int row) {
+        return row >= 0 ? rowHeaders.first(row) : null;
+    }
+
+    /**
+     * Regresa el primer nodo ocupado (el de mas arriba) de una columna.
+     * @param col Columna buscada.
+     * @return Nodo inicial de la columna o null si la columna esta vacia.
+     */
+    public Cell getColumnHeader(int col) {
+        return col >= 0 ? colHeaders.first(col) : null;
+    }
+
+    /**
+     * Regresa la cantidad de celdas con contenido.
+     * @return Numero de nodos ocupados mas los numeros guardados por columnas.
+     */
+    public int getCellCount() {
+        return cellCount + (numbers != null ? numbers.size() : 0);
     }
 
     /**
-     * Regresa la cantidad total de filas
+     * Regresa la cantidad de filas en uso (al menos las iniciales).
      * @return Numero de filas
      */
     public int getRows(){
         return rows; 
     }
     /**
-     * Regresa la cantidad total de columnas.
+     * Regresa la cantidad de columnas en uso (al menos las iniciales).
      * @return Numero de columnas.
      */
     public int getCols(){ 
@@ -0,0 +1,108 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Medidas de una tabla hash en un momento dado: que tan lejos de su
+ * posicion inicial quedaron las claves y que tan largos son los grupos de
+ * posiciones ocupadas seguidas. Sirven para comparar funciones hash con
+ * las claves reales (ver {@link HashTable#getStats()}).
+ * @author maryori
+ */
+public final class ProbeStats {
+    private final int keys;
+    private final int capacity;
+    private final long totalProbes;
+    private final int maxProbe;
+    private final int[] clusterHistogram;
+    private final int maxCluster;
+
+    ProbeStats(int keys, int capacity, long totalProbes, int maxProbe, int[] clusterHistogram, int maxCluster) {
+        this.keys = keys;
+        this.capacity = capacity;
+        this.totalProbes = totalProbes;
+        this.maxProbe = maxProbe;
+        this.clusterHistogram = clusterHistogram;
+        this.maxCluster = maxCluster;
+    }
+
+    /**
+     * Cantidad de claves guardadas.
+     * @return Numero de claves.
+     */
+    public int getKeys() {
+        return keys;
+    }
+
+    /**
+     * Cantidad de posiciones de la tabla.
+     * @return Capacidad.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Fraccion ocupada de la tabla.
+     * @return Claves entre capacidad.
+     */
+    public double getLoadFactor() {
+        return capacity == 0 ? 0 : (double) keys / capacity;
+    }
+
+    /**
+     * Posiciones que se revisan en promedio para encontrar una clave que
+     * esta en la tabla (1 si todas estan en su posicion inicial).
+     * @return Largo promedio del sondeo.
+     */
+    public double getAverageProbe() {
+        return keys == 0 ? 0 : (double) totalProbes / keys;
+    }
+
+    /**
+     * Posiciones que se revisan para encontrar la clave mas lejana.
+     * @return Largo maximo del sondeo.
+     */
+    public int getMaxProbe() {
+        return maxProbe;
+    }
+
+    /**
+     * Grupos de posiciones ocupadas seguidas por tamaño: la entrada i cuenta
+     * los grupos con entre 2^i y 2^(i+1) - 1 posiciones.
+     * @return Copia del histograma.
+     */
+    public int[] getClusterHistogram() {
+        return clusterHistogram.clone();
+    }
+
+    /**
+     * Tamaño del grupo de posiciones ocupadas mas largo.
+     * @return Largo del grupo mas grande.
+     */
+    public int getMaxCluster() {
+        return maxCluster;
+    }
+
+    /**
+     * Junta las medidas de dos tablas (por ejemplo, dos segmentos de una
+     * {@link ConcurrentHashTable}) como si fueran una.
+     * @param other Medidas de la otra tabla.
+     * @return Medidas de las dos tablas.
+     */
+    ProbeStats merge(ProbeStats other) {
+        int[] histogram = new int[Math.max(clusterHistogram.length, other.clusterHistogram.length)];
+        for (int i = 0; i < clusterHistogram.length; i++) histogram[i] += clusterHistogram[i];
+        for (int i = 0; i < other.clusterHistogram.length; i++) histogram[i] += other.clusterHistogram[i];
+        return new ProbeStats(keys + other.keys, capacity + other.capacity, totalProbes + other.totalProbes,
+            Math.max(maxProbe, other.maxProbe), histogram, Math.max(maxCluster, other.maxCluster));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("claves %d, capacidad %d, carga %.2f, sondeo promedio %.2f, maximo %d, grupo maximo %d",
+            keys, capacity, getLoadFactor(), getAverageProbe(), maxProbe, maxCluster);
+    }
+}
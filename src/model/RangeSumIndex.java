@@ -0,0 +1,167 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Indice de sumas parciales de los numeros de una hoja, por bloques de
+ * 64x64 (los mismos bloques de la matriz). Cada bloque guarda la suma de
+ * cada una de sus 64 columnas y el total, asi que una banda de 64 filas que
+ * queda completa dentro de un rango se suma sin leer sus celdas, incluso si
+ * el rango es de una sola columna.
+ *
+ * Al crearlo se suman los numeros de la hoja. Despues, en cada escritura la
+ * matriz vuelve a sumar la columna del bloque que cambio y el total del
+ * bloque se recalcula con sus 64 columnas: restar el numero anterior
+ * perderia precision con numeros de magnitudes muy distintas (1e16 + 1 - 1e16
+ * daria 0) y el error se iria acumulando.
+ * @author maryori
+ */
+class RangeSumIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int SHIFT = CellBlock.SHIFT;
+    private static final int SIZE = CellBlock.SIZE;
+    private static final int MASK = CellBlock.MASK;
+
+    // sums[filaBloque][columnaBloque]; se crean al escribir un numero
+    private BlockSums[][] sums = new BlockSums[8][];
+
+    /**
+     * Suma un numero nuevo en una celda (al construir el indice).
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param number Numero de la celda.
+     */
+    void add(int row, int col, double number) {
+        BlockSums block = getOrCreateBlock(row >> SHIFT, col >> SHIFT);
+        int c = col & MASK;
+        block.columnSums[c] += number;
+        block.columnCounts[c]++;
+        block.total += number;
+        block.count++;
+    }
+
+    /**
+     * Reemplaza la suma de la columna de un bloque, ya calculada con sus
+     * numeros, y recalcula el total del bloque con sus columnas. Si el
+     * bloque se queda sin numeros se libera.
+     * @param row Fila de cualquier celda del bloque.
+     * @param col Columna cuya suma cambio.
+     * @param sum Suma de los numeros de la columna dentro del bloque.
+     * @param count Cantidad de esos numeros.
+     */
+    void setColumn(int row, int col, double sum, int count) {
+        BlockSums block = getBlock(row >> SHIFT, col >> SHIFT);
+        if (block == null) {
+            if (count == 0) return;
+            block = getOrCreateBlock(row >> SHIFT, col >> SHIFT);
+        }
+        int c = col & MASK;
+        block.columnSums[c] = sum;
+        block.columnCounts[c] = count;
+        double total = 0;
+        int cells = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += block.columnSums[i];
+            cells += block.columnCounts[i];
+        }
+        if (cells == 0) {
+            sums[row >> SHIFT][col >> SHIFT] = null;
+        } else {
+            block.total = total;
+            block.count = cells;
+        }
+    }
+
+    /**
+     * Indica si una banda de 64 filas tiene numeros.
+     * @param band Banda (fila / 64).
+     * @return true si algun bloque de la banda tiene numeros.
+     */
+    boolean hasNumbers(int band) {
+        if (band >= sums.length || sums[band] == null) return false;
+        for (BlockSums block : sums[band]) {
+            if (block != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Suma los numeros de una banda completa de 64 filas entre dos columnas.
+     * Los bloques cubiertos por completo aportan su total; los de las
+     * orillas suman solo sus columnas dentro del rango.
+     * @param band Banda (fila / 64).
+     * @param col1 Columna inicial.
+     * @param col2 Columna final (inclusiva).
+     * @return Suma de la banda en esas columnas.
+     */
+    double sumBand(int band, int col1, int col2) {
+        if (band >= sums.length || sums[band] == null) return 0;
+        BlockSums[] line = sums[band];
+        double sum = 0;
+        int last = Math.min(col2 >> SHIFT, line.length - 1);
+        for (int blockCol = col1 >> SHIFT; blockCol <= last; blockCol++) {
+            BlockSums block = line[blockCol];
+            if (block == null) continue;
+            int from = Math.max(col1, blockCol << SHIFT) & MASK;
+            int to = Math.min(col2, (blockCol << SHIFT) + SIZE - 1) & MASK;
+            if (from == 0 && to == MASK) {
+                sum += block.total;
+            } else {
+                for (int c = from; c <= to; c++) {
+                    sum += block.columnSums[c];
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Regresa la cantidad de bandas que pueden tener numeros.
+     * @return Ultima banda con directorio mas uno.
+     */
+    int getBandLimit() {
+        return sums.length;
+    }
+
+    private BlockSums getBlock(int blockRow, int blockCol) {
+        if (blockRow >= sums.length) return null;
+        BlockSums[] line = sums[blockRow];
+        return line != null && blockCol < line.length ? line[blockCol] : null;
+    }
+
+    private BlockSums getOrCreateBlock(int blockRow, int blockCol) {
+        if (blockRow >= sums.length) {
+            sums = Arrays.copyOf(sums, Math.max(blockRow + 1, sums.length * 2));
+        }
+        BlockSums[] line = sums[blockRow];
+        if (line == null) {
+            line = new BlockSums[Math.max(4, blockCol + 1)];
+            sums[blockRow] = line;
+        } else if (blockCol >= line.length) {
+            line = Arrays.copyOf(line, Math.max(blockCol + 1, line.length * 2));
+            sums[blockRow] = line;
+        }
+        BlockSums block = line[blockCol];
+        if (block == null) {
+            block = new BlockSums();
+            line[blockCol] = block;
+        }
+        return block;
+    }
+
+    /**
+     * Sumas de un bloque de 64x64.
+     */
+    private static class BlockSums implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final double[] columnSums = new double[SIZE];
+        private final int[] columnCounts = new int[SIZE];
+        private double total;
+        private int count;
+    }
+}
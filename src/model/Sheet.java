@@ -4,7 +4,10 @@
  */
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import util.FormulaParser;
 
 /**
  * Clase que representa la hoja en el libro. 
@@ -18,6 +21,16 @@ public class Sheet implements Serializable{
     private static final long serialVersionUID = 2L;
     private String name;
     private OrthogonalMatrix matrix;
+    // Contenido sin cargar (null si la matriz ya esta cargada)
+    private transient volatile SheetSource source;
+    // Fuente de la que se cargo y version de la matriz al cargarla: mientras
+    // no cambie, sacar la hoja de memoria no necesita escribir nada
+    private transient SheetSource origin;
+    private transient long originVersion;
+    // Error de la ultima carga; la hoja no se vuelve a intentar cargar
+    private transient volatile SheetLoadException loadError;
+    // Ultima vez que se pidio la matriz (reloj de SheetResidency)
+    private transient volatile long lastUse;
 
     /**
      * Constructor que inicializa la hoja con nombre y matriz vacia.
@@ -26,6 +39,16 @@ public class Sheet implements Serializable{
     public Sheet(String name) {
         this.name = name;
         this.matrix = new OrthogonalMatrix();
+        this.matrix.setSheet(this);
+    }
+
+    /**
+     * Lee la hoja y le devuelve a su matriz la referencia a ella, que la
+     * matriz no guarda.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        matrix.setSheet(this);
     }
 
     /**
@@ -35,11 +58,156 @@ public class Sheet implements Serializable{
     public String getName(){ 
         return name; 
     }
+    /**
+     * Cambia el nombre de la hoja (lo hace el libro, ver {@link Workbook#renameSheet}).
+     * @param name Nombre nuevo.
+     */
+    void setName(String name){
+        this.name = name;
+    }
     /**
      * Retorna la matriz ortogonal asociada a la hoja.
      * @return Instancia de OrthogonalMatriz.
+     * @throws SheetLoadException Si la hoja no se pudo cargar de su fuente.
      */
     public OrthogonalMatrix getMatrix(){ 
+        long tick = SheetResidency.tick();
+        if (lastUse != tick) lastUse = tick;
+        if (source != null && materialize()) {
+            matrix.notifyLoaded();
+        }
         return matrix; 
     }
+    /**
+     * Carga la matriz desde su fuente sin avisar al parser de formulas. Sirve
+     * para cargar varias hojas en paralelo; quien la llame debe registrar
+     * despues sus formulas ({@link FormulaParser#sheetsLoaded}).
+     * @return true si esta llamada fue la que cargo la hoja.
+     * @throws SheetLoadException Si la hoja no se pudo cargar de su fuente.
+     */
+    public boolean preload(){
+        return source != null && materialize();
+    }
+    /**
+     * Carga la matriz desde su fuente. Si varios hilos piden la matriz a la
+     * vez, solo uno la carga y los demas esperan. Si la carga falla la
+     * matriz se vacia y la hoja conserva su fuente: se guarda tal como
+     * estaba en el archivo y no se puede editar.
+     * @return true si esta llamada fue la que cargo la hoja.
+     * @throws SheetLoadException Si la hoja no se pudo cargar de su fuente.
+     */
+    private synchronized boolean materialize(){
+        SheetSource pending = source;
+        if (pending == null) return false;
+        if (loadError != null) throw loadError;
+        try {
+            pending.load(matrix);
+        } catch (RuntimeException e) {
+            matrix.clear();
+            loadError = new SheetLoadException(name, e);
+            throw loadError;
+        }
+        origin = pending;
+        originVersion = matrix.getVersion();
+        source = null;
+        return true;
+    }
+    /**
+     * Saca de memoria el contenido de la hoja y quita sus formulas del grafo
+     * de dependencias. Si no cambio desde que se cargo vuelve a quedar
+     * apuntando a su fuente; si cambio, su contenido se guarda antes en el
+     * spill. Se vuelve a cargar la proxima vez que se pida la matriz.
+     * @param spill Donde se guarda el contenido modificado.
+     * @return true si la hoja se saco de memoria.
+     * @throws IOException Si no se pudo guardar el contenido.
+     */
+    public synchronized boolean unload(SheetSpill spill) throws IOException{
+        if (source != null) return false;
+        boolean unchanged = origin != null && originVersion == matrix.getVersion() && origin.isAvailable();
+        SheetSource saved = unchanged ? origin : spill.spill(matrix);
+        matrix.notifyUnloaded();
+        matrix.clear();
+        origin = null;
+        source = saved;
+        return true;
+    }
+    /**
+     * Regresa la ultima vez que se pidio la matriz de la hoja.
+     * @return Marca del reloj de uso de las hojas.
+     */
+    long getLastUse(){
+        return lastUse;
+    }
+    /**
+     * Regresa las celdas ocupadas de la matriz sin marcar la hoja como usada.
+     * @return Cantidad de celdas (0 si la hoja no esta cargada).
+     */
+    int getLoadedCellCount(){
+        return source == null ? matrix.getCellCount() : 0;
+    }
+    /**
+     * Deja la hoja sin cargar: su contenido se lee de la fuente la primera
+     * vez que se pide la matriz (al cambiar a la hoja o cuando una formula
+     * de otra hoja la usa).
+     * @param source Fuente del contenido de la hoja.
+     */
+    public void setSource(SheetSource source){
+        this.source = source;
+    }
+    /**
+     * Regresa la fuente de la hoja si todavia no se ha cargado.
+     * @return Fuente o null si la hoja ya esta cargada.
+     */
+    public SheetSource getSource(){
+        return source;
+    }
+    /**
+     * Indica si la hoja no se pudo cargar de su fuente.
+     * @return true si la carga fallo.
+     */
+    public boolean isLoadFailed(){
+        return loadError != null;
+    }
+    /**
+     * Indica si la matriz de la hoja ya esta cargada.
+     * @return true si la hoja esta en memoria.
+     */
+    public boolean isLoaded(){
+        return source == null;
+    }
+    /**
+     * Establece el parser de formulas de la hoja sin cargarla.
+     * @param parser Parser del libro.
+     */
+    public void setFormulaParser(FormulaParser parser){
+        matrix.setFormulaParser(parser);
+    }
+    /**
+     * Activa o desactiva el almacen numerico por columnas de la hoja.
+     * @param enabled true para guardar los numeros en arreglos primitivos.
+     */
+    public void setColumnarNumbers(boolean enabled){
+        matrix.setColumnarNumbers(enabled);
+    }
+    /**
+     * Indica si la hoja guarda sus numeros por columnas.
+     * @return true si el almacen por columnas esta activo.
+     */
+    public boolean isColumnarNumbers(){
+        return matrix.isColumnarNumbers();
+    }
+    /**
+     * Activa o desactiva el indice de sumas por bloque de la hoja.
+     * @param enabled true para sumar rangos con las sumas de los bloques.
+     */
+    public void setRangeSumIndex(boolean enabled){
+        matrix.setRangeSumIndex(enabled);
+    }
+    /**
+     * Indica si la hoja mantiene el indice de sumas por bloque.
+     * @return true si el indice esta activo.
+     */
+    public boolean isRangeSumIndex(){
+        return matrix.isRangeSumIndex();
+    }
 }
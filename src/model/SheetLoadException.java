@@ -0,0 +1,25 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Error al cargar el contenido de una hoja desde su fuente, por ejemplo si
+ * su segmento en el archivo esta danado. La hoja queda marcada como fallida
+ * y conserva su fuente, asi que guardar el libro no reemplaza el segmento
+ * original por una hoja vacia.
+ * @author maryori
+ */
+public class SheetLoadException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor de la excepcion.
+     * @param sheetName Nombre de la hoja que no se pudo cargar.
+     * @param cause Error de la fuente.
+     */
+    public SheetLoadException(String sheetName, Throwable cause) {
+        super("No se pudo cargar la hoja '" + sheetName + "': " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Decide que hojas de un libro se quedan en memoria. Cuando el heap ocupado
+ * despues de una recoleccion de basura pasa del limite, las hojas usadas
+ * hace mas tiempo se guardan en un {@link SheetSpill} y se vacian; se
+ * vuelven a cargar solas la proxima vez que se pide su matriz.
+ * <p>
+ * El uso de cada hoja se marca con un reloj que avanza en cada revision,
+ * asi marcarla es barato aunque la pidan muchos hilos a la vez. La hoja
+ * actual nunca se saca de memoria.
+ * <p>
+ * El limite es una fraccion del heap maximo y se puede fijar con
+ * -Dmaxcell.heap.threshold (por omision 0.75; 0 lo desactiva).
+ * @author maryori
+ */
+class SheetResidency {
+    private static final double THRESHOLD = Double.parseDouble(System.getProperty("maxcell.heap.threshold", "0.75"));
+    // Al pasar el limite se liberan hojas hasta bajar a esta fraccion de el
+    private static final double TARGET = 0.8;
+    // Estimacion de lo que ocupa cada celda cargada (nodo, texto y formula)
+    private static final long BYTES_PER_CELL = 100;
+    private static final AtomicLong CLOCK = new AtomicLong();
+    // Heap ocupado despues de la ultima recoleccion (0 si no ha habido)
+    private static volatile long usedAfterGc;
+
+    static {
+        if (THRESHOLD > 0) watchCollections();
+    }
+
+    private SheetSpill spill;
+
+    /**
+     * Regresa la marca de tiempo actual para el uso de las hojas.
+     * @return Valor del reloj.
+     */
+    static long tick() {
+        return CLOCK.get();
+    }
+
+    void setSpill(SheetSpill spill) {
+        this.spill = spill;
+    }
+
+    /**
+     * Avanza el reloj y, si el heap paso del limite, saca de memoria las
+     * hojas menos usadas hasta liberar lo que sobra.
+     * @param workbook Libro a revisar.
+     * @return Cantidad de hojas que se sacaron de memoria.
+     */
+    int release(Workbook workbook) {
+        CLOCK.incrementAndGet();
+        long used = usedAfterGc;
+        long max = Runtime.getRuntime().maxMemory();
+        if (spill == null || THRESHOLD <= 0 || used <= THRESHOLD * max) return 0;
+
+        Sheet current = workbook.getSheets().isEmpty() ? null : workbook.getCurrentSheet();
+        List<Sheet> candidates = new ArrayList<>();
+        for (Sheet sheet : workbook.getSheets()) {
+            if (sheet != current && sheet.getLoadedCellCount() > 0) {
+                candidates.add(sheet);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Sheet::getLastUse));
+
+        long excess = used - (long) (THRESHOLD * TARGET * max);
+        long freed = 0;
+        int released = 0;
+        for (Sheet sheet : candidates) {
+            if (freed >= excess) break;
+            long size = sheet.getLoadedCellCount() * BYTES_PER_CELL;
+            try {
+                if (!sheet.unload(spill)) continue;
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+            freed += size;
+            released++;
+        }
+        // Hasta la siguiente recoleccion se da por liberado lo estimado
+        usedAfterGc = Math.max(0, used - freed);
+        return released;
+    }
+
+    /**
+     * Escucha las recolecciones de basura para saber cuanto heap queda
+     * ocupado despues de cada una.
+     */
+    private static void watchCollections() {
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) continue;
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long used = 0;
+                for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                    if (heapPools.contains(pool.getKey())) used += pool.getValue().getUsed();
+                }
+                usedAfterGc = used;
+            }, null, null);
+        }
+    }
+}
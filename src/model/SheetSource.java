@@ -0,0 +1,28 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Origen del contenido de una hoja que todavia no se ha cargado, por
+ * ejemplo su segmento en el archivo del libro. La hoja lo usa una sola vez,
+ * la primera vez que se pide su matriz.
+ * @author maryori
+ */
+public interface SheetSource {
+    /**
+     * Llena la matriz vacia de la hoja con su contenido.
+     * @param matrix Matriz de la hoja.
+     */
+    void load(OrthogonalMatrix matrix);
+
+    /**
+     * Indica si la fuente todavia se puede cargar. Una fuente deja de estar
+     * disponible si su archivo se reemplazo sin su segmento.
+     * @return true si se puede cargar.
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+import java.io.IOException;
+
+/**
+ * Lugar fuera del heap donde se guarda el contenido de una hoja que se saca
+ * de memoria (ver {@link Workbook#releaseMemory()}).
+ * @author maryori
+ */
+public interface SheetSpill {
+    /**
+     * Guarda el contenido de una matriz.
+     * @param matrix Matriz de la hoja.
+     * @return Fuente para volver a cargar ese contenido.
+     * @throws IOException Si no se puede escribir.
+     */
+    SheetSource spill(OrthogonalMatrix matrix) throws IOException;
+}
@@ -0,0 +1,75 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package model;
+
+/**
+ * Funciones hash disponibles para la tabla hash.
+ * <ul>
+ *   <li>{@code POLYNOMIAL} – Polinomio con base 31 sobre los caracteres, sin mezclar.
+ *       Claves parecidas caen juntas y se forman grupos largos.</li>
+ *   <li>{@code FNV_1A} – FNV-1a de 32 bits sobre los dos bytes de cada caracter.</li>
+ *   <li>{@code MURMUR3} – Polinomio mezclado con el finalizador de Murmur3.</li>
+ *   <li>{@code SPREAD} – {@code String.hashCode} con los bits altos mezclados
+ *       en los bajos (lo que usa {@code java.util.HashMap}).</li>
+ * </ul>
+ * @author maryori
+ */
+public enum StandardHash implements HashStrategy {
+    POLYNOMIAL("Polinomial (31)") {
+        @Override
+        public int hash(String key) {
+            int hash = 0;
+            for (int i = 0; i < key.length(); i++) {
+                hash = 31 * hash + key.charAt(i);
+            }
+            return hash;
+        }
+    },
+    FNV_1A("FNV-1a") {
+        @Override
+        public int hash(String key) {
+            int hash = 0x811C9DC5;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                hash = (hash ^ (c & 0xFF)) * 0x01000193;
+                hash = (hash ^ (c >>> 8)) * 0x01000193;
+            }
+            return hash;
+        }
+    },
+    MURMUR3("Murmur3 (finalizador)") {
+        @Override
+        public int hash(String key) {
+            int hash = key.hashCode();
+            hash ^= hash >>> 16;
+            hash *= 0x85EBCA6B;
+            hash ^= hash >>> 13;
+            hash *= 0xC2B2AE35;
+            return hash ^ (hash >>> 16);
+        }
+    },
+    SPREAD("String.hashCode mezclado") {
+        @Override
+        public int hash(String key) {
+            int hash = key.hashCode();
+            return hash ^ (hash >>> 16);
+        }
+    };
+
+    private final String label;
+
+    StandardHash(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Nombre para mostrar la funcion.
+     * @return Nombre de la funcion.
+     */
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -5,34 +5,173 @@
 package model;
 
 /**
- * Clase que representa un libro formado de una lista de hojas. 
+ * Clase que representa un libro formado de una lista de hojas.
  * Cada hoja se maneja como una matriz ortogonal de celdas.
+ *
+ * Las hojas se guardan en un arreglo (acceso por indice en O(1)) y en un
+ * indice por nombre sin distinguir mayusculas (ver {@link #sheetKey}), asi
+ * buscar una hoja por nombre tambien es O(1). Cada cambio en la lista de
+ * hojas (agregar, renombrar, mover o quitar) cambia la version de la
+ * estructura, que usan las formulas para saber si la hoja que ya
+ * resolvieron sigue siendo valida.
  * @author maryori
  */
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
 
 public class Workbook implements Serializable{
     private static final long serialVersionUID = 1L;
-    private LinkedList<Sheet> sheets;
+    // Forma serializada del formato anterior (las hojas iban en una LinkedList)
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("sheets", LinkedList.class),
+        new ObjectStreamField("currentSheetIndex", int.class)
+    };
+    private transient ArrayList<Sheet> sheets;
+    private transient List<Sheet> sheetsView;
+    // Nombre normalizado -> primera hoja con ese nombre
+    private transient HashMap<String, Sheet> sheetsByName;
+    // Cambia con cada cambio en la lista de hojas
+    private transient long structureVersion;
     private int currentSheetIndex;
+    private transient SheetResidency residency;
 
     /**
      * Constructor que inicializa el libro con una hoja "Hoja 1".
      */
     public Workbook() {
-        this.sheets = new LinkedList<>();
-        this.sheets.add(new Sheet("Hoja 1"));
+        initSheets();
+        addSheet("Hoja 1");
         this.currentSheetIndex = 0;
     }
 
+    private void initSheets() {
+        sheets = new ArrayList<>();
+        sheetsView = Collections.unmodifiableList(sheets);
+        sheetsByName = new HashMap<>();
+    }
+
+    /**
+     * Normaliza un nombre de hoja para buscarlo: sin espacios a los lados
+     * y en minusculas.
+     * @param name Nombre de la hoja.
+     * @return Llave del nombre.
+     */
+    public static String sheetKey(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
     /**
      * Agrega una nueva hoja al libro con el nombre dado por el usuario.
      * @param name Nombre de la nueva hoja.
+     * @return Hoja agregada.
+     */
+    public Sheet addSheet(String name) {
+        Sheet sheet = new Sheet(name);
+        addSheet(sheet);
+        return sheet;
+    }
+
+    /**
+     * Agrega una hoja ya creada al final del libro.
+     * @param sheet Hoja a agregar.
+     */
+    public void addSheet(Sheet sheet) {
+        sheets.add(sheet);
+        sheetsByName.putIfAbsent(sheetKey(sheet.getName()), sheet);
+        structureVersion++;
+    }
+
+    /**
+     * Cambia el nombre de una hoja. Las formulas que la usan por su nombre
+     * anterior se deben reescribir aparte (ver {@link util.FormulaParser#sheetRenamed}).
+     * @param index Indice de la hoja.
+     * @param name Nombre nuevo.
+     * @return false si el nombre esta vacio o ya es de otra hoja.
+     */
+    public boolean renameSheet(int index, String name) {
+        if (name == null || name.trim().isEmpty()) return false;
+        Sheet sheet = sheets.get(index);
+        Sheet existing = getSheet(name);
+        if (existing != null && existing != sheet) return false;
+        sheet.setName(name.trim());
+        reindex();
+        return true;
+    }
+
+    /**
+     * Mueve una hoja a otra posicion. La hoja actual sigue siendo la misma.
+     * @param from Indice actual de la hoja.
+     * @param to Indice nuevo.
+     */
+    public void moveSheet(int from, int to) {
+        Sheet current = getCurrentSheet();
+        sheets.add(to, sheets.remove(from));
+        currentSheetIndex = sheets.indexOf(current);
+        reindex();
+    }
+
+    /**
+     * Quita una hoja del libro; siempre queda al menos una. Si era la hoja
+     * actual, queda como actual la que ocupa su lugar.
+     * @param index Indice de la hoja.
+     * @return Hoja quitada, o null si era la unica.
+     */
+    public Sheet removeSheet(int index) {
+        if (sheets.size() <= 1) return null;
+        Sheet current = getCurrentSheet();
+        Sheet removed = sheets.remove(index);
+        currentSheetIndex = removed == current ? Math.min(index, sheets.size() - 1) : sheets.indexOf(current);
+        reindex();
+        return removed;
+    }
+
+    /**
+     * Vuelve a construir el indice por nombre (la primera hoja con cada
+     * nombre gana, igual que al recorrer la lista).
+     */
+    private void reindex() {
+        sheetsByName.clear();
+        for (Sheet sheet : sheets) {
+            sheetsByName.putIfAbsent(sheetKey(sheet.getName()), sheet);
+        }
+        structureVersion++;
+    }
+
+    /**
+     * Establece donde se guardan las hojas que se sacan de memoria. Sin el
+     * todas las hojas se quedan en memoria.
+     * @param spill Archivo de hojas fuera de memoria.
      */
-    public void addSheet(String name) {
-        sheets.add(new Sheet(name));
+    public void setSheetSpill(SheetSpill spill) {
+        getResidency().setSpill(spill);
+    }
+
+    /**
+     * Si el heap ocupado paso del limite, saca de memoria las hojas usadas
+     * hace mas tiempo (menos la actual); cada una se vuelve a cargar sola
+     * cuando se usa. Se debe llamar desde el hilo que edita el libro y fuera
+     * de un recalculo.
+     * @return Cantidad de hojas que se sacaron de memoria.
+     */
+    public int releaseMemory() {
+        return getResidency().release(this);
+    }
+
+    private SheetResidency getResidency() {
+        if (residency == null) {
+            residency = new SheetResidency();
+        }
+        return residency;
     }
 
     /**
@@ -44,24 +183,88 @@ public class Workbook implements Serializable{
     }
 
     /**
-     * REgresa la lista completa de hojas en el libro.
+     * Regresa una hoja por su posicion.
+     * @param index Indice de la hoja.
+     * @return Hoja en esa posicion.
+     */
+    public Sheet getSheet(int index) {
+        return sheets.get(index);
+    }
+
+    /**
+     * Busca una hoja por nombre, sin distinguir mayusculas ni los espacios
+     * a los lados.
+     * @param name Nombre de la hoja.
+     * @return Hoja o null si no existe.
+     */
+    public Sheet getSheet(String name) {
+        return sheetsByName.get(sheetKey(name));
+    }
+
+    /**
+     * Regresa la posicion de una hoja.
+     * @param sheet Hoja buscada.
+     * @return Indice de la hoja o -1 si no esta en el libro.
+     */
+    public int indexOf(Sheet sheet) {
+        return sheets.indexOf(sheet);
+    }
+
+    /**
+     * Regresa la cantidad de hojas del libro.
+     * @return Numero de hojas.
+     */
+    public int getSheetCount() {
+        return sheets.size();
+    }
+
+    /**
+     * Regresa la version de la lista de hojas; cambia cada vez que se
+     * agrega, renombra, mueve o quita una hoja.
+     * @return Version de la estructura del libro.
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * REgresa la lista completa de hojas en el libro (solo lectura; para
+     * cambiarla se usan los metodos del libro).
      * @return Lista de hojas.
      */
-    public LinkedList<Sheet> getSheets(){ 
-        return sheets; 
+    public List<Sheet> getSheets(){
+        return sheetsView;
     }
     /**
      * Establece el indice de la hoja actual/activa
      * @param index Indice de la hoja que se quiere activar.
      */
-    public void setCurrentSheetIndex(int index){ 
-        this.currentSheetIndex = index; 
+    public void setCurrentSheetIndex(int index){
+        this.currentSheetIndex = index;
     }
     /**
      * regresa el indice de la hoja activa.
      * @return Indice de la hoja activa.
      */
-    public int getCurrentSheetIndex(){ 
-        return currentSheetIndex; 
+    public int getCurrentSheetIndex(){
+        return currentSheetIndex;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("sheets", new LinkedList<>(sheets));
+        fields.put("currentSheetIndex", currentSheetIndex);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        initSheets();
+        List<Sheet> stored = (List<Sheet>) fields.get("sheets", null);
+        if (stored != null) {
+            for (Sheet sheet : stored) addSheet(sheet);
+        }
+        currentSheetIndex = fields.get("currentSheetIndex", 0);
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import model.OrthogonalMatrix;
+import model.Sheet;
+
+/**
+ * Formula que opera sobre celdas individuales de la misma hoja de la formula,
+ * por ejemplo {@code =suma((1,1),(2,2))}.
+ * Las coordenadas ya vienen convertidas a base 0.
+ * @author maryori
+ */
+public class CellListFormula extends CompiledFormula {
+    private final int[] rows;
+    private final int[] cols;
+
+    /**
+     * Constructor de la formula.
+     * @param function Funcion a aplicar.
+     * @param rows Filas de las celdas (base 0).
+     * @param cols Columnas de las celdas (base 0).
+     */
+    public CellListFormula(FormulaFunction function, int[] rows, int[] cols) {
+        super(function);
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    @Override
+    public Object evaluate(FormulaParser parser, Sheet sheet, int currentRow, int currentCol) {
+        OrthogonalMatrix matrix = sheet.getMatrix();
+        FormulaFunction function = getFunction();
+        double result = function.identity();
+        boolean found = false;
+
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] < 0 || cols[i] < 0) {
+                continue;
+            }
+            // Numero escrito o resultado de otra formula, ya calculado
+            if (matrix.hasNumber(rows[i], cols[i])) {
+                result = function.combine(result, matrix.getNumber(rows[i], cols[i]));
+                found = true;
+            }
+        }
+        parser.getMetrics().addCellsScanned(function, rows.length);
+        return function.result(result, found);
+    }
+
+    /**
+     * Regresa la cantidad de celdas referenciadas.
+     * @return Numero de celdas.
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Regresa la fila de una referencia.
+     * @param i Posicion de la referencia.
+     * @return Fila en base 0.
+     */
+    public int getRow(int i) {
+        return rows[i];
+    }
+
+    /**
+     * Regresa la columna de una referencia.
+     * @param i Posicion de la referencia.
+     * @return Columna en base 0.
+     */
+    public int getCol(int i) {
+        return cols[i];
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import model.Sheet;
+
+/**
+ * Referencia inmutable a una celda de una hoja del libro (hoja, fila y
+ * columna en base 0). Se usa como nodo del grafo de dependencias.
+ * @author maryori
+ */
+public final class CellRef {
+    private final Sheet sheet;
+    private final int row;
+    private final int col;
+
+    /**
+     * Constructor de la referencia.
+     * @param sheet Hoja de la celda.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     */
+    public CellRef(Sheet sheet, int row, int col) {
+        this.sheet = sheet;
+        this.row = row;
+        this.col = col;
+    }
+
+    public Sheet getSheet() {
+        return sheet;
+    }
+    public int getRow() {
+        return row;
+    }
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CellRef)) return false;
+        CellRef other = (CellRef) o;
+        return sheet == other.sheet && row == other.row && col == other.col;
+    }
+
+    @Override
+    public int hashCode() {
+        return (System.identityHashCode(sheet) * 31 + row) * 31 + col;
+    }
+
+    @Override
+    public String toString() {
+        return sheet.getName() + "(" + (row + 1) + "," + (col + 1) + ")";
+    }
+}
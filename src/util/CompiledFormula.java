@@ -0,0 +1,44 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import model.Sheet;
+
+/**
+ * Formula ya interpretada (arbol de la formula). Se obtiene una sola vez a
+ * partir del texto y se puede evaluar muchas veces sin volver a leer el
+ * texto. Es inmutable, asi que varias celdas con la misma formula comparten
+ * la misma instancia.
+ * @author maryori
+ */
+public abstract class CompiledFormula {
+    private final FormulaFunction function;
+
+    /**
+     * Constructor que recibe la funcion de la formula.
+     * @param function Funcion a aplicar (puede ser null si la formula es invalida).
+     */
+    protected CompiledFormula(FormulaFunction function) {
+        this.function = function;
+    }
+
+    /**
+     * Regresa la funcion de la formula.
+     * @return Funcion de la formula.
+     */
+    public FormulaFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Evalua la formula.
+     * @param parser Parser que da acceso a las hojas del libro.
+     * @param sheet Hoja de la celda que tiene la formula.
+     * @param currentRow Fila de la celda actual.
+     * @param currentCol Columna de la celda actual.
+     * @return Resultado evaluado de la formula o error.
+     */
+    public abstract Object evaluate(FormulaParser parser, Sheet sheet, int currentRow, int currentCol);
+}
@@ -0,0 +1,259 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.DoubleConsumer;
+import model.Cell;
+import model.CellType;
+import model.CellVisitor;
+import model.FrozenMatrix;
+import model.OrthogonalMatrix;
+
+/**
+ * Importa y exporta hojas como texto delimitado (CSV o TSV, en UTF-8).
+ * Los campos entre comillas pueden tener el delimitador, saltos de linea y
+ * comillas dobles ("" es una comilla). Cada linea es una fila y cada campo
+ * una columna; los campos vacios no crean celdas.
+ * <p>
+ * La importacion lee el archivo por partes, sin tenerlo completo en memoria,
+ * y carga cada campo directo en la matriz con
+ * {@link OrthogonalMatrix#loadCell}, sin interpretar ni evaluar formulas.
+ * La exportacion recorre las celdas ocupadas por filas.
+ * @author maryori
+ */
+final class DelimitedText {
+    private static final int CHUNK = 64 << 10;
+    // Cada cuanto se avisa el progreso (bytes leidos o filas escritas)
+    private static final long PROGRESS_BYTES = 1 << 20;
+    private static final int PROGRESS_ROWS = 4096;
+
+    private DelimitedText() {
+    }
+
+    /**
+     * Carga un archivo delimitado en una matriz vacia.
+     * @param file Archivo a leer.
+     * @param delimiter Separador de campos (',' o '\t').
+     * @param matrix Matriz donde se cargan las celdas.
+     * @param progress Recibe la fraccion leida del archivo (de 0 a 1).
+     * @return Cantidad de celdas cargadas.
+     * @throws IOException Si no se puede leer el archivo o no cabe en la hoja.
+     */
+    static long read(Path file, char delimiter, OrthogonalMatrix matrix, DoubleConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             Reader reader = Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), CHUNK)) {
+            long size = Math.max(1, channel.size());
+            char[] chunk = new char[CHUNK];
+            StringBuilder field = new StringBuilder();
+            long cells = 0;
+            long reported = 0;
+            int row = 0, col = 0;
+            boolean quoted = false;      // dentro de comillas
+            boolean wasQuoted = false;   // el campo empezo con comillas
+            boolean pendingQuote = false; // comilla que cierra o que se repite
+            boolean lineHasData = false;
+            boolean skipLineFeed = false;
+            boolean first = true;
+
+            for (int read = reader.read(chunk); read >= 0; read = reader.read(chunk)) {
+                int i = 0;
+                if (first && read > 0) {
+                    first = false;
+                    if (chunk[0] == '\uFEFF') i = 1; // marca de orden de bytes
+                }
+                for (; i < read; i++) {
+                    char c = chunk[i];
+                    if (skipLineFeed) {
+                        skipLineFeed = false;
+                        if (c == '\n') continue;
+                    }
+                    if (pendingQuote) {
+                        pendingQuote = false;
+                        if (c == '"') {
+                            field.append('"');
+                            continue;
+                        }
+                        quoted = false;
+                    }
+                    if (quoted) {
+                        if (c == '"') {
+                            pendingQuote = true;
+                        } else {
+                            field.append(c);
+                        }
+                        continue;
+                    }
+                    if (c == delimiter) {
+                        cells += store(matrix, row, col, field);
+                        col++;
+                        wasQuoted = false;
+                        lineHasData = true;
+                    } else if (c == '\n' || c == '\r') {
+                        cells += store(matrix, row, col, field);
+                        row++;
+                        col = 0;
+                        wasQuoted = false;
+                        lineHasData = false;
+                        skipLineFeed = c == '\r';
+                    } else if (c == '"' && field.length() == 0 && !wasQuoted) {
+                        quoted = true;
+                        wasQuoted = true;
+                        lineHasData = true;
+                    } else {
+                        field.append(c);
+                        lineHasData = true;
+                    }
+                }
+                long position = channel.position();
+                if (position - reported >= PROGRESS_BYTES) {
+                    reported = position;
+                    progress.accept(Math.min(1.0, (double) position / size));
+                }
+            }
+            if (lineHasData || field.length() > 0) {
+                cells += store(matrix, row, col, field);
+                row++;
+            }
+            matrix.ensureExtent(row, 1);
+            progress.accept(1.0);
+            return cells;
+        }
+    }
+
+    /**
+     * Guarda un campo en la matriz y vacia el texto acumulado.
+     * @return 1 si se creo una celda, 0 si el campo estaba vacio.
+     */
+    private static int store(OrthogonalMatrix matrix, int row, int col, StringBuilder field) throws IOException {
+        if (field.length() == 0) return 0;
+        if (row >= OrthogonalMatrix.MAX_ROWS || col >= OrthogonalMatrix.MAX_COLS) {
+            throw new IOException("El archivo no cabe en una hoja (máximo "
+                + OrthogonalMatrix.MAX_ROWS + " filas y " + OrthogonalMatrix.MAX_COLS + " columnas)");
+        }
+        String text = field.toString();
+        field.setLength(0);
+        if (text.startsWith("=")) {
+            matrix.loadCell(row, col, CellType.FORMULA, text, 0);
+            return 1;
+        }
+        if (mayBeNumber(text.charAt(0))) {
+            try {
+                double number = Double.parseDouble(text);
+                String content = matrix.isColumnarNumbers() && text.equals(Cell.formatNumber(number)) ? null : text;
+                matrix.loadCell(row, col, CellType.NUMBER, content, number);
+                return 1;
+            } catch (NumberFormatException e) {
+                // Es texto
+            }
+        }
+        matrix.loadCell(row, col, CellType.TEXT, text, 0);
+        return 1;
+    }
+
+    /**
+     * Descarta rapido los textos que {@link Double#parseDouble} no acepta.
+     */
+    private static boolean mayBeNumber(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.'
+            || c == 'N' || c == 'I' || Character.isWhitespace(c);
+    }
+
+    /**
+     * Escribe las celdas ocupadas de una matriz como texto delimitado. Las
+     * formulas se escriben con su resultado.
+     * @param matrix Contenido congelado de la hoja (ver {@link OrthogonalMatrix#freeze()}).
+     * @param file Archivo destino.
+     * @param delimiter Separador de campos (',' o '\t').
+     * @param progress Recibe la fraccion de filas escritas (de 0 a 1).
+     * @throws IOException Si no se puede escribir el archivo.
+     */
+    static void write(FrozenMatrix matrix, Path file, char delimiter, DoubleConsumer progress) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            int rows = Math.max(1, matrix.getRows());
+            CellVisitor visitor = new CellVisitor() {
+                private int lastRow = -1;
+                private int lastCol = -1;
+
+                @Override
+                public void visitCell(Cell cell) {
+                    String text;
+                    if (cell.getType() == CellType.FORMULA) {
+                        Object value = cell.getValue();
+                        text = value instanceof Double ? Cell.formatNumber((Double) value)
+                            : value != null ? value.toString() : "";
+                    } else {
+                        text = cell.getContent();
+                    }
+                    field(cell.getY(), cell.getX(), text);
+                }
+
+                @Override
+                public void visitNumber(int row, int col, double number) {
+                    field(row, col, Cell.formatNumber(number));
+                }
+
+                private void field(int row, int col, String text) {
+                    try {
+                        if (row != lastRow) {
+                            // Las filas vacias quedan como lineas vacias
+                            for (int r = Math.max(lastRow, 0); r < row; r++) writer.write('\n');
+                            if (row / PROGRESS_ROWS != lastRow / PROGRESS_ROWS) {
+                                progress.accept(Math.min(1.0, (double) row / rows));
+                            }
+                            lastRow = row;
+                            lastCol = -1;
+                        }
+                        for (int c = lastCol; c < col - 1; c++) writer.write(delimiter);
+                        if (lastCol >= 0) writer.write(delimiter);
+                        lastCol = col;
+                        writeField(writer, text, delimiter);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            try {
+                matrix.scanRowMajor(visitor);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (matrix.getCellCount() > 0) writer.write('\n');
+            progress.accept(1.0);
+        }
+    }
+
+    /**
+     * Escribe un campo, entre comillas si tiene el delimitador, comillas o
+     * saltos de linea.
+     */
+    private static void writeField(BufferedWriter writer, String text, char delimiter) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
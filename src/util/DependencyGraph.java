@@ -0,0 +1,440 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.Workbook;
+
+/**
+ * Grafo de dependencias entre celdas del libro.
+ * Cada celda con formula registra sus precedentes: las celdas individuales
+ * se guardan por referencia y los rangos (incluso de otras hojas) se guardan
+ * como intervalos, sin expandirlos celda por celda. Cada intervalo se guarda
+ * una sola vez en un arbol de intervalos de su hoja, para encontrar rapido
+ * los que cubren una celda aunque abarquen columnas completas.
+ * 
+ * Con el grafo se calcula que formulas hay que recalcular cuando cambia una
+ * celda y en que orden (orden topologico).
+ * @author maryori
+ */
+public class DependencyGraph {
+    // Formula de cada celda registrada y sus precedentes
+    private final Map<CellRef, Registration> formulas = new HashMap<>();
+    // Celda precedente -> formulas que la usan directamente
+    private final Map<CellRef, List<CellRef>> pointDependents = new HashMap<>();
+    // Nombre de hoja (minusculas) -> rangos de esa hoja
+    private final Map<String, RangeTree> rangeDependents = new HashMap<>();
+
+    /**
+     * Registra (o reemplaza) los precedentes de una celda con formula.
+     * @param cell Celda con la formula.
+     * @param formula Formula interpretada de la celda.
+     */
+    public void register(CellRef cell, CompiledFormula formula) {
+        unregister(cell);
+        Registration registration = new Registration();
+
+        if (formula instanceof CellListFormula) {
+            CellListFormula list = (CellListFormula) formula;
+            LinkedHashSet<CellRef> points = new LinkedHashSet<>();
+            for (int i = 0; i < list.size(); i++) {
+                if (list.getRow(i) >= 0 && list.getCol(i) >= 0) {
+                    points.add(new CellRef(cell.getSheet(), list.getRow(i), list.getCol(i)));
+                }
+            }
+            for (CellRef point : points) {
+                pointDependents.computeIfAbsent(point, k -> new ArrayList<>(2)).add(cell);
+            }
+            registration.points = points;
+        } else if (formula instanceof RangeFormula) {
+            RangeFormula range = (RangeFormula) formula;
+            RangeEntry entry = new RangeEntry(cell, sheetKey(range.getSheetName()),
+                Math.max(0, range.getRow1()), Math.max(0, range.getCol1()),
+                Math.min(range.getRow2(), OrthogonalMatrix.MAX_ROWS - 1), range.getCol2());
+            if (entry.row1 <= entry.row2 && entry.col1 <= entry.col2) {
+                rangeDependents.computeIfAbsent(entry.sheetKey, k -> new RangeTree()).add(entry);
+                registration.range = entry;
+            }
+        }
+        formulas.put(cell, registration);
+    }
+
+    /**
+     * Quita los precedentes registrados de una celda (si tenia formula).
+     * @param cell Celda que dejo de tener formula.
+     */
+    public void unregister(CellRef cell) {
+        Registration registration = formulas.remove(cell);
+        if (registration == null) return;
+
+        for (CellRef point : registration.points) {
+            List<CellRef> dependents = pointDependents.get(point);
+            dependents.remove(cell);
+            if (dependents.isEmpty()) pointDependents.remove(point);
+        }
+        RangeEntry entry = registration.range;
+        if (entry != null) {
+            RangeTree tree = rangeDependents.get(entry.sheetKey);
+            tree.remove(entry);
+            if (tree.isEmpty()) rangeDependents.remove(entry.sheetKey);
+        }
+    }
+
+    /**
+     * Quita todas las formulas registradas de una hoja.
+     * @param sheet Hoja cuyas formulas se olvidan.
+     */
+    public void unregisterSheet(Sheet sheet) {
+        List<CellRef> cells = new ArrayList<>();
+        for (CellRef cell : formulas.keySet()) {
+            if (cell.getSheet() == sheet) cells.add(cell);
+        }
+        for (CellRef cell : cells) {
+            unregister(cell);
+        }
+    }
+
+    /**
+     * Quita todas las formulas registradas.
+     */
+    public void clear() {
+        formulas.clear();
+        pointDependents.clear();
+        rangeDependents.clear();
+    }
+
+    /**
+     * Indica si una celda tiene formula registrada.
+     * @param cell Celda a revisar.
+     * @return true si la celda esta registrada.
+     */
+    public boolean isRegistered(CellRef cell) {
+        return formulas.containsKey(cell);
+    }
+
+    /**
+     * Agrega a la lista las formulas que dependen directamente de una celda.
+     * @param cell Celda precedente.
+     * @param out Lista donde se agregan las celdas dependientes.
+     */
+    public void collectDependents(CellRef cell, List<CellRef> out) {
+        List<CellRef> points = pointDependents.get(cell);
+        if (points != null) out.addAll(points);
+
+        RangeTree tree = rangeDependents.get(sheetKey(cell.getSheet().getName()));
+        if (tree != null) tree.collect(cell.getRow(), cell.getCol(), out);
+    }
+
+    /**
+     * Calcula el orden de recalculo para un conjunto de celdas cambiadas:
+     * todas las formulas que dependen de ellas de forma transitiva, en orden
+     * topologico (cada formula despues de sus precedentes), agrupadas en
+     * niveles.
+     * @param changed Celdas que cambiaron.
+     * @param includeChanged true si las celdas cambiadas tambien se deben
+     *        recalcular (por ejemplo al cargar un libro).
+     * @return Plan con el orden de recalculo y las celdas en ciclo.
+     */
+    public RecalcPlan plan(Collection<CellRef> changed, boolean includeChanged) {
+        // 1. Celdas sucias: dependientes transitivos
+        LinkedHashSet<CellRef> dirty = new LinkedHashSet<>();
+        ArrayDeque<CellRef> pending = new ArrayDeque<>();
+        List<CellRef> dependents = new ArrayList<>();
+        for (CellRef cell : changed) {
+            if (includeChanged && formulas.containsKey(cell) && dirty.add(cell)) pending.add(cell);
+            dependents.clear();
+            collectDependents(cell, dependents);
+            for (CellRef dependent : dependents) {
+                if (dirty.add(dependent)) pending.add(dependent);
+            }
+        }
+        while (!pending.isEmpty()) {
+            dependents.clear();
+            collectDependents(pending.poll(), dependents);
+            for (CellRef dependent : dependents) {
+                if (dirty.add(dependent)) pending.add(dependent);
+            }
+        }
+
+        // 2. Grado de entrada dentro de las celdas sucias
+        Map<CellRef, Integer> inDegree = new HashMap<>();
+        for (CellRef cell : dirty) {
+            inDegree.putIfAbsent(cell, 0);
+            dependents.clear();
+            collectDependents(cell, dependents);
+            for (CellRef dependent : dependents) {
+                if (dirty.contains(dependent)) inDegree.merge(dependent, 1, Integer::sum);
+            }
+        }
+
+        // 3. Orden topologico (Kahn) por niveles: las formulas de un nivel
+        //    solo dependen de niveles anteriores. Lo que sobra esta en un ciclo
+        List<List<CellRef>> levels = new ArrayList<>();
+        List<CellRef> level = new ArrayList<>();
+        for (CellRef cell : dirty) {
+            if (inDegree.get(cell) == 0) level.add(cell);
+        }
+        int ordered = 0;
+        while (!level.isEmpty()) {
+            levels.add(level);
+            ordered += level.size();
+            List<CellRef> next = new ArrayList<>();
+            for (CellRef cell : level) {
+                dependents.clear();
+                collectDependents(cell, dependents);
+                for (CellRef dependent : dependents) {
+                    if (dirty.contains(dependent) && inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            level = next;
+        }
+        List<CellRef> cyclic = new ArrayList<>();
+        if (ordered < dirty.size()) {
+            for (CellRef cell : dirty) {
+                if (inDegree.get(cell) > 0) cyclic.add(cell);
+            }
+        }
+        return new RecalcPlan(levels, cyclic);
+    }
+
+    /**
+     * Agrega a la lista las formulas que usan un rango de la hoja con un
+     * nombre (exista o no esa hoja), cada una una vez.
+     * @param sheetName Nombre de la hoja.
+     * @param out Lista donde se agregan las celdas dependientes.
+     */
+    public void collectSheetDependents(String sheetName, List<CellRef> out) {
+        RangeTree tree = rangeDependents.get(sheetKey(sheetName));
+        if (tree == null) return;
+        LinkedHashSet<CellRef> found = new LinkedHashSet<>();
+        tree.collectAll(found);
+        out.addAll(found);
+    }
+
+    /**
+     * Normaliza el nombre de hoja igual que la busqueda de hojas.
+     */
+    private static String sheetKey(String name) {
+        return Workbook.sheetKey(name);
+    }
+
+    /**
+     * Precedentes registrados de una formula.
+     */
+    private static class Registration {
+        private Collection<CellRef> points = List.of();
+        private RangeEntry range;
+    }
+
+    /**
+     * Intervalo de celdas del que depende una formula. Tambien es el nodo
+     * del arbol de su hoja (ver {@link RangeTree}).
+     */
+    private static class RangeEntry {
+        // Fuente del orden de llegada, que desempata intervalos con la misma fila inicial
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final CellRef dependent;
+        private final String sheetKey;
+        private final int row1, col1, row2, col2;
+        private final long sequence = SEQUENCE.incrementAndGet();
+        private final int priority = Long.hashCode(sequence * 0x9E3779B97F4A7C15L);
+        private RangeEntry left, right;
+        // Fila final mas grande del subarbol
+        private int maxRow2;
+
+        RangeEntry(CellRef dependent, String sheetKey, int row1, int col1, int row2, int col2) {
+            this.dependent = dependent;
+            this.sheetKey = sheetKey;
+            this.row1 = row1;
+            this.col1 = col1;
+            this.row2 = row2;
+            this.col2 = col2;
+        }
+
+        boolean contains(int row, int col) {
+            return row >= row1 && row <= row2 && col >= col1 && col <= col2;
+        }
+
+        boolean before(RangeEntry other) {
+            return row1 != other.row1 ? row1 < other.row1 : sequence < other.sequence;
+        }
+
+        void update() {
+            int max = row2;
+            if (left != null) max = Math.max(max, left.maxRow2);
+            if (right != null) max = Math.max(max, right.maxRow2);
+            maxRow2 = max;
+        }
+    }
+
+    /**
+     * Arbol de intervalos de una hoja: un treap ordenado por fila inicial en
+     * el que cada nodo guarda la fila final mas grande de su subarbol. Para
+     * buscar los rangos que cubren una fila se descartan los subarboles que
+     * terminan antes de ella y los que empiezan despues, asi que el costo es
+     * logaritmico mas los rangos encontrados, sin importar cuantas filas
+     * abarque cada rango.
+     */
+    private static class RangeTree {
+        private RangeEntry root;
+
+        void add(RangeEntry entry) {
+            root = insert(root, entry);
+        }
+
+        void remove(RangeEntry entry) {
+            root = delete(root, entry);
+        }
+
+        boolean isEmpty() {
+            return root == null;
+        }
+
+        /**
+         * Agrega las formulas cuyos rangos contienen la celda.
+         */
+        void collect(int row, int col, List<CellRef> out) {
+            collect(root, row, col, out);
+        }
+
+        /**
+         * Agrega las formulas de todos los rangos del arbol.
+         */
+        void collectAll(Collection<CellRef> out) {
+            collectAll(root, out);
+        }
+
+        private static RangeEntry insert(RangeEntry node, RangeEntry entry) {
+            if (node == null) {
+                entry.left = null;
+                entry.right = null;
+                entry.update();
+                return entry;
+            }
+            if (entry.before(node)) {
+                node.left = insert(node.left, entry);
+                if (node.left.priority > node.priority) node = rotateRight(node);
+            } else {
+                node.right = insert(node.right, entry);
+                if (node.right.priority > node.priority) node = rotateLeft(node);
+            }
+            node.update();
+            return node;
+        }
+
+        private static RangeEntry delete(RangeEntry node, RangeEntry entry) {
+            if (node == null) return null;
+            if (node == entry) {
+                RangeEntry merged = merge(node.left, node.right);
+                node.left = null;
+                node.right = null;
+                return merged;
+            }
+            if (entry.before(node)) {
+                node.left = delete(node.left, entry);
+            } else {
+                node.right = delete(node.right, entry);
+            }
+            node.update();
+            return node;
+        }
+
+        /**
+         * Une dos subarboles donde todo {@code a} va antes que {@code b}.
+         */
+        private static RangeEntry merge(RangeEntry a, RangeEntry b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.priority > b.priority) {
+                a.right = merge(a.right, b);
+                a.update();
+                return a;
+            }
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+
+        private static RangeEntry rotateRight(RangeEntry node) {
+            RangeEntry top = node.left;
+            node.left = top.right;
+            top.right = node;
+            node.update();
+            return top;
+        }
+
+        private static RangeEntry rotateLeft(RangeEntry node) {
+            RangeEntry top = node.right;
+            node.right = top.left;
+            top.left = node;
+            node.update();
+            return top;
+        }
+
+        private static void collect(RangeEntry node, int row, int col, List<CellRef> out) {
+            while (node != null && node.maxRow2 >= row) {
+                collect(node.left, row, col, out);
+                // Los de la derecha empiezan en esta fila o despues
+                if (node.row1 > row) return;
+                if (node.contains(row, col)) out.add(node.dependent);
+                node = node.right;
+            }
+        }
+
+        private static void collectAll(RangeEntry node, Collection<CellRef> out) {
+            for (; node != null; node = node.right) {
+                collectAll(node.left, out);
+                out.add(node.dependent);
+            }
+        }
+    }
+
+    /**
+     * Resultado de {@link DependencyGraph#plan}: formulas a recalcular por
+     * niveles y formulas que quedaron en un ciclo. Las formulas de un mismo
+     * nivel no dependen entre si y se pueden evaluar en paralelo.
+     */
+    public static class RecalcPlan {
+        /** Plan sin formulas. */
+        public static final RecalcPlan EMPTY = new RecalcPlan(List.of(), List.of());
+
+        private final List<List<CellRef>> levels;
+        private final List<CellRef> cyclic;
+
+        RecalcPlan(List<List<CellRef>> levels, List<CellRef> cyclic) {
+            this.levels = levels;
+            this.cyclic = cyclic;
+        }
+
+        public List<List<CellRef>> getLevels() {
+            return levels;
+        }
+        public List<CellRef> getCyclic() {
+            return cyclic;
+        }
+
+        /**
+         * Regresa todas las formulas del plan en orden de recalculo.
+         * @return Formulas nivel por nivel.
+         */
+        public List<CellRef> getOrder() {
+            List<CellRef> order = new ArrayList<>();
+            for (List<CellRef> level : levels) order.addAll(level);
+            return order;
+        }
+    }
+}
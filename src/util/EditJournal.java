@@ -0,0 +1,818 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import model.SheetLoadException;
+import model.Workbook;
+
+/**
+ * Diario de cambios de un libro guardado. Cada edicion se agrega al final
+ * del archivo "libro.journal" como un registro pequeno, asi guardar solo
+ * tiene que asegurar en disco los registros pendientes en lugar de reescribir
+ * todo el libro. Cuando el diario crece, un hilo de fondo lo compacta: vuelve
+ * a escribir el libro con los cambios aplicados y empieza un diario vacio.
+ * <pre>
+ * Encabezado (24 bytes):
+ *   int   MAGIC ("MXJL")
+ *   short version
+ *   short reservado
+ *   long  generacion del libro al que pertenece
+ *   long  generacion anterior (la del diario que continua, al compactar)
+ * Registro:
+ *   int   largo (tipo + datos)
+ *   int   CRC32 de tipo + datos
+ *   byte  tipo y sus datos
+ *     SET_CELL:  varint hoja, varint fila, varint columna, texto
+ *     ADD_SHEET: texto con el nombre
+ *     RENAME_SHEET: varint hoja, texto con el nombre nuevo
+ *     MOVE_SHEET:   varint hoja, varint posicion nueva
+ *     REMOVE_SHEET: varint hoja
+ * </pre>
+ * Los textos van como varint bytes + UTF-8. Al abrir el libro se aplican los
+ * registros hasta el primero incompleto o con CRC incorrecto (lo que dejo
+ * una caida a medio escribir) y el resto se descarta.
+ * <p>
+ * La generacion enlaza el diario con su libro: al compactar, los cambios
+ * nuevos van a "libro.journal.next" (con la generacion nueva y la anterior
+ * en su encabezado), despues se reemplaza el libro y al final el diario.
+ * Si algo se interrumpe, al abrir se reconoce que archivos siguen vigentes.
+ * El guardado automatico usa el mismo camino, pero escribe el libro a partir
+ * de una instantanea ({@link WorkbookSnapshot}). Escribir el libro completo
+ * tambien empieza por "next" (sin generacion anterior, porque el libro nuevo
+ * tiene cambios que no estan en el diario), asi el libro y el diario que
+ * habia siguen valiendo hasta que el libro nuevo esta en disco.
+ * @author maryori
+ */
+class EditJournal implements Closeable {
+    static final int MAGIC = 0x4D584A4C;
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 24;
+
+    // Tipos de registro
+    static final byte SET_CELL = 1;
+    static final byte ADD_SHEET = 2;
+    static final byte RENAME_SHEET = 3;
+    static final byte MOVE_SHEET = 4;
+    static final byte REMOVE_SHEET = 5;
+
+    // Registros que se acumulan antes de forzarlos a disco
+    private static final int SYNC_BATCH = 256;
+    private static final long SYNC_INTERVAL_MS = 1000;
+    // Tamano del diario a partir del cual se compacta al guardar
+    private static final long COMPACT_THRESHOLD = 4L << 20;
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final Path base;
+    private final Path journalFile;
+    private final Path nextFile;
+    private final ScheduledExecutorService executor;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private FileChannel channel;
+    private long generation;
+    // Registros escritos que todavia no se fuerzan a disco
+    private int unsynced;
+    private boolean compacting;
+    // El diario ya no corresponde al libro en disco
+    private volatile boolean baseMissing;
+    // Diario anterior mientras se compacta
+    private FileChannel retired;
+    private long retiredGeneration;
+    // Instantanea que espera a que termine la compactacion en curso, y desde
+    // donde se anotaron en el diario los cambios posteriores a ella
+    private WorkbookSnapshot pendingSnapshot;
+    private boolean pendingJournaled;
+    private FileChannel pendingChannel;
+    private long pendingPosition;
+    private CompletableFuture<Void> pendingResult;
+
+    private EditJournal(Path base, FileChannel channel, long generation) {
+        this.base = base;
+        this.journalFile = journalPath(base);
+        this.nextFile = nextPath(base);
+        this.channel = channel;
+        this.generation = generation;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "maxcell-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::periodicSync, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Genera una generacion nueva para un libro que se escribe completo.
+     * @return Generacion aleatoria distinta de 0 (0 es la de la version 1 del formato).
+     */
+    static long newGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while (generation == 0);
+        return generation;
+    }
+
+    /**
+     * Empieza un diario vacio para un libro en disco que no tiene diario
+     * vigente.
+     * @param base Archivo del libro.
+     * @param generation Generacion del libro.
+     * @return Diario listo para agregar cambios.
+     * @throws IOException Si no se puede crear el archivo.
+     */
+    static EditJournal create(Path base, long generation) throws IOException {
+        Files.deleteIfExists(nextPath(base));
+        return new EditJournal(base, createFile(journalPath(base), generation, generation), generation);
+    }
+
+    /**
+     * Empieza el diario de un libro que se va a escribir completo con
+     * {@link #writeBase}. Los cambios van a "next" hasta que el libro nuevo
+     * esta en disco; el libro y el diario que hubiera en ese archivo no se
+     * tocan antes.
+     * @param base Archivo del libro.
+     * @param generation Generacion con la que se va a escribir el libro.
+     * @return Diario listo para agregar cambios.
+     * @throws IOException Si no se puede crear el archivo.
+     */
+    static EditJournal start(Path base, long generation) throws IOException {
+        return new EditJournal(base, createFile(nextPath(base), generation, generation), generation);
+    }
+
+    /**
+     * Abre el diario de un libro recien leido y le aplica los cambios que
+     * guarda. Si no hay diario (o es de otra generacion) se empieza uno vacio.
+     * @param base Archivo del libro.
+     * @param generation Generacion leida del libro.
+     * @param workbook Libro leido, al que se le aplican los cambios.
+     * @return Diario listo para agregar cambios.
+     * @throws IOException Si no se puede leer o escribir el diario.
+     */
+    static EditJournal open(Path base, long generation, Workbook workbook) throws IOException {
+        Path journal = journalPath(base);
+        Path next = nextPath(base);
+        long[] journalHeader = readHeader(journal);
+        long[] nextHeader = readHeader(next);
+
+        if (journalHeader == null || journalHeader[0] != generation) {
+            if (nextHeader != null && nextHeader[0] == generation) {
+                // Se cayo despues de reemplazar el libro y antes que el diario
+                move(next, journal);
+                nextHeader = null;
+            } else {
+                return create(base, generation);
+            }
+        }
+
+        FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end = replay(channel, HEADER_SIZE, workbook);
+            channel.truncate(end);
+            if (nextHeader != null && nextHeader[1] == generation) {
+                // Se cayo compactando antes de reemplazar el libro: los
+                // cambios de "next" siguen al diario vigente
+                try (FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.READ)) {
+                    long nextEnd = replay(nextChannel, HEADER_SIZE, workbook);
+                    nextChannel.transferTo(HEADER_SIZE, nextEnd - HEADER_SIZE, channel.position(end));
+                }
+            }
+            channel.force(false);
+            channel.position(channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        Files.deleteIfExists(next);
+        return new EditJournal(base, channel, generation);
+    }
+
+    /**
+     * Regresa el archivo del libro al que pertenece el diario.
+     * @return Ruta del libro.
+     */
+    Path getBase() {
+        return base;
+    }
+
+    /**
+     * Agrega el cambio de una celda.
+     * @param sheet Indice de la hoja.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param value Valor o formula que se escribio.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    synchronized void appendSetCell(int sheet, int row, int col, String value) throws IOException {
+        byte[] text = value.getBytes(StandardCharsets.UTF_8);
+        startRecord(SET_CELL, 20 + text.length);
+        putVarint(sheet);
+        putVarint(row);
+        putVarint(col);
+        putVarint(text.length);
+        record.put(text);
+        endRecord();
+    }
+
+    /**
+     * Agrega una hoja nueva al final del libro.
+     * @param name Nombre de la hoja.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    synchronized void appendAddSheet(String name) throws IOException {
+        byte[] text = name.getBytes(StandardCharsets.UTF_8);
+        startRecord(ADD_SHEET, 5 + text.length);
+        putVarint(text.length);
+        record.put(text);
+        endRecord();
+    }
+
+    /**
+     * Agrega el cambio de nombre de una hoja. Las formulas reescritas con el
+     * nombre nuevo se anotan aparte como cambios de celda.
+     * @param sheet Indice de la hoja.
+     * @param name Nombre nuevo.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    synchronized void appendRenameSheet(int sheet, String name) throws IOException {
+        byte[] text = name.getBytes(StandardCharsets.UTF_8);
+        startRecord(RENAME_SHEET, 10 + text.length);
+        putVarint(sheet);
+        putVarint(text.length);
+        record.put(text);
+        endRecord();
+    }
+
+    /**
+     * Agrega el cambio de posicion de una hoja.
+     * @param from Indice anterior de la hoja.
+     * @param to Indice nuevo.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    synchronized void appendMoveSheet(int from, int to) throws IOException {
+        startRecord(MOVE_SHEET, 10);
+        putVarint(from);
+        putVarint(to);
+        endRecord();
+    }
+
+    /**
+     * Agrega que se quito una hoja.
+     * @param sheet Indice de la hoja.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    synchronized void appendRemoveSheet(int sheet) throws IOException {
+        startRecord(REMOVE_SHEET, 5);
+        putVarint(sheet);
+        endRecord();
+    }
+
+    /**
+     * Escribe los registros pendientes y los fuerza a disco. Es lo que hace
+     * "Guardar" mientras el libro tiene diario.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    synchronized void sync() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Indica si el diario ya no corresponde al libro en disco porque fallo
+     * la escritura del libro de {@link #writeBase} o el cambio de "next" por
+     * el diario; hay que volver a escribir el libro completo.
+     * @return true si el libro no se pudo escribir.
+     */
+    boolean isBaseMissing() {
+        return baseMissing;
+    }
+
+    /**
+     * Indica si hay cambios anotados desde que se escribio el libro.
+     * @return true si el diario tiene registros.
+     * @throws IOException Si no se puede consultar el tamano del diario.
+     */
+    synchronized boolean hasChanges() throws IOException {
+        return channel.size() + buffer.position() > HEADER_SIZE;
+    }
+
+    /**
+     * Programa la compactacion en el hilo de fondo si el diario ya es grande.
+     * @throws IOException Si no se puede consultar el tamano del diario.
+     */
+    synchronized void compactIfNeeded() throws IOException {
+        if (!compacting && pendingSnapshot == null && channel.size() + buffer.position() >= COMPACT_THRESHOLD) {
+            compacting = true;
+            executor.execute(this::compact);
+        }
+    }
+
+    /**
+     * Escribe en el hilo de fondo el libro de un diario empezado con
+     * {@link #start} y despues pone "next" en lugar del diario. Los cambios
+     * que se anoten mientras tanto quedan en el diario.
+     * @param snapshot Instantanea del libro al empezar el diario.
+     * @return Se completa cuando el libro esta en disco.
+     */
+    synchronized CompletableFuture<Void> writeBase(WorkbookSnapshot snapshot) {
+        compacting = true;
+        long baseGeneration = generation;
+        return CompletableFuture.runAsync(() -> {
+            try {
+                WorkbookWriter.write(snapshot, base, baseGeneration);
+                synchronized (this) {
+                    move(nextFile, journalFile);
+                }
+            } catch (IOException e) {
+                baseMissing = true;
+                throw new UncheckedIOException(e);
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Reemplaza el libro por una instantanea y vacia el diario, en el hilo
+     * de fondo. La instantanea se debe tomar en el hilo que edita, justo antes
+     * de llamar a este metodo, para que los cambios siguientes vayan al
+     * diario nuevo. Si ya se esta escribiendo el libro, se hace al terminar:
+     * a la instantanea se le aplican los cambios anotados desde que se tomo.
+     * Una instantanea mas nueva reemplaza a la que seguia esperando.
+     * @param snapshot Instantanea actual del libro.
+     * @param journaled true si la instantanea es el libro en disco mas su
+     *        diario. Si tiene otros cambios (hojas importadas), el diario
+     *        nuevo no continua al anterior: con una caida antes de reemplazar
+     *        el libro se abre el libro anterior con su diario.
+     * @return Se completa cuando el libro esta en disco.
+     */
+    synchronized CompletableFuture<Void> rebase(WorkbookSnapshot snapshot, boolean journaled) {
+        try {
+            if (baseMissing) throw new IOException("El libro de este diario no se pudo escribir");
+            if (compacting || pendingSnapshot != null) {
+                writeBuffer();
+                if (pendingSnapshot == null) {
+                    pendingResult = new CompletableFuture<>();
+                    pendingJournaled = journaled;
+                    executor.execute(this::rebasePending);
+                } else {
+                    pendingJournaled &= journaled;
+                }
+                pendingSnapshot = snapshot;
+                pendingChannel = channel;
+                pendingPosition = channel.size();
+                return pendingResult;
+            }
+            compacting = true;
+            long newGeneration = newGeneration();
+            try {
+                rotate(newGeneration, journaled);
+            } catch (IOException e) {
+                compacting = false;
+                throw e;
+            }
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    fold(() -> WorkbookWriter.write(snapshot, base, newGeneration));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Fuerza a disco lo pendiente y cierra el diario. Espera a que termine
+     * una compactacion en curso.
+     * @throws IOException Si no se puede escribir el diario.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannel();
+    }
+
+    /**
+     * Cierra el diario sin esperar: si se esta escribiendo el libro, lo
+     * pendiente se fuerza a disco y se cierra en el hilo de fondo al
+     * terminar; si no, se cierra en este momento. Sirve para soltar el
+     * diario desde el hilo que edita.
+     * @return Se completa cuando el diario esta cerrado.
+     */
+    synchronized CompletableFuture<Void> closeAsync() {
+        if ((compacting || pendingSnapshot != null) && !baseMissing) {
+            CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+                try {
+                    closeChannel();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+            executor.shutdown();
+            return closed;
+        }
+        // Lo que quede en el hilo de fondo ya no toca los archivos
+        executor.shutdown();
+        try {
+            closeChannel();
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private synchronized void closeChannel() throws IOException {
+        if (channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+
+    private void periodicSync() {
+        synchronized (this) {
+            if (unsynced == 0 || !channel.isOpen()) return;
+            try {
+                sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Escribe la instantanea que espero a la compactacion, con los cambios
+     * anotados desde que se tomo.
+     */
+    private void rebasePending() {
+        long newGeneration = newGeneration();
+        WorkbookSnapshot snapshot;
+        FileChannel marked;
+        long position;
+        CompletableFuture<Void> result;
+        synchronized (this) {
+            snapshot = pendingSnapshot;
+            marked = pendingChannel;
+            position = pendingPosition;
+            result = pendingResult;
+            pendingSnapshot = null;
+            pendingChannel = null;
+            pendingResult = null;
+            try {
+                if (baseMissing) throw new IOException("El libro de este diario no se pudo escribir");
+                compacting = true;
+                rotate(newGeneration, pendingJournaled);
+            } catch (IOException e) {
+                compacting = false;
+                result.completeExceptionally(e);
+                return;
+            }
+        }
+        try {
+            fold(() -> {
+                Workbook workbook = snapshot.toWorkbook();
+                replay(marked, position, workbook);
+                WorkbookWriter.write(workbook, base, newGeneration);
+            });
+            result.complete(null);
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Vuelve a escribir el libro con los cambios del diario, partiendo del
+     * archivo y no del libro abierto, que se sigue editando.
+     */
+    private void compact() {
+        long newGeneration = newGeneration();
+        synchronized (this) {
+            try {
+                if (baseMissing) throw new IOException("El libro de este diario no se pudo escribir");
+                rotate(newGeneration, true);
+            } catch (IOException e) {
+                e.printStackTrace();
+                compacting = false;
+                return;
+            }
+        }
+        try {
+            fold(() -> {
+                if (WorkbookReader.readGeneration(base) != retiredGeneration) {
+                    throw new IOException("El libro no corresponde a su diario");
+                }
+                Workbook workbook = WorkbookReader.read(base);
+                replay(retired, HEADER_SIZE, workbook);
+                WorkbookWriter.write(workbook, base, newGeneration);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deja el diario actual como retirado y manda los cambios nuevos a
+     * "next", con la generacion nueva.
+     * @param journaled true si el libro que se va a escribir es el libro en
+     *        disco mas el diario retirado; solo entonces "next" lo continua.
+     */
+    private void rotate(long newGeneration, boolean journaled) throws IOException {
+        sync();
+        FileChannel next = createFile(nextFile, newGeneration, journaled ? generation : newGeneration);
+        retired = channel;
+        retiredGeneration = generation;
+        channel = next;
+        generation = newGeneration;
+    }
+
+    private interface BaseWrite {
+        void run() throws IOException;
+    }
+
+    /**
+     * Escribe el libro nuevo y despues pone "next" en lugar del diario
+     * retirado. Si falla antes de reemplazar el libro, se sigue con el diario
+     * retirado. El diario retirado se cierra antes de reemplazarlo.
+     */
+    private void fold(BaseWrite write) throws IOException {
+        try {
+            try {
+                write.run();
+            } catch (IOException | RuntimeException e) {
+                restore();
+                throw e;
+            } finally {
+                try {
+                    retired.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (this) {
+                try {
+                    move(nextFile, journalFile);
+                } catch (IOException e) {
+                    // El libro ya es el nuevo pero el diario sigue en "next"
+                    baseMissing = true;
+                    throw e;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                retired = null;
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Pasa los registros del diario nuevo al retirado y sigue con este.
+     */
+    private synchronized void restore() {
+        try {
+            writeBuffer();
+            long end = retired.size();
+            channel.transferTo(HEADER_SIZE, channel.size() - HEADER_SIZE, retired.position(end));
+            retired.force(false);
+            FileChannel restored = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (pendingChannel == channel) {
+                // La marca de la instantanea que espera pasa al diario restaurado
+                pendingChannel = restored;
+                pendingPosition = end + pendingPosition - HEADER_SIZE;
+            }
+            channel.close();
+            Files.deleteIfExists(nextFile);
+            channel = restored;
+            channel.position(channel.size());
+            generation = retiredGeneration;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void startRecord(byte type, int maxLength) {
+        int needed = 2 * Integer.BYTES + 1 + maxLength;
+        if (record.capacity() < needed) {
+            record = ByteBuffer.allocate(Math.max(needed, 2 * record.capacity()));
+        }
+        record.clear();
+        record.position(2 * Integer.BYTES);
+        record.put(type);
+    }
+
+    private void endRecord() throws IOException {
+        int length = record.position() - 2 * Integer.BYTES;
+        crc.reset();
+        crc.update(record.array(), 2 * Integer.BYTES, length);
+        record.putInt(0, length);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+
+        if (buffer.remaining() < record.remaining()) {
+            writeBuffer();
+        }
+        if (buffer.remaining() < record.remaining()) {
+            writeFully(channel, record);
+        } else {
+            buffer.put(record);
+        }
+        if (++unsynced >= SYNC_BATCH) {
+            sync();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            record.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        record.put((byte) value);
+    }
+
+    /**
+     * Aplica al libro los registros validos del diario desde una posicion.
+     * El diario se lee al heap, no se mapea, para que se pueda reemplazar
+     * o truncar despues.
+     * @return Posicion despues del ultimo registro valido.
+     * @throws IOException Si no se pudo leer el diario o cargar una hoja
+     * que usan sus registros (el diario no se toca).
+     */
+    private static long replay(FileChannel channel, long from, Workbook workbook) throws IOException {
+        long size = channel.size();
+        if (size <= from) return from;
+        if (size - from > Integer.MAX_VALUE) throw new IOException("El diario es demasiado grande");
+        ByteBuffer data = ByteBuffer.allocate((int) (size - from));
+        while (data.hasRemaining()) {
+            if (channel.read(data, from + data.position()) < 0) break;
+        }
+        data.flip();
+        CRC32 crc = new CRC32();
+        int position = 0;
+        while (data.limit() - position >= 2 * Integer.BYTES) {
+            int length = data.getInt(position);
+            int checksum = data.getInt(position + Integer.BYTES);
+            int start = position + 2 * Integer.BYTES;
+            if (length <= 0 || length > data.limit() - start) break;
+
+            ByteBuffer payload = data.duplicate();
+            payload.limit(start + length).position(start);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) break;
+            try {
+                apply(payload, workbook);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            } catch (SheetLoadException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            position = start + length;
+        }
+        return from + position;
+    }
+
+    private static void apply(ByteBuffer payload, Workbook workbook) {
+        byte type = payload.get();
+        switch (type) {
+            case SET_CELL: {
+                int sheet = getVarint(payload);
+                int row = getVarint(payload);
+                int col = getVarint(payload);
+                String value = getString(payload);
+                if (sheet < workbook.getSheetCount()) {
+                    workbook.getSheet(sheet).getMatrix().setCellValue(row, col, value);
+                }
+                break;
+            }
+            case ADD_SHEET:
+                workbook.addSheet(getString(payload));
+                break;
+            case RENAME_SHEET: {
+                int sheet = getVarint(payload);
+                String name = getString(payload);
+                if (sheet < workbook.getSheetCount()) workbook.renameSheet(sheet, name);
+                break;
+            }
+            case MOVE_SHEET: {
+                int from = getVarint(payload);
+                int to = getVarint(payload);
+                if (from < workbook.getSheetCount() && to < workbook.getSheetCount()) workbook.moveSheet(from, to);
+                break;
+            }
+            case REMOVE_SHEET: {
+                int sheet = getVarint(payload);
+                if (sheet < workbook.getSheetCount()) workbook.removeSheet(sheet);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Tipo de registro desconocido: " + type);
+        }
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Entero mal codificado");
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[getVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lee el encabezado de un diario.
+     * @return {generacion, generacion anterior} o null si no existe o no es un diario.
+     */
+    private static long[] readHeader(Path file) throws IOException {
+        if (!Files.exists(file)) return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) return null;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getShort() > VERSION) return null;
+            header.getShort();
+            return new long[]{header.getLong(), header.getLong()};
+        }
+    }
+
+    private static FileChannel createFile(Path file, long generation, long previous) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(generation).putLong(previous);
+        header.flip();
+        writeFully(channel, header);
+        channel.force(false);
+        return channel;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Path journalPath(Path base) {
+        return base.resolveSibling(base.getFileName() + ".journal");
+    }
+
+    private static Path nextPath(Path base) {
+        return base.resolveSibling(base.getFileName() + ".journal.next");
+    }
+}
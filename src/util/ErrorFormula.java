@@ -0,0 +1,31 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import model.Sheet;
+
+/**
+ * Formula que no se pudo interpretar. Siempre evalua al mismo resultado
+ * (mensaje de error o 0.0), asi el texto mal escrito tampoco se vuelve a
+ * leer en cada evaluacion.
+ * @author maryori
+ */
+public class ErrorFormula extends CompiledFormula {
+    private final Object result;
+
+    /**
+     * Constructor de la formula invalida.
+     * @param result Resultado fijo que se mostrara en la celda.
+     */
+    public ErrorFormula(Object result) {
+        super(null);
+        this.result = result;
+    }
+
+    @Override
+    public Object evaluate(FormulaParser parser, Sheet sheet, int currentRow, int currentCol) {
+        return result;
+    }
+}
@@ -14,9 +14,28 @@ import controller.SheetController;
 import model.*;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleConsumer;
 
 public class FileManager {
     private SheetController controller;
+    // Diario del archivo abierto; null mientras el libro no tiene archivo
+    private EditJournal journal;
+    // Diarios soltados que todavia terminan de escribir su libro, por archivo
+    private final Map<Path, CompletableFuture<Void>> closing = new ConcurrentHashMap<>();
+    // Ultima instantanea del libro; las hojas sin cambios se reutilizan
+    private WorkbookSnapshot snapshot;
+    // Hay cambios que no estan en el diario (hojas importadas)
+    private volatile boolean fullWriteNeeded;
+    // Hojas que se sacaron de memoria (ver Workbook.releaseMemory)
+    private final SpillFile spill = new SpillFile();
 
     /**
     * Constructor que recibe el controlador principal de las hojas.
@@ -26,22 +45,381 @@ public class FileManager {
     }
 
     /**
-     * Guarda el estado actual del libro en un archivo especifico.
+     * Guarda el estado actual del libro en un archivo especifico, en el
+     * formato binario (ver {@link WorkbookFormat}), y espera a que termine.
      * @param filename Ruta del archivo donde se guardara el libro.
      */
     public void saveWorkbook(String filename) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(controller.getWorkbook());
+        try {
+            saveWorkbookAsync(filename).join();
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Guarda el libro sin detener al hilo que lo edita. Aqui solo se toma una
+     * instantanea del libro (ver {@link WorkbookSnapshot}); la escritura se
+     * hace en segundo plano. Si el libro ya se guardo en ese archivo solo se
+     * fuerzan a disco los cambios de su diario (ver {@link EditJournal}), o
+     * se reescribe como en el guardado automatico si tiene cambios que no
+     * estan en el diario.
+     * Se debe llamar desde el hilo que edita el libro.
+     * @param filename Ruta del archivo donde se guardara el libro.
+     * @return Se completa cuando el libro esta en disco.
+     */
+    public CompletableFuture<Void> saveWorkbookAsync(String filename) {
+        Path file = Paths.get(filename).toAbsolutePath().normalize();
+        if (journal != null && journal.getBase().equals(file) && !journal.isBaseMissing()) {
+            if (fullWriteNeeded) return rebase();
+            EditJournal current = journal;
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    current.sync();
+                    current.compactIfNeeded();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        return writeFully(file);
+    }
+
+    /**
+     * Guardado automatico: si el libro tiene archivo y cambios sin integrar,
+     * toma una instantanea y la escribe en segundo plano en lugar del
+     * archivo, con lo que el diario vuelve a quedar vacio.
+     * Se debe llamar desde el hilo que edita el libro.
+     * @return Se completa con true si se escribio el libro.
+     */
+    public CompletableFuture<Boolean> autosave() {
+        try {
+            if (journal == null) return CompletableFuture.completedFuture(false);
+            if (journal.isBaseMissing()) return writeFully(journal.getBase()).thenApply(done -> true);
+            if (!(journal.hasChanges() || fullWriteNeeded)) return CompletableFuture.completedFuture(false);
+            return rebase().thenApply(done -> true);
         } catch (IOException e) {
-            e.printStackTrace();
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
     }
 
     /**
-     * Carga un libro antes guardado desde un archivo.
+     * Reemplaza el archivo del diario por una instantanea del libro.
+     */
+    private CompletableFuture<Void> rebase() {
+        try {
+            snapshot = WorkbookSnapshot.capture(controller.getWorkbook(), snapshot);
+        } catch (UncheckedIOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        boolean imported = fullWriteNeeded;
+        fullWriteNeeded = false;
+        CompletableFuture<Void> written = journal.rebase(snapshot, !imported);
+        if (imported) {
+            // Si no se pudo, el siguiente guardado lo vuelve a intentar
+            written = written.whenComplete((done, error) -> {
+                if (error != null) fullWriteNeeded = true;
+            });
+        }
+        return written;
+    }
+
+    /**
+     * Escribe el libro completo en un archivo, con un diario nuevo. El libro
+     * y el diario que ya estuvieran en ese archivo siguen valiendo hasta que
+     * el libro nuevo esta en disco.
+     */
+    private CompletableFuture<Void> writeFully(Path file) {
+        retireJournal();
+        awaitClosing(file);
+        fullWriteNeeded = false;
+        try {
+            snapshot = WorkbookSnapshot.capture(controller.getWorkbook(), snapshot);
+            journal = EditJournal.start(file, EditJournal.newGeneration());
+            return journal.writeBase(snapshot);
+        } catch (IOException | UncheckedIOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Carga un libro antes guardado desde un archivo y le aplica los cambios
+     * de su diario. Los archivos del formato anterior (serializacion de Java)
+     * se siguen pudiendo abrir.
      * @param filename Ruta del archivo donde se leera el libro.
      */
     public void loadWorkbook(String filename) {
+        Path file = Paths.get(filename).toAbsolutePath().normalize();
+        // Para volver a abrir el mismo archivo hay que esperar a su diario
+        if (journal != null && journal.getBase().equals(file)) {
+            closeJournal();
+        } else {
+            retireJournal();
+        }
+        awaitClosing(file);
+        snapshot = null;
+        fullWriteNeeded = false;
+        try {
+            if (WorkbookReader.isBinary(file)) {
+                long generation = WorkbookReader.readGeneration(file);
+                Workbook workbook = WorkbookReader.read(file);
+                journal = EditJournal.open(file, generation, workbook);
+                controller.setWorkbook(workbook);
+            } else {
+                loadSerializedWorkbook(filename);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Carga en paralelo todas las hojas del libro que siguen sin cargar,
+     * una hoja por hilo. No registra sus formulas. Las hojas que no se
+     * pueden leer se dejan sin cargar.
+     * @return Hojas que se cargaron.
+     */
+    public List<Sheet> loadAllSheets() {
+        List<Sheet> pending = new ArrayList<>();
+        for (Sheet sheet : controller.getWorkbook().getSheets()) {
+            if (!sheet.isLoaded() && !sheet.isLoadFailed()) pending.add(sheet);
+        }
+        List<Boolean> loaded = ParallelSheets.map(pending, sheet -> {
+            try {
+                return sheet.preload();
+            } catch (SheetLoadException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+        List<Sheet> result = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            if (loaded.get(i)) result.add(pending.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Lee solo un rango de filas de una hoja de un libro guardado, sin
+     * abrir el libro: solo se descomprimen los bloques de esas filas. Sirve
+     * para consultar libros archivados. Las formulas no se calculan.
+     * @param filename Ruta del libro.
+     * @param sheetName Nombre de la hoja.
+     * @param firstRow Primera fila.
+     * @param lastRow Ultima fila.
+     * @return Hoja con las celdas de esas filas, o null si no existe la hoja.
+     * @throws IOException Si el archivo no se puede leer o no es un libro.
+     */
+    public Sheet readSheetRows(String filename, String sheetName, int firstRow, int lastRow) throws IOException {
+        Workbook archived = WorkbookReader.read(Paths.get(filename));
+        Sheet sheet = archived.getSheet(sheetName);
+        if (sheet == null || !(sheet.getSource() instanceof SegmentSource)) return null;
+        Sheet rows = new Sheet(sheet.getName());
+        try {
+            ((SegmentSource) sheet.getSource()).loadRows(firstRow, lastRow, rows.getMatrix());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows;
+    }
+
+    /**
+     * Lee un archivo CSV o TSV en una hoja nueva, que todavia no se agrega
+     * al libro. No toca el libro, asi que se puede llamar desde otro hilo.
+     * @param filename Ruta del archivo.
+     * @param delimiter Separador de campos (',' o '\t').
+     * @param sheetName Nombre de la hoja nueva.
+     * @param progress Recibe la fraccion leida del archivo (de 0 a 1).
+     * @return Hoja con el contenido del archivo.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    public Sheet importDelimited(String filename, char delimiter, String sheetName, DoubleConsumer progress)
+            throws IOException {
+        Sheet sheet = new Sheet(sheetName);
+        DelimitedText.read(Paths.get(filename), delimiter, sheet.getMatrix(), progress);
+        return sheet;
+    }
+
+    /**
+     * Escribe una hoja como CSV o TSV. Las formulas se escriben con su
+     * resultado. Se puede llamar desde otro hilo mientras el libro se sigue
+     * editando.
+     * @param sheet Contenido congelado de la hoja (ver {@link OrthogonalMatrix#freeze()}).
+     * @param filename Ruta del archivo.
+     * @param delimiter Separador de campos (',' o '\t').
+     * @param progress Recibe la fraccion de filas escritas (de 0 a 1).
+     * @throws IOException Si no se puede escribir el archivo.
+     */
+    public void exportDelimited(FrozenMatrix sheet, String filename, char delimiter, DoubleConsumer progress)
+            throws IOException {
+        DelimitedText.write(sheet, Paths.get(filename), delimiter, progress);
+    }
+
+    /**
+     * Anota que el libro recibio una hoja completa (por ejemplo importada),
+     * que no cabe en el diario: el siguiente guardado escribe el libro completo.
+     */
+    public void recordSheetImported() {
+        fullWriteNeeded = true;
+    }
+
+    /**
+     * Anota en el diario el cambio de una celda.
+     * @param sheet Indice de la hoja.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     * @param value Valor o formula escrita.
+     */
+    public void recordCellChange(int sheet, int row, int col, String value) {
+        if (journal == null) return;
+        try {
+            journal.appendSetCell(sheet, row, col, value);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Sin diario, el siguiente guardado escribe el libro completo
+            retireJournal();
+        }
+    }
+
+    /**
+     * Anota en el diario una hoja nueva.
+     * @param name Nombre de la hoja.
+     */
+    public void recordSheetAdded(String name) {
+        if (journal == null) return;
+        try {
+            journal.appendAddSheet(name);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Sin diario, el siguiente guardado escribe el libro completo
+            retireJournal();
+        }
+    }
+
+    /**
+     * Anota en el diario el cambio de nombre de una hoja.
+     * @param index Indice de la hoja.
+     * @param name Nombre nuevo.
+     */
+    public void recordSheetRenamed(int index, String name) {
+        if (journal == null) return;
+        try {
+            journal.appendRenameSheet(index, name);
+        } catch (IOException e) {
+            e.printStackTrace();
+            retireJournal();
+        }
+    }
+
+    /**
+     * Anota en el diario que una hoja cambio de posicion.
+     * @param from Indice anterior.
+     * @param to Indice nuevo.
+     */
+    public void recordSheetMoved(int from, int to) {
+        if (journal == null) return;
+        try {
+            journal.appendMoveSheet(from, to);
+        } catch (IOException e) {
+            e.printStackTrace();
+            retireJournal();
+        }
+    }
+
+    /**
+     * Anota en el diario que se quito una hoja.
+     * @param index Indice de la hoja.
+     */
+    public void recordSheetRemoved(int index) {
+        if (journal == null) return;
+        try {
+            journal.appendRemoveSheet(index);
+        } catch (IOException e) {
+            e.printStackTrace();
+            retireJournal();
+        }
+    }
+
+    /**
+     * Suelta el diario del archivo abierto sin esperar a que termine de
+     * escribir su libro (ver {@link EditJournal#closeAsync()}), para no
+     * detener el hilo que edita.
+     */
+    private void retireJournal() {
+        if (journal == null) return;
+        Path base = journal.getBase();
+        CompletableFuture<Void> closed = journal.closeAsync();
+        journal = null;
+        if (closed.isDone()) {
+            closed.exceptionally(error -> {
+                error.printStackTrace();
+                return null;
+            });
+            return;
+        }
+        closing.put(base, closed);
+        closed.whenComplete((done, error) -> {
+            closing.remove(base, closed);
+            if (error != null) error.printStackTrace();
+        });
+    }
+
+    /**
+     * Espera a que un diario soltado termine de escribir el libro de un
+     * archivo antes de leerlo o de empezar otro diario en el. Solo pasa si
+     * se vuelve a usar el archivo mientras se escribe.
+     */
+    private void awaitClosing(Path file) {
+        CompletableFuture<Void> closed = closing.get(file);
+        if (closed == null) return;
+        try {
+            closed.join();
+        } catch (CompletionException e) {
+            // Ya se reporto al soltar el diario
+        }
+    }
+
+    /**
+     * Cierra el diario del archivo abierto, con sus cambios en disco. Espera
+     * a que termine la escritura en curso de su libro.
+     */
+    public void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal = null;
+    }
+
+    /**
+     * Regresa el archivo temporal donde el libro guarda las hojas que saca
+     * de memoria.
+     * @return Spill de las hojas.
+     */
+    public SheetSpill getSheetSpill() {
+        return spill;
+    }
+
+    /**
+     * Cierra y borra el archivo de hojas fuera de memoria.
+     */
+    public void closeSpill() {
+        spill.close();
+    }
+
+    /**
+     * Carga un libro guardado con el formato anterior.
+     * @param filename Ruta del archivo.
+     */
+    private void loadSerializedWorkbook(String filename) {
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
             Workbook workbook = (Workbook) ois.readObject();
             controller.setWorkbook(workbook);
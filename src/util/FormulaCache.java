@@ -0,0 +1,68 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache de formulas interpretadas del libro, por texto de la formula tal
+ * como se escribio. Las celdas con la misma formula comparten la misma
+ * {@link CompiledFormula}.
+ * Guarda como maximo {@code MAX_ENTRIES} formulas; al pasarse descarta la
+ * que se uso hace mas tiempo.
+ * Sus metodos estan sincronizados porque las formulas de varias hojas se
+ * interpretan en paralelo.
+ * @author maryori
+ */
+public class FormulaCache {
+    private static final int MAX_ENTRIES = 10_000;
+    private final Map<String, CompiledFormula> formulas;
+
+    /**
+     * Constructor que crea la cache vacia.
+     */
+    public FormulaCache() {
+        this.formulas = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledFormula> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Busca una formula ya interpretada.
+     * @param formula Texto de la formula tal como se escribio.
+     * @return Formula interpretada o null si no esta en la cache.
+     */
+    public synchronized CompiledFormula get(String formula) {
+        return formulas.get(formula);
+    }
+
+    /**
+     * Guarda una formula interpretada.
+     * @param formula Texto de la formula tal como se escribio.
+     * @param compiled Formula interpretada.
+     */
+    public synchronized void put(String formula, CompiledFormula compiled) {
+        formulas.put(formula, compiled);
+    }
+
+    /**
+     * Vacia la cache (por ejemplo al cargar otro libro).
+     */
+    public synchronized void clear() {
+        formulas.clear();
+    }
+
+    /**
+     * Regresa la cantidad de formulas guardadas.
+     * @return Numero de formulas en la cache.
+     */
+    public synchronized int size() {
+        return formulas.size();
+    }
+}
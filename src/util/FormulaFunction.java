@@ -0,0 +1,46 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+/**
+ * Funciones que se pueden usar en una formula.
+ * <ul>
+ *   <li>{@code SUMA} – Suma los numeros referenciados.</li>
+ *   <li>{@code MULTIPLICACION} – Multiplica los numeros referenciados.</li>
+ * </ul>
+ * @author maryori
+ */
+public enum FormulaFunction {
+    SUMA,
+    MULTIPLICACION;
+
+    /**
+     * Valor inicial de la operacion.
+     * @return 0 para la suma y 1 para la multiplicacion.
+     */
+    public double identity() {
+        return this == SUMA ? 0 : 1;
+    }
+
+    /**
+     * Combina el acumulado con un numero nuevo.
+     * @param accumulated Resultado acumulado.
+     * @param number Numero nuevo.
+     * @return Nuevo acumulado.
+     */
+    public double combine(double accumulated, double number) {
+        return this == SUMA ? accumulated + number : accumulated * number;
+    }
+
+    /**
+     * Resultado cuando no se encontro ningun numero.
+     * @param accumulated Resultado acumulado.
+     * @param found true si se encontro al menos un numero.
+     * @return El acumulado, o 0 si la multiplicacion no encontro numeros.
+     */
+    public double result(double accumulated, boolean found) {
+        return this == MULTIPLICACION && !found ? 0.0 : accumulated;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Lector de una sola pasada para el texto de una formula (sin el signo =).
+ * Lee caracter por caracter sobre el texto original: compara los nombres
+ * de funcion sin distinguir mayusculas y sin copiar el texto, y convierte
+ * los numeros en el mismo recorrido. Lo unico que crea es la formula
+ * interpretada (y el nombre de la hoja en los rangos).
+ *
+ * Formas aceptadas (los espacios entre partes se ignoran):
+ * <pre>
+ *   funcion((f,c),(f,c),...)          celdas de la hoja de la formula
+ *   funcion(Hoja, (f1,c1), (f2,c2))   rango de una hoja
+ * </pre>
+ * donde funcion es suma, multiplicacion o mult.
+ * @author maryori
+ */
+class FormulaLexer {
+    private final String text;
+    private final int length;
+    private int pos;
+
+    private FormulaLexer(String text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    /**
+     * Interpreta el texto de una formula.
+     * @param text Contenido de la formula sin el signo =.
+     * @return Formula interpretada.
+     * @throws FormulaSyntaxException Si el texto no es una formula valida.
+     */
+    static CompiledFormula parse(String text) throws FormulaSyntaxException {
+        return new FormulaLexer(text).formula();
+    }
+
+    private CompiledFormula formula() throws FormulaSyntaxException {
+        skipSpaces();
+        FormulaFunction function = function();
+        expect('(');
+        skipSpaces();
+
+        CompiledFormula result;
+        if (startsCoordinate()) {
+            result = cellList(function);
+        } else {
+            result = range(function);
+        }
+        expect(')');
+        skipSpaces();
+        if (pos < length) throw error("sobra texto después de la fórmula");
+        return result;
+    }
+
+    /**
+     * Lee el nombre de la funcion.
+     */
+    private FormulaFunction function() throws FormulaSyntaxException {
+        // multiplicacion antes que mult para no cortar el nombre largo
+        if (matchWord("suma")) return FormulaFunction.SUMA;
+        if (matchWord("multiplicacion")) return FormulaFunction.MULTIPLICACION;
+        if (matchWord("mult")) return FormulaFunction.MULTIPLICACION;
+        throw error("función desconocida");
+    }
+
+    /**
+     * Lee (f,c),(f,c),... hasta antes del parentesis final.
+     */
+    private CompiledFormula cellList(FormulaFunction function) throws FormulaSyntaxException {
+        int[] rows = new int[4];
+        int[] cols = new int[4];
+        int count = 0;
+        do {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+                cols = Arrays.copyOf(cols, count * 2);
+            }
+            expect('(');
+            rows[count] = coordinate();
+            expect(',');
+            cols[count] = coordinate();
+            expect(')');
+            count++;
+            skipSpaces();
+        } while (accept(','));
+        return new CellListFormula(function, Arrays.copyOf(rows, count), Arrays.copyOf(cols, count));
+    }
+
+    /**
+     * Lee Hoja, (f1,c1), (f2,c2) hasta antes del parentesis final. El nombre
+     * de la hoja puede ir entre parentesis.
+     */
+    private CompiledFormula range(FormulaFunction function) throws FormulaSyntaxException {
+        int start = pos;
+        while (pos < length && text.charAt(pos) != ',') pos++;
+        if (pos == length) throw error("se esperaba ','");
+        int end = pos;
+        while (start < end && (text.charAt(start) == '(' || Character.isWhitespace(text.charAt(start)))) start++;
+        while (end > start && (text.charAt(end - 1) == ')' || Character.isWhitespace(text.charAt(end - 1)))) end--;
+        if (start == end) throw error("falta el nombre de la hoja");
+        String sheetName = text.substring(start, end);
+
+        expect(',');
+        expect('(');
+        int row1 = coordinate();
+        expect(',');
+        int col1 = coordinate();
+        expect(')');
+        expect(',');
+        expect('(');
+        int row2 = coordinate();
+        expect(',');
+        int col2 = coordinate();
+        expect(')');
+        return new RangeFormula(function, sheetName, start, row1, col1, row2, col2);
+    }
+
+    /**
+     * Lee una coordenada escrita por el usuario (desde 1) y la regresa en base 0.
+     */
+    private int coordinate() throws FormulaSyntaxException {
+        skipSpaces();
+        int start = pos;
+        long value = 0;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                pos = start;
+                throw error("número demasiado grande");
+            }
+            pos++;
+        }
+        if (pos == start) throw error("se esperaba un número");
+        return (int) value - 1;
+    }
+
+    /**
+     * Compara una palabra sin distinguir mayusculas y avanza si coincide.
+     */
+    private boolean matchWord(String word) {
+        if (!text.regionMatches(true, pos, word, 0, word.length())) return false;
+        pos += word.length();
+        return true;
+    }
+
+    private void expect(char expected) throws FormulaSyntaxException {
+        skipSpaces();
+        if (pos >= length || text.charAt(pos) != expected) {
+            throw error("se esperaba '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private boolean accept(char expected) {
+        skipSpaces();
+        if (pos < length && text.charAt(pos) == expected) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indica si en la posicion actual empieza una coordenada "(numero",
+     * sin avanzar. Asi una hoja escrita entre parentesis se lee como rango.
+     */
+    private boolean startsCoordinate() {
+        if (pos >= length || text.charAt(pos) != '(') return false;
+        int i = pos + 1;
+        while (i < length && Character.isWhitespace(text.charAt(i))) i++;
+        return i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9';
+    }
+
+    private void skipSpaces() {
+        while (pos < length && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    /**
+     * Crea el error en la posicion actual (contando el signo =).
+     */
+    private FormulaSyntaxException error(String message) {
+        return new FormulaSyntaxException(message, pos + 2);
+    }
+}
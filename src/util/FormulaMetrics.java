@@ -0,0 +1,225 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metricas del motor de formulas: evaluaciones, celdas leidas, tiempos y
+ * errores por funcion, e interpretaciones. Los contadores son
+ * {@link LongAdder}, asi que se pueden sumar desde los hilos del recalculo
+ * en paralelo sin bloquearse.
+ *
+ * Hay una sola instancia por proceso, publicada por JMX como
+ * {@code maxcell:type=FormulaMetrics} (se puede ver con jconsole).
+ *
+ * El rastreo escribe una linea por formula evaluada (no por celda). Se
+ * activa con -Dmaxcell.formula.trace=true o desde JMX; apagado solo cuesta
+ * revisar un booleano por evaluacion.
+ * @author maryori
+ */
+public class FormulaMetrics implements FormulaMetricsMBean {
+    private static final String OBJECT_NAME = "maxcell:type=FormulaMetrics";
+
+    private static final int BUCKETS = 64;
+    // Una posicion por funcion y una mas para las formulas mal escritas
+    private static final FormulaFunction[] FUNCTIONS = FormulaFunction.values();
+    private static final int INVALID = FUNCTIONS.length;
+    private static final int SLOTS = FUNCTIONS.length + 1;
+    private static final FormulaMetrics INSTANCE = register(new FormulaMetrics());
+
+    private final LongAdder[] evaluations = adders(SLOTS);
+    private final LongAdder[] cellsScanned = adders(SLOTS);
+    private final LongAdder[] evalNanos = adders(SLOTS);
+    private final LongAdder[] errors = adders(SLOTS);
+    private final LongAdder[][] evalHistogram = new LongAdder[SLOTS][];
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder[] parseHistogram = adders(BUCKETS);
+
+    private volatile boolean tracing = Boolean.getBoolean("maxcell.formula.trace");
+
+    private FormulaMetrics() {
+        for (int i = 0; i < SLOTS; i++) {
+            evalHistogram[i] = adders(BUCKETS);
+        }
+    }
+
+    /**
+     * Regresa las metricas del proceso.
+     * @return Instancia unica.
+     */
+    public static FormulaMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registra una evaluacion.
+     * @param function Funcion evaluada (null si la formula esta mal escrita).
+     * @param nanos Duracion en nanosegundos.
+     * @param error true si el resultado no fue un numero.
+     */
+    void recordEvaluation(FormulaFunction function, long nanos, boolean error) {
+        int slot = slot(function);
+        evaluations[slot].increment();
+        evalNanos[slot].add(nanos);
+        evalHistogram[slot][bucket(nanos)].increment();
+        if (error) errors[slot].increment();
+    }
+
+    /**
+     * Suma las celdas que leyo una evaluacion.
+     * @param function Funcion evaluada.
+     * @param cells Celdas leidas.
+     */
+    void addCellsScanned(FormulaFunction function, long cells) {
+        cellsScanned[slot(function)].add(cells);
+    }
+
+    /**
+     * Registra la interpretacion del texto de una formula.
+     * @param nanos Duracion en nanosegundos.
+     * @param error true si la formula esta mal escrita.
+     */
+    void recordParse(long nanos, boolean error) {
+        parses.increment();
+        parseNanos.add(nanos);
+        parseHistogram[bucket(nanos)].increment();
+        if (error) parseErrors.increment();
+    }
+
+    @Override
+    public String[] getFunctions() {
+        String[] names = new String[SLOTS];
+        for (int i = 0; i < FUNCTIONS.length; i++) {
+            names[i] = FUNCTIONS[i].name();
+        }
+        names[INVALID] = "INVALIDA";
+        return names;
+    }
+
+    @Override
+    public long[] getEvaluations() {
+        return sums(evaluations);
+    }
+
+    @Override
+    public long[] getCellsScanned() {
+        return sums(cellsScanned);
+    }
+
+    @Override
+    public long[] getEvalTimeNanos() {
+        return sums(evalNanos);
+    }
+
+    @Override
+    public long[] getErrors() {
+        return sums(errors);
+    }
+
+    @Override
+    public long getParseCount() {
+        return parses.sum();
+    }
+
+    @Override
+    public long getParseTimeNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getParseErrors() {
+        return parseErrors.sum();
+    }
+
+    @Override
+    public long[] getParseTimeHistogram() {
+        return sums(parseHistogram);
+    }
+
+    @Override
+    public long[] getEvalTimeHistogram(String function) {
+        String[] names = getFunctions();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(function.trim())) return sums(evalHistogram[i]);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    @Override
+    public void setTracing(boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            evaluations[i].reset();
+            cellsScanned[i].reset();
+            evalNanos[i].reset();
+            errors[i].reset();
+            for (LongAdder adder : evalHistogram[i]) adder.reset();
+        }
+        parses.reset();
+        parseNanos.reset();
+        parseErrors.reset();
+        for (LongAdder adder : parseHistogram) adder.reset();
+    }
+
+    private static int slot(FormulaFunction function) {
+        return function != null ? function.ordinal() : INVALID;
+    }
+
+    /**
+     * Posicion del histograma: potencia de dos de la duracion.
+     */
+    private static int bucket(long nanos) {
+        return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] values = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            values[i] = adders[i].sum();
+        }
+        return values;
+    }
+
+    /**
+     * Publica las metricas por JMX. Si no se puede (por ejemplo si ya hay
+     * otra instancia registrada) las metricas siguen funcionando sin JMX.
+     */
+    private static FormulaMetrics register(FormulaMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.out.println("No se pudieron publicar las métricas por JMX: " + e.getMessage());
+        }
+        return metrics;
+    }
+}
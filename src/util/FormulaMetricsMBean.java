@@ -0,0 +1,58 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+/**
+ * Interfaz JMX de las metricas del motor de formulas
+ * ({@code maxcell:type=FormulaMetrics}). Los arreglos por funcion siguen el
+ * orden de {@link #getFunctions()}; la ultima posicion es para las formulas
+ * mal escritas.
+ * @author maryori
+ */
+public interface FormulaMetricsMBean {
+    /** @return Nombres de las funciones, en el orden de los arreglos. */
+    String[] getFunctions();
+
+    /** @return Evaluaciones por funcion. */
+    long[] getEvaluations();
+
+    /** @return Celdas leidas por funcion. */
+    long[] getCellsScanned();
+
+    /** @return Tiempo total de evaluacion por funcion, en nanosegundos. */
+    long[] getEvalTimeNanos();
+
+    /** @return Evaluaciones con resultado de error por funcion. */
+    long[] getErrors();
+
+    /** @return Formulas interpretadas (sin contar las de la cache). */
+    long getParseCount();
+
+    /** @return Tiempo total de interpretacion, en nanosegundos. */
+    long getParseTimeNanos();
+
+    /** @return Formulas mal escritas. */
+    long getParseErrors();
+
+    /** @return Histograma del tiempo de interpretacion (ver {@link #getEvalTimeHistogram}). */
+    long[] getParseTimeHistogram();
+
+    /**
+     * Histograma del tiempo de evaluacion de una funcion. La posicion i
+     * cuenta las evaluaciones que tardaron entre 2^i y 2^(i+1) nanosegundos.
+     * @param function Nombre de la funcion (por ejemplo SUMA).
+     * @return Cuentas por potencia de dos, o null si la funcion no existe.
+     */
+    long[] getEvalTimeHistogram(String function);
+
+    /** @return true si se escribe una linea por cada formula evaluada. */
+    boolean isTracing();
+
+    /** @param tracing true para escribir una linea por cada formula evaluada. */
+    void setTracing(boolean tracing);
+
+    /** Pone todos los contadores en cero. */
+    void reset();
+}
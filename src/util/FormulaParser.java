@@ -6,7 +6,17 @@
 /**
  * Clase encargada de interpretar y procesar formulas en una celda de la hoja.
  * Soporta suma y multiplicacion con coordenadas individuales y rangos.
- * 
+ *
+ * Cada texto de formula se interpreta una sola vez: el resultado es una
+ * {@link CompiledFormula} que se guarda en la celda y en la cache del libro,
+ * y que se evalua sin volver a leer el texto.
+ *
+ * Tambien mantiene el grafo de dependencias del libro: cuando cambia una
+ * celda se recalculan solo las formulas que dependen de ella, por niveles
+ * y en paralelo cuando hay muchas (ver {@link RecalcScheduler}).
+ *
+ * Cada evaluacion e interpretacion se cuenta en {@link FormulaMetrics}.
+ *
  * Las coordenadas son 1 indexadas cuando las escribe el usuario, pero el programa
  * las maneja con base 0.
  * @author maryori
@@ -14,15 +24,29 @@
 package util;
 
 import controller.SheetController;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import model.Cell;
+import model.CellType;
+import model.OrthogonalMatrix;
 import model.Sheet;
+import model.Workbook;
 
 public class FormulaParser {
+    private static final String CYCLE_ERROR = "#CICLO";
+    private static final String SYNTAX_ERROR = "Fórmula mal escrita: ";
+
     private SheetController controller;
+    private final FormulaCache cache;
+    private final DependencyGraph graph;
+    private final RecalcScheduler scheduler;
+    private final FormulaMetrics metrics = FormulaMetrics.getInstance();
+    // Hojas que se cargaron y faltan por registrar (pueden llegar desde
+    // los hilos del recalculo en paralelo)
+    private final Queue<Sheet> loadedSheets = new ConcurrentLinkedQueue<>();
+    private volatile boolean recalculating;
 
     /**
      * Constructor del parser que recibe el controlador para acceder a la hoja y matriz.
@@ -30,6 +54,9 @@ public class FormulaParser {
      */
     public FormulaParser(SheetController controller) {
         this.controller = controller;
+        this.cache = new FormulaCache();
+        this.graph = new DependencyGraph();
+        this.scheduler = new RecalcScheduler(this);
     }
 
     /**
@@ -40,128 +67,256 @@ public class FormulaParser {
      * @return Resultado evaluado de la formula o error.
      */
     public Object parseFormula(String formula, int currentRow, int currentCol) {
-        formula = formula.trim().toLowerCase();
+        return evaluate(compile(formula), getCurrentSheet(), currentRow, currentCol);
+    }
 
-        if (formula.startsWith("suma(")) {
-            return parseSumFormula(formula, currentRow, currentCol);
-        } else if (formula.startsWith("multiplicacion(") || formula.startsWith("mult(")) {
-            return parseMultiplicationFormula(formula, currentRow, currentCol);
+    /**
+     * Obtiene la formula interpretada para un texto, usando la cache del libro.
+     * @param formula Contenido de la formula sin el signo =.
+     * @return Formula interpretada (nunca null; si es invalida evalua al error).
+     */
+    public CompiledFormula compile(String formula) {
+        CompiledFormula compiled = cache.get(formula);
+        if (compiled == null) {
+            compiled = compileText(formula);
+            cache.put(formula, compiled);
         }
-        return "Fórmula no reconocida";
+        return compiled;
     }
 
-
     /**
-     * Interpreta y evalua la formula de la suma.
-     * @param formula Contenido de la formula.
+     * Evalua una formula ya interpretada.
+     * @param formula Formula interpretada.
+     * @param sheet Hoja de la celda con la formula (null para la hoja actual).
      * @param currentRow Fila de la celda actual.
      * @param currentCol Columna de la celda actual.
      * @return Resultado evaluado de la formula o error.
      */
-    public double parseSumFormula(String formula, int currentRow, int currentCol) {
-        try {
-            String paramsStr = formula.substring(5, formula.length() - 1).trim();
+    public Object evaluate(CompiledFormula formula, Sheet sheet, int currentRow, int currentCol) {
+        if (sheet == null) sheet = getCurrentSheet();
+        long start = System.nanoTime();
+        Object result = formula.evaluate(this, sheet, currentRow, currentCol);
+        long nanos = System.nanoTime() - start;
+        metrics.recordEvaluation(formula.getFunction(), nanos, !(result instanceof Double));
+        if (metrics.isTracing()) {
+            trace(formula, sheet, currentRow, currentCol, result, nanos);
+        }
+        return result;
+    }
 
-            // Caso 1: Sumar celdas individuales (=suma((1,1),(2,2)))
-            if (paramsStr.contains("),(")) {
-                String[] cellParts = paramsStr.split(",\\s*(?=\\()");
-                double sum = 0;
-                Sheet sheet = controller.getWorkbook().getCurrentSheet();
+    /**
+     * Escribe una linea de rastreo por formula evaluada.
+     */
+    private static void trace(CompiledFormula formula, Sheet sheet, int row, int col, Object result, long nanos) {
+        String function = formula.getFunction() != null ? formula.getFunction().name() : "INVALIDA";
+        System.out.println("[fórmula] " + sheet.getName() + " (" + (row + 1) + "," + (col + 1) + ") "
+            + function + " = " + result + " en " + nanos + " ns");
+    }
 
-                for (String part : cellParts) {
-                    String coordStr = part.replaceAll("[()]", "").trim();
-                    int[] coords = parseCellCoordinates(coordStr);
-                    
-                    if (coords[0] < 0 || coords[1] < 0 || 
-                        coords[0] >= sheet.getMatrix().getRows() || 
-                        coords[1] >= sheet.getMatrix().getCols()) {
-                        continue;
-                    }
+    /**
+     * Avisa que una celda cambio: actualiza sus precedentes en el grafo (si
+     * tiene formula) y recalcula, en orden, solo las formulas que dependen
+     * de ella de forma directa o indirecta.
+     * @param sheet Hoja de la celda.
+     * @param row Fila de la celda.
+     * @param col Columna de la celda.
+     */
+    public void cellChanged(Sheet sheet, int row, int col) {
+        CellRef ref = new CellRef(sheet, row, col);
+        Cell cell = sheet.getMatrix().getCell(row, col);
+        if (cell != null && cell.getType() == CellType.FORMULA && cell.getCompiledFormula() != null) {
+            graph.register(ref, cell.getCompiledFormula());
+        } else {
+            graph.unregister(ref);
+        }
+        recalculate(graph.plan(List.of(ref), false));
+    }
 
+    /**
+     * Avisa que una hoja se acaba de cargar de su archivo. Sus formulas se
+     * registran y se calculan enseguida; si la hoja se cargo en medio de un
+     * recalculo (porque una formula de otra hoja la uso), se procesan al
+     * terminar ese recalculo, y las formulas que la usan se vuelven a
+     * calcular con sus valores.
+     * @param sheet Hoja cargada.
+     */
+    public void sheetLoaded(Sheet sheet) {
+        loadedSheets.add(sheet);
+        if (!recalculating) {
+            recalculate(DependencyGraph.RecalcPlan.EMPTY);
+        }
+    }
 
-                    Cell cell = sheet.getMatrix().getCell(coords[0], coords[1]);
-                    
-                    if (cell != null && cell.getContent() != null && !cell.getContent().isEmpty()) {
-                        try {
-                            sum += Double.parseDouble(cell.getContent());
-                        } catch (NumberFormatException e) {
-                        }
-                    }
-                }
-                return sum;
-            }
-            // Caso 2: Sumar un rango clásico (=suma(Hoja1, (1,1), (5,5))
-            else {
-                // Buscamos los tres componentes: hoja, (x1,y1), (x2,y2)
-                Pattern pattern = Pattern.compile("^(.+?),\\s*\\((\\d+),(\\d+)\\),\\s*\\((\\d+),(\\d+)\\)$");
-                Matcher matcher = pattern.matcher(paramsStr);
+    /**
+     * Avisa que una hoja se saco de memoria: sus formulas salen del grafo y
+     * se vuelven a registrar cuando la hoja se cargue otra vez. Las formulas
+     * de otras hojas que la usan se quedan con sus valores.
+     * @param sheet Hoja que se saco de memoria.
+     */
+    public void sheetUnloaded(Sheet sheet) {
+        graph.unregisterSheet(sheet);
+    }
 
-                if (!matcher.matches()) {
-                    System.out.println("Fórmula mal escrita o incompleta");
-                    return 0.0;
-                }
+    /**
+     * Avisa que se agrego una hoja al libro: las formulas que ya usaban su
+     * nombre (y daban 0 porque no existia) se recalculan.
+     * @param sheet Hoja agregada.
+     */
+    public void sheetAdded(Sheet sheet) {
+        recalculateUsers(sheet.getName());
+    }
 
-                String sheetName = matcher.group(1).trim().replaceAll("^\\(*|\\)*$", "");
-                int row1 = Integer.parseInt(matcher.group(2)) - 1;
-                int col1 = Integer.parseInt(matcher.group(3)) - 1;
-                int row2 = Integer.parseInt(matcher.group(4)) - 1;
-                int col2 = Integer.parseInt(matcher.group(5)) - 1;
+    /**
+     * Avisa que se quito una hoja del libro: sus formulas salen del grafo y
+     * las formulas de otras hojas que la usaban se recalculan.
+     * @param sheet Hoja quitada.
+     */
+    public void sheetRemoved(Sheet sheet) {
+        graph.unregisterSheet(sheet);
+        recalculateUsers(sheet.getName());
+    }
 
+    /**
+     * Avisa que una hoja cambio de nombre. Las formulas registradas que la
+     * usaban con el nombre anterior se reescriben con el nombre nuevo (sin
+     * cambiar su valor), y se recalculan las que ya usaban el nombre nuevo.
+     * Las formulas de hojas sin cargar no estan en el grafo; quien llama
+     * debe cargarlas y volver a llamar a este metodo.
+     * @param oldName Nombre anterior.
+     * @param newName Nombre nuevo.
+     * @return Celdas cuya formula se reescribio.
+     */
+    public List<CellRef> sheetRenamed(String oldName, String newName) {
+        List<CellRef> users = new ArrayList<>();
+        graph.collectSheetDependents(oldName, users);
+        List<CellRef> rewritten = new ArrayList<>();
+        for (CellRef ref : users) {
+            OrthogonalMatrix matrix = ref.getSheet().getMatrix();
+            Cell cell = matrix.getCell(ref.getRow(), ref.getCol());
+            if (cell == null || !(cell.getCompiledFormula() instanceof RangeFormula)) continue;
+            RangeFormula range = (RangeFormula) cell.getCompiledFormula();
+            String text = range.withSheetName(cell.getFormula().substring(1), newName);
+            CompiledFormula compiled = compile(text);
+            matrix.rewriteFormula(ref.getRow(), ref.getCol(), "=" + text, compiled);
+            graph.register(ref, compiled);
+            rewritten.add(ref);
+        }
+        recalculateUsers(newName);
+        return rewritten;
+    }
 
-                System.out.println("Hoja: '" + sheetName + "'");
-                System.out.println("Rango fila: " + row1 + " a " + row2);
-                System.out.println("Rango col: " + col1 + " a " + col2);
-                Sheet sheet = controller.getSheetByName(sheetName);
-                if (sheet == null) {
-                    System.out.println("No se encontró la hoja: " + sheetName);
-                    return 0.0;
-                }
+    /**
+     * Recalcula las formulas que usan la hoja con un nombre.
+     */
+    private void recalculateUsers(String sheetName) {
+        List<CellRef> users = new ArrayList<>();
+        graph.collectSheetDependents(sheetName, users);
+        if (!users.isEmpty()) {
+            recalculate(graph.plan(users, true));
+        }
+    }
 
-                int maxRows = sheet.getMatrix().getRows();
-                int maxCols = sheet.getMatrix().getCols();
+    /**
+     * Vuelve a construir el grafo de dependencias de un libro completo y
+     * recalcula todas sus formulas en orden. Se usa despues de cargar un libro.
+     * @param workbook Libro cargado.
+     */
+    public void rebuild(Workbook workbook) {
+        graph.clear();
+        List<Sheet> loaded = new ArrayList<>();
+        for (Sheet sheet : workbook.getSheets()) {
+            // Las hojas sin cargar se registran cuando se cargan
+            if (sheet.isLoaded()) loaded.add(sheet);
+        }
+        recalculate(graph.plan(registerSheets(loaded), true));
+    }
 
-                System.out.println("Filas hoja: " + maxRows + ", Columnas hoja: " + maxCols);
-                
-                row1 = Math.max(0, row1);
-                col1 = Math.max(0, col1);
-                row2 = Math.min(maxRows - 1, row2);
-                col2 = Math.min(maxCols - 1, col2);
+    /**
+     * Avisa que varias hojas se acaban de cargar juntas (ver
+     * {@link #sheetLoaded}); se registran y se calculan en un solo recalculo.
+     * @param sheets Hojas cargadas.
+     */
+    public void sheetsLoaded(List<Sheet> sheets) {
+        loadedSheets.addAll(sheets);
+        if (!recalculating) {
+            recalculate(DependencyGraph.RecalcPlan.EMPTY);
+        }
+    }
 
-                double sum = 0;
-                for (int row = row1; row <= row2; row++) {
-                    for (int col = col1; col <= col2; col++) {
-                        Cell cell = sheet.getMatrix().getCell(row, col);
-                        String content = (cell != null) ? cell.getContent() : "null";
-                        System.out.println("Celda (" + row + "," + col + "): " + content);
-                        if (cell != null && cell.getContent() != null && !cell.getContent().isEmpty()) {
-                            try {
-                                sum += Double.parseDouble(cell.getContent());
-                            } catch (NumberFormatException e) {
-                                System.out.println("No es número: " + cell.getContent());
-                            }
-                        }
-                    }
+    /**
+     * Registra en el grafo todas las formulas de varias hojas. Las formulas
+     * de cada hoja se buscan e interpretan en paralelo, una hoja por hilo
+     * (ver {@link ParallelSheets}); el grafo se llena despues en este hilo.
+     * @param sheets Hojas a registrar.
+     * @return Celdas con formula de esas hojas.
+     */
+    private List<CellRef> registerSheets(List<Sheet> sheets) {
+        List<List<Cell>> cells = ParallelSheets.map(sheets, sheet -> {
+            List<Cell> found = new ArrayList<>();
+            sheet.getMatrix().scanRowMajor(0, 0, OrthogonalMatrix.MAX_ROWS - 1, OrthogonalMatrix.MAX_COLS - 1, cell -> {
+                if (cell.getType() != CellType.FORMULA) return;
+                if (cell.getCompiledFormula() == null) {
+                    cell.setCompiledFormula(compile(cell.getFormula().substring(1)));
                 }
-                System.out.println("Suma resultado: " + sum);
-                return sum;
+                found.add(cell);
+            });
+            return found;
+        });
+        List<CellRef> formulas = new ArrayList<>();
+        for (int i = 0; i < sheets.size(); i++) {
+            for (Cell cell : cells.get(i)) {
+                CellRef ref = new CellRef(sheets.get(i), cell.getY(), cell.getX());
+                graph.register(ref, cell.getCompiledFormula());
+                formulas.add(ref);
+            }
+        }
+        return formulas;
+    }
+
+    /**
+     * Recalcula las formulas de un plan nivel por nivel (en paralelo cuando
+     * el nivel es grande). Las formulas que quedaron en un ciclo muestran error.
+     * @param plan Plan de recalculo.
+     */
+    private void recalculate(DependencyGraph.RecalcPlan plan) {
+        if (recalculating) {
+            scheduler.run(plan, CYCLE_ERROR);
+            return;
+        }
+        recalculating = true;
+        try {
+            scheduler.run(plan, CYCLE_ERROR);
+            // Hojas cargadas durante el recalculo (pueden cargar otras)
+            while (!loadedSheets.isEmpty()) {
+                List<Sheet> sheets = new ArrayList<>();
+                Sheet sheet;
+                while ((sheet = loadedSheets.poll()) != null) sheets.add(sheet);
+                scheduler.run(graph.plan(registerSheets(sheets), true), CYCLE_ERROR);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return 0.0;
+        } finally {
+            recalculating = false;
         }
     }
-    
+
     /**
-     * Adapata la coordenada a base cero.
-     * @param coordStr Cadena de coordenada sinparentesis.
-     * @return Arreglo con fila y columna base 0.
+     * Vacia la cache de formulas y el grafo de dependencias. Se usa cuando
+     * se cambia de libro.
      */
-    private int[] parseCellCoordinates(String coordStr) {
-        String[] parts = coordStr.split(",");
-        return new int[]{
-            Integer.parseInt(parts[0].trim()) - 1, // Convertir a índice base 0
-            Integer.parseInt(parts[1].trim()) - 1
-        };
+    public void reset() {
+        cache.clear();
+        graph.clear();
+        loadedSheets.clear();
+    }
+
+    /**
+     * Interpreta y evalua la formula de la suma.
+     * @param formula Contenido de la formula.
+     * @param currentRow Fila de la celda actual.
+     * @param currentCol Columna de la celda actual.
+     * @return Resultado evaluado de la formula o error.
+     */
+    public double parseSumFormula(String formula, int currentRow, int currentCol) {
+        return toNumber(parseFormula(formula, currentRow, currentCol));
     }
 
     /**
@@ -172,115 +327,52 @@ public class FormulaParser {
      * @return Resultado evaluado de la formula o error.
      */
     public double parseMultiplicationFormula(String formula, int currentRow, int currentCol) {
-        try {
-            String paramsStr;
-
-            // Soportar =multiplicacion(...) o =mult(...)
-            if (formula.startsWith("multiplicacion(")) {
-                paramsStr = formula.substring("multiplicacion(".length(), formula.length() - 1).trim();
-            } else if (formula.startsWith("mult(")) {
-                paramsStr = formula.substring("mult(".length(), formula.length() - 1).trim();
-            } else {
-                return 0.0;
-            }
-
-            // Caso 1: Multiplicar celdas individuales (=mult((1,1),(2,2)))
-            if (paramsStr.contains("),(")) {
-                String[] cellParts = paramsStr.split(",\\s*(?=\\()");
-                double product = 1;
-                Sheet sheet = controller.getWorkbook().getCurrentSheet();
-                boolean found = false;
-
-                for (String part : cellParts) {
-                    String coordStr = part.replaceAll("[()]", "").trim();
-                    int[] coords = parseCellCoordinates(coordStr);
-
-                    if (coords[0] < 0 || coords[1] < 0 ||
-                        coords[0] >= sheet.getMatrix().getRows() ||
-                        coords[1] >= sheet.getMatrix().getCols()) {
-                        continue;
-                    }
-
-                    Cell cell = sheet.getMatrix().getCell(coords[0], coords[1]);
-                    if (cell != null && cell.getContent() != null && !cell.getContent().isEmpty()) {
-                        try {
-                            product *= Double.parseDouble(cell.getContent());
-                            found = true;
-                        } catch (NumberFormatException e) {
-                            System.out.println("No es número: " + cell.getContent());
-                        }
-                    }
-                }
-                return found ? product : 0.0;
-            }
-
-            // Caso 2: Multiplicar un rango clásico (=mult(Hoja1, (1,1), (5,5)))
-            else {
-                Pattern pattern = Pattern.compile("^(.+?),\\s*\\((\\d+),(\\d+)\\),\\s*\\((\\d+),(\\d+)\\)$");
-                Matcher matcher = pattern.matcher(paramsStr);
-
-                if (!matcher.matches()) {
-                    System.out.println("Fórmula mal escrita o incompleta");
-                    return 0.0;
-                }
-
-                String sheetName = matcher.group(1).trim().replaceAll("^\\(*|\\)*$", "");
-                int row1 = Integer.parseInt(matcher.group(2)) - 1;
-                int col1 = Integer.parseInt(matcher.group(3)) - 1;
-                int row2 = Integer.parseInt(matcher.group(4)) - 1;
-                int col2 = Integer.parseInt(matcher.group(5)) - 1;
-
-                System.out.println("Hoja: '" + sheetName + "'");
-                System.out.println("Rango fila: " + row1 + " a " + row2);
-                System.out.println("Rango col: " + col1 + " a " + col2);
-                Sheet sheet = controller.getSheetByName(sheetName);
-                if (sheet == null) {
-                    System.out.println("No se encontró la hoja: " + sheetName);
-                    return 0.0;
-                }
-
-                int maxRows = sheet.getMatrix().getRows();
-                int maxCols = sheet.getMatrix().getCols();
-                System.out.println("Filas hoja: " + maxRows + ", Columnas hoja: " + maxCols);
+        return toNumber(parseFormula(formula, currentRow, currentCol));
+    }
 
-                row1 = Math.max(0, row1);
-                col1 = Math.max(0, col1);
-                row2 = Math.min(maxRows - 1, row2);
-                col2 = Math.min(maxCols - 1, col2);
+    /**
+     * Interpreta el texto de una formula con {@link FormulaLexer}. Si esta
+     * mal escrita regresa una formula de error con el motivo y la posicion.
+     * @param formula Contenido de la formula sin el signo =.
+     * @return Formula interpretada.
+     */
+    private CompiledFormula compileText(String formula) {
+        long start = System.nanoTime();
+        try {
+            CompiledFormula compiled = FormulaLexer.parse(formula);
+            metrics.recordParse(System.nanoTime() - start, false);
+            return compiled;
+        } catch (FormulaSyntaxException e) {
+            metrics.recordParse(System.nanoTime() - start, true);
+            return new ErrorFormula(SYNTAX_ERROR + e.getMessage());
+        }
+    }
 
-                double product = 1;
-                boolean found = false;
-                for (int row = row1; row <= row2; row++) {
-                    for (int col = col1; col <= col2; col++) {
-                        Cell cell = sheet.getMatrix().getCell(row, col);
-                        String content = (cell != null) ? cell.getContent() : "null";
-                        System.out.println("Celda (" + row + "," + col + "): " + content);
-                        if (cell != null && cell.getContent() != null && !cell.getContent().isEmpty()) {
-                            try {
-                                product *= Double.parseDouble(cell.getContent());
-                                found = true;
-                            } catch (NumberFormatException e) {
-                                System.out.println("No es número: " + cell.getContent());
-                            }
-                        }
-                    }
-                }
-                System.out.println("Producto resultado: " + product);
-                return found ? product : 0.0;
-            }
+    private static double toNumber(Object result) {
+        return result instanceof Double ? (Double) result : 0.0;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return 0.0;
-        }
+    /**
+     * Regresa las metricas del motor de formulas.
+     * @return Metricas del proceso.
+     */
+    FormulaMetrics getMetrics() {
+        return metrics;
     }
 
+    /**
+     * Regresa la hoja activa del libro.
+     * @return Hoja actual.
+     */
+    Sheet getCurrentSheet() {
+        return controller.getWorkbook().getCurrentSheet();
+    }
 
-    /*
-    private int[] parseCellReference(String cellRef) {
-        cellRef = cellRef.replace("(", "").replace(")", "").trim();
-        String[] parts = cellRef.split(",");
-        return new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+    /**
+     * Regresa el libro con el que trabaja el parser.
+     * @return Libro actual.
+     */
+    Workbook getWorkbook() {
+        return controller.getWorkbook();
     }
-    */
 }
@@ -0,0 +1,34 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+/**
+ * Error de escritura en una formula, con la posicion donde se encontro.
+ * La posicion cuenta desde 1 e incluye el signo =, igual que el texto que
+ * escribe el usuario en la celda.
+ * @author maryori
+ */
+public class FormulaSyntaxException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final int position;
+
+    /**
+     * Constructor del error.
+     * @param message Descripcion de lo que se esperaba.
+     * @param position Posicion del error (desde 1, contando el =).
+     */
+    public FormulaSyntaxException(String message, int position) {
+        super(message + " (posición " + position + ")");
+        this.position = position;
+    }
+
+    /**
+     * Regresa la posicion donde se encontro el error.
+     * @return Posicion desde 1, contando el signo =.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
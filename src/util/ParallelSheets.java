@@ -0,0 +1,68 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Aplica una tarea a varias hojas en paralelo, una tarea por hoja (codificar
+ * al guardar, leer al abrir, interpretar sus formulas). Cada tarea solo toca
+ * su propia hoja; el hilo que llama espera a que terminen todas, asi que
+ * despues ve todo lo que hicieron.
+ *
+ * El numero de hilos se puede fijar con -Dmaxcell.io.threads
+ * (1 hace todo en el hilo que llama).
+ * @author maryori
+ */
+final class ParallelSheets {
+    private static final int PARALLELISM = Math.max(1, Integer.getInteger("maxcell.io.threads",
+        Runtime.getRuntime().availableProcessors()));
+    private static ForkJoinPool pool;
+
+    private ParallelSheets() {
+    }
+
+    /**
+     * Aplica una tarea a cada elemento y regresa sus resultados en el mismo orden.
+     * @param items Elementos (normalmente hojas o sus matrices).
+     * @param task Tarea a aplicar a cada uno.
+     * @return Resultado de cada elemento.
+     */
+    static <T, R> List<R> map(List<T> items, Function<T, R> task) {
+        List<R> results = new ArrayList<>(items.size());
+        if (PARALLELISM == 1 || items.size() < 2) {
+            for (T item : items) results.add(task.apply(item));
+            return results;
+        }
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(getPool().submit(() -> task.apply(item)));
+        }
+        try {
+            for (Future<R> future : futures) results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(PARALLELISM);
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import model.Cell;
+import model.CellVisitor;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.SheetLoadException;
+import model.Workbook;
+
+/**
+ * Formula que opera sobre un rango de una hoja,
+ * por ejemplo {@code =suma(Hoja 1, (1,1), (5,5))}.
+ * Las coordenadas ya vienen convertidas a base 0.
+ *
+ * La hoja se busca por nombre una sola vez y se guarda; se vuelve a buscar
+ * solo si cambio la lista de hojas del libro ({@link Workbook#getStructureVersion()}).
+ * @author maryori
+ */
+public class RangeFormula extends CompiledFormula {
+    // Resultado si la hoja del rango no se pudo cargar
+    private static final String LOAD_ERROR = "#HOJA";
+    private final String sheetName;
+    // Posicion del nombre de la hoja en el texto de la formula (sin el =)
+    private final int nameStart;
+    private final int row1, col1, row2, col2;
+    private volatile SheetBinding binding;
+
+    /**
+     * Constructor de la formula.
+     * @param function Funcion a aplicar.
+     * @param sheetName Nombre de la hoja del rango.
+     * @param nameStart Posicion del nombre en el texto de la formula.
+     * @param row1 Fila inicial (base 0).
+     * @param col1 Columna inicial (base 0).
+     * @param row2 Fila final (base 0).
+     * @param col2 Columna final (base 0).
+     */
+    public RangeFormula(FormulaFunction function, String sheetName, int nameStart,
+            int row1, int col1, int row2, int col2) {
+        super(function);
+        this.sheetName = sheetName;
+        this.nameStart = nameStart;
+        this.row1 = row1;
+        this.col1 = col1;
+        this.row2 = row2;
+        this.col2 = col2;
+    }
+
+    @Override
+    public Object evaluate(FormulaParser parser, Sheet owner, int currentRow, int currentCol) {
+        Sheet sheet = resolveSheet(parser.getWorkbook());
+        if (sheet == null) {
+            return 0.0;
+        }
+
+        OrthogonalMatrix matrix;
+        try {
+            matrix = sheet.getMatrix();
+        } catch (SheetLoadException e) {
+            return LOAD_ERROR;
+        }
+        int lastRow = Math.min(matrix.getRows() - 1, row2);
+        int lastCol = Math.min(matrix.getCols() - 1, col2);
+
+        // La suma usa el indice de sumas por bloque si la hoja lo tiene
+        if (getFunction() == FormulaFunction.SUMA && matrix.isRangeSumIndex()) {
+            return matrix.sumRange(row1, col1, lastRow, lastCol);
+        }
+
+        // Recorrer solo las celdas ocupadas del rango
+        RangeAccumulator accumulator = new RangeAccumulator(getFunction());
+        matrix.scanRowMajor(Math.max(0, row1), Math.max(0, col1), lastRow, lastCol, accumulator);
+        parser.getMetrics().addCellsScanned(getFunction(), accumulator.scanned);
+        return getFunction().result(accumulator.result, accumulator.found);
+    }
+
+    /**
+     * Regresa la hoja del rango, resuelta con el indice de hojas del libro.
+     * @param workbook Libro de la formula.
+     * @return Hoja o null si no existe una hoja con ese nombre.
+     */
+    Sheet resolveSheet(Workbook workbook) {
+        SheetBinding current = binding;
+        if (current == null || current.workbook != workbook || current.version != workbook.getStructureVersion()) {
+            current = new SheetBinding(workbook, workbook.getStructureVersion(), workbook.getSheet(sheetName));
+            binding = current;
+        }
+        return current.sheet;
+    }
+
+    /**
+     * Regresa el texto de la formula con otro nombre de hoja, conservando
+     * el resto como lo escribio el usuario.
+     * @param text Texto del que salio esta formula (sin el =).
+     * @param name Nombre nuevo de la hoja.
+     * @return Texto con el nombre cambiado.
+     */
+    String withSheetName(String text, String name) {
+        return text.substring(0, nameStart) + name + text.substring(nameStart + sheetName.length());
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+    public int getRow1() {
+        return row1;
+    }
+    public int getCol1() {
+        return col1;
+    }
+    public int getRow2() {
+        return row2;
+    }
+    public int getCol2() {
+        return col2;
+    }
+
+    /**
+     * Hoja resuelta y version de la lista de hojas con la que se resolvio.
+     */
+    private static class SheetBinding {
+        private final Workbook workbook;
+        private final long version;
+        private final Sheet sheet;
+
+        SheetBinding(Workbook workbook, long version, Sheet sheet) {
+            this.workbook = workbook;
+            this.version = version;
+            this.sheet = sheet;
+        }
+    }
+
+    /**
+     * Visitante que acumula la suma o el producto de las celdas ocupadas
+     * de un rango.
+     */
+    private static class RangeAccumulator implements CellVisitor {
+        private final FormulaFunction function;
+        private double result;
+        private boolean found;
+        private long scanned;
+
+        RangeAccumulator(FormulaFunction function) {
+            this.function = function;
+            this.result = function.identity();
+        }
+
+        @Override
+        public void visitCell(Cell cell) {
+            scanned++;
+            // Numero escrito o resultado de otra formula, ya calculado
+            if (cell.isNumeric()) {
+                result = function.combine(result, cell.getNumericValue());
+                found = true;
+            }
+        }
+
+        @Override
+        public void visitNumber(int row, int col, double number) {
+            scanned++;
+            result = function.combine(result, number);
+            found = true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import model.Cell;
+
+/**
+ * Ejecuta un plan de recalculo nivel por nivel. Las formulas de un nivel no
+ * dependen entre si, asi que los niveles grandes se evaluan en paralelo en
+ * un ForkJoinPool; los niveles chicos se evaluan en el mismo hilo.
+ *
+ * Los hilos del pool solo leen la hoja y guardan cada resultado en un
+ * arreglo. Al terminar el nivel, el hilo que pidio el recalculo copia los
+ * resultados a las celdas en el orden del plan (por
+ * {@link model.OrthogonalMatrix#setFormulaValue}), asi que el resultado no
+ * depende del orden en que terminen los hilos.
+ *
+ * El numero de hilos se puede fijar con -Dmaxcell.recalc.threads
+ * (1 desactiva el paralelismo).
+ * @author maryori
+ */
+public class RecalcScheduler {
+    // Niveles con menos formulas se evaluan sin usar el pool
+    static final int PARALLEL_THRESHOLD = 512;
+    // Formulas que evalua cada tarea antes de dejar de dividirse
+    private static final int TASK_SIZE = 128;
+
+    private final FormulaParser parser;
+    private final int parallelism;
+    private ForkJoinPool pool;
+
+    /**
+     * Constructor del planificador.
+     * @param parser Parser que evalua las formulas.
+     */
+    public RecalcScheduler(FormulaParser parser) {
+        this.parser = parser;
+        this.parallelism = Math.max(1, Integer.getInteger("maxcell.recalc.threads",
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Recalcula las formulas de un plan. Las formulas que quedaron en un
+     * ciclo reciben el valor de error indicado.
+     * @param plan Plan de recalculo.
+     * @param cycleError Valor para las celdas en ciclo.
+     */
+    public void run(DependencyGraph.RecalcPlan plan, Object cycleError) {
+        for (List<CellRef> level : plan.getLevels()) {
+            CellRef[] refs = level.toArray(new CellRef[0]);
+            Cell[] cells = new Cell[refs.length];
+            Object[] results = new Object[refs.length];
+
+            if (parallelism > 1 && refs.length >= PARALLEL_THRESHOLD) {
+                getPool().invoke(new EvaluateTask(refs, cells, results, 0, refs.length));
+            } else {
+                evaluate(refs, cells, results, 0, refs.length);
+            }
+
+            // Publicar en el hilo que pidio el recalculo, en orden
+            for (int i = 0; i < refs.length; i++) {
+                if (cells[i] != null) {
+                    refs[i].getSheet().getMatrix().setFormulaValue(refs[i].getRow(), refs[i].getCol(), results[i]);
+                }
+            }
+        }
+        for (CellRef ref : plan.getCyclic()) {
+            ref.getSheet().getMatrix().setFormulaValue(ref.getRow(), ref.getCol(), cycleError);
+        }
+    }
+
+    /**
+     * Evalua un tramo de un nivel sin modificar las celdas.
+     */
+    private void evaluate(CellRef[] refs, Cell[] cells, Object[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            CellRef ref = refs[i];
+            Cell cell = ref.getSheet().getMatrix().getCell(ref.getRow(), ref.getCol());
+            if (cell != null && cell.getCompiledFormula() != null) {
+                cells[i] = cell;
+                results[i] = parser.evaluate(cell.getCompiledFormula(), ref.getSheet(), ref.getRow(), ref.getCol());
+            }
+        }
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Tarea que divide un nivel en tramos hasta {@link #TASK_SIZE} formulas.
+     */
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CellRef[] refs;
+        private final Cell[] cells;
+        private final Object[] results;
+        private final int from, to;
+
+        EvaluateTask(CellRef[] refs, Cell[] cells, Object[] results, int from, int to) {
+            this.refs = refs;
+            this.cells = cells;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_SIZE) {
+                evaluate(refs, cells, results, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(refs, cells, results, from, middle),
+                      new EvaluateTask(refs, cells, results, middle, to));
+        }
+    }
+}
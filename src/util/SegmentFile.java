@@ -0,0 +1,207 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Archivo con segmentos de hojas sin cargar (el archivo de un libro o el
+ * spill). Los segmentos se leen por posicion con un canal que se abre solo
+ * durante la lectura: el archivo no se mapea ni se deja abierto, asi que se
+ * puede reemplazar mientras el libro esta abierto (en Windows no se puede
+ * reemplazar un archivo mapeado).
+ * <p>
+ * Hay una instancia por ruta. Al reemplazar el archivo, las fuentes que
+ * apuntan a el pasan a la posicion de su segmento en el archivo nuevo; las
+ * lecturas y el reemplazo usan el mismo candado.
+ * @author maryori
+ */
+final class SegmentFile {
+    private static final Map<Path, SegmentFile> FILES = new HashMap<>();
+
+    private final Path path;
+    private final List<WeakReference<SegmentSource>> sources = new ArrayList<>();
+
+    private SegmentFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Regresa el archivo de segmentos de una ruta.
+     * @param path Ruta del archivo.
+     * @return Instancia compartida de esa ruta.
+     */
+    static SegmentFile of(Path path) {
+        synchronized (FILES) {
+            return FILES.computeIfAbsent(path.toAbsolutePath().normalize(), SegmentFile::new);
+        }
+    }
+
+    /**
+     * Agrega una fuente con su segmento en este archivo.
+     * @param source Fuente nueva.
+     */
+    synchronized void register(SegmentSource source) {
+        sources.add(new WeakReference<>(source));
+    }
+
+    /**
+     * Indica si el segmento de una fuente sigue en el archivo.
+     * @param source Fuente del archivo.
+     * @return false si el archivo se reemplazo sin ese segmento.
+     */
+    synchronized boolean contains(SegmentSource source) {
+        return source.getOffset() >= 0;
+    }
+
+    /**
+     * Lee el segmento de una fuente.
+     * @param source Fuente del archivo.
+     * @return Bytes del segmento.
+     * @throws IOException Si no se pudo leer o el segmento ya no esta.
+     */
+    synchronized ByteBuffer read(SegmentSource source) throws IOException {
+        long offset = checkOffset(source);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(source.getLength());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("El segmento de la hoja está incompleto");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Copia el segmento de una fuente a un canal.
+     * @param source Fuente del archivo.
+     * @param target Canal destino.
+     * @return Posicion del segmento en este archivo.
+     * @throws IOException Si no se pudo copiar o el segmento ya no esta.
+     */
+    synchronized long transferTo(SegmentSource source, WritableByteChannel target) throws IOException {
+        long offset = checkOffset(source);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < source.getLength()) {
+                long count = channel.transferTo(offset + copied, source.getLength() - copied, target);
+                if (count <= 0) throw new EOFException("El segmento de la hoja está incompleto");
+                copied += count;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Reemplaza el archivo por otro y mueve las fuentes a la posicion de su
+     * segmento en el archivo nuevo. Las fuentes cuyo segmento no se copio
+     * quedan sin segmento.
+     * @param temp Archivo nuevo, en la misma carpeta.
+     * @param moved Posicion nueva de cada segmento copiado de este archivo,
+     *        por su posicion anterior.
+     * @throws IOException Si no se pudo reemplazar; las fuentes no cambian.
+     */
+    synchronized void replace(Path temp, Map<Long, Long> moved) throws IOException {
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (Iterator<WeakReference<SegmentSource>> it = sources.iterator(); it.hasNext(); ) {
+            SegmentSource source = it.next().get();
+            if (source == null) {
+                it.remove();
+                continue;
+            }
+            Long offset = moved.get(source.getOffset());
+            source.setOffset(offset != null ? offset : -1);
+            if (offset == null) it.remove();
+        }
+    }
+
+    /**
+     * Suma el largo de los segmentos que alguna fuente sigue usando.
+     * @return Bytes en uso del archivo.
+     */
+    synchronized long liveLength() {
+        long length = 0;
+        for (SegmentSource source : liveSources()) {
+            length += source.getLength();
+        }
+        return length;
+    }
+
+    /**
+     * Copia a un archivo nuevo solo los segmentos que alguna fuente sigue
+     * usando, uno tras otro, y lo pone en lugar de este con
+     * {@link #replace}. El espacio de los demas segmentos se recupera.
+     * @return Largo del archivo nuevo.
+     * @throws IOException Si no se pudo copiar; el archivo no cambia.
+     */
+    synchronized long compact() throws IOException {
+        List<SegmentSource> live = liveSources();
+        live.sort(Comparator.comparingLong(SegmentSource::getOffset));
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Map<Long, Long> moved = new HashMap<>();
+        long length = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (SegmentSource source : live) {
+                if (moved.containsKey(source.getOffset())) continue;
+                long copied = 0;
+                while (copied < source.getLength()) {
+                    long count = in.transferTo(source.getOffset() + copied, source.getLength() - copied, out);
+                    if (count <= 0) throw new EOFException("El segmento de la hoja está incompleto");
+                    copied += count;
+                }
+                moved.put(source.getOffset(), length);
+                length += source.getLength();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        replace(temp, moved);
+        return length;
+    }
+
+    private List<SegmentSource> liveSources() {
+        List<SegmentSource> live = new ArrayList<>();
+        for (Iterator<WeakReference<SegmentSource>> it = sources.iterator(); it.hasNext(); ) {
+            SegmentSource source = it.next().get();
+            if (source == null || source.getOffset() < 0) {
+                it.remove();
+            } else {
+                live.add(source);
+            }
+        }
+        return live;
+    }
+
+    private static long checkOffset(SegmentSource source) throws IOException {
+        long offset = source.getOffset();
+        if (offset < 0) throw new IOException("El segmento de la hoja ya no está en el archivo");
+        return offset;
+    }
+}
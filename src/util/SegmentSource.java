@@ -0,0 +1,163 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import model.OrthogonalMatrix;
+import model.SheetSource;
+
+/**
+ * Hoja de un archivo de libro que todavia no se ha cargado. Solo guarda
+ * donde esta su segmento ({@link SegmentFile}); los bytes se leen del
+ * archivo cuando la hoja se usa, asi que mientras no se use no ocupa
+ * memoria ni deja el archivo abierto. Al guardar el libro, una hoja sin
+ * cargar se copia tal cual desde aqui.
+ * Las instantaneas ({@link WorkbookSnapshot}) usan la misma clase con el
+ * segmento codificado en el heap.
+ * @author maryori
+ */
+class SegmentSource implements SheetSource {
+    // Segmento en el heap, o archivo y posicion del segmento
+    private final ByteBuffer segment;
+    private final SegmentFile file;
+    // Se lee y se cambia con el candado del archivo (-1 si el segmento ya no esta)
+    private long offset;
+    private final int length;
+    // Posicion del indice de bloques (o del diccionario, sin comprimir)
+    private final int dictionaryOffset;
+    private final int rows, cols;
+    private final int flags;
+    private final int cellCount;
+
+    /**
+     * Constructor de una fuente con el segmento en el heap.
+     * @param segment Bytes del segmento de la hoja.
+     * @param dictionaryOffset Posicion del diccionario dentro del segmento.
+     * @param rows Filas en uso de la hoja.
+     * @param cols Columnas en uso de la hoja.
+     * @param flags Banderas de la hoja (ver {@link WorkbookFormat}).
+     * @param cellCount Celdas ocupadas.
+     */
+    SegmentSource(ByteBuffer segment, int dictionaryOffset, int rows, int cols, int flags, int cellCount) {
+        this.segment = segment;
+        this.file = null;
+        this.length = segment.remaining();
+        this.dictionaryOffset = dictionaryOffset;
+        this.rows = rows;
+        this.cols = cols;
+        this.flags = flags;
+        this.cellCount = cellCount;
+    }
+
+    /**
+     * Constructor de una fuente con el segmento en un archivo.
+     * @param file Archivo del segmento.
+     * @param offset Posicion del segmento en el archivo.
+     * @param length Largo del segmento.
+     * @param dictionaryOffset Posicion del diccionario dentro del segmento.
+     * @param rows Filas en uso de la hoja.
+     * @param cols Columnas en uso de la hoja.
+     * @param flags Banderas de la hoja (ver {@link WorkbookFormat}).
+     * @param cellCount Celdas ocupadas.
+     */
+    SegmentSource(SegmentFile file, long offset, int length, int dictionaryOffset, int rows, int cols,
+            int flags, int cellCount) {
+        this.segment = null;
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.dictionaryOffset = dictionaryOffset;
+        this.rows = rows;
+        this.cols = cols;
+        this.flags = flags;
+        this.cellCount = cellCount;
+        file.register(this);
+    }
+
+    @Override
+    public void load(OrthogonalMatrix matrix) {
+        matrix.setColumnarNumbers((flags & WorkbookFormat.COLUMNAR_NUMBERS) != 0);
+        WorkbookReader.readSheet(readSegment(), dictionaryOffset, flags, matrix);
+        matrix.ensureExtent(rows, cols);
+        matrix.setRangeSumIndex((flags & WorkbookFormat.RANGE_SUM_INDEX) != 0);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return file == null || file.contains(this);
+    }
+
+    /**
+     * Lee solo un rango de filas de la hoja, sin cargarla. En un segmento
+     * comprimido solo se descomprimen los bloques de esas filas.
+     * @param firstRow Primera fila.
+     * @param lastRow Ultima fila.
+     * @param matrix Matriz donde se copian las celdas.
+     */
+    void loadRows(int firstRow, int lastRow, OrthogonalMatrix matrix) {
+        WorkbookReader.readRows(readSegment(), dictionaryOffset, flags, firstRow, lastRow, matrix);
+    }
+
+    /**
+     * Regresa los bytes del segmento, listos para leerse desde el inicio.
+     * @return Bytes del segmento.
+     * @throws UncheckedIOException Si no se pudo leer el archivo.
+     */
+    ByteBuffer readSegment() {
+        if (segment != null) return segment.duplicate();
+        try {
+            return file.read(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Escribe el segmento en un canal, sin pasarlo por el heap si esta en
+     * un archivo.
+     * @param target Canal destino.
+     * @return Posicion del segmento en su archivo (-1 si esta en el heap).
+     * @throws IOException Si no se pudo leer o escribir.
+     */
+    long copyTo(WritableByteChannel target) throws IOException {
+        if (file != null) return file.transferTo(this, target);
+        ByteBuffer bytes = segment.duplicate();
+        while (bytes.hasRemaining()) {
+            target.write(bytes);
+        }
+        return -1;
+    }
+
+    SegmentFile getFile() {
+        return file;
+    }
+    long getOffset() {
+        return offset;
+    }
+    void setOffset(long offset) {
+        this.offset = offset;
+    }
+    int getLength() {
+        return length;
+    }
+    int getDictionaryOffset() {
+        return dictionaryOffset;
+    }
+    int getRows() {
+        return rows;
+    }
+    int getCols() {
+        return cols;
+    }
+    int getFlags() {
+        return flags;
+    }
+    int getCellCount() {
+        return cellCount;
+    }
+}
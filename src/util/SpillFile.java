@@ -0,0 +1,97 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import model.OrthogonalMatrix;
+import model.SheetSource;
+import model.SheetSpill;
+
+/**
+ * Archivo temporal donde se guardan las hojas modificadas que se sacan de
+ * memoria. Cada hoja se codifica directo al final del archivo con el formato
+ * de su segmento en el libro (ver {@link WorkbookWriter#appendSheet}), sin
+ * armarla en el heap, y se lee por posicion como las hojas del archivo del
+ * libro ({@link SegmentFile}), asi que volver a cargarla es igual que cargar
+ * una hoja del libro, y al guardar el libro su segmento se copia tal cual.
+ * <p>
+ * Las hojas que no cambian despues de volver a cargarse ya no se escriben
+ * otra vez. Los segmentos que ya nadie usa (hojas que se cargaron y se
+ * editaron) se recuperan compactando el archivo cuando son mas de la mitad.
+ * Se borra al cerrarlo o al salir.
+ * @author maryori
+ */
+final class SpillFile implements SheetSpill {
+    // Tamano a partir del cual se revisa si conviene compactar
+    private static final long COMPACT_THRESHOLD = 16L << 20;
+
+    private final long compactThreshold;
+    private Path path;
+    private FileChannel channel;
+    private long end;
+
+    SpillFile() {
+        this(COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param compactThreshold Tamano a partir del cual se compacta el archivo
+     *        si la mitad ya no esta en uso.
+     */
+    SpillFile(long compactThreshold) {
+        this.compactThreshold = compactThreshold;
+    }
+
+    @Override
+    public synchronized SheetSource spill(OrthogonalMatrix matrix) throws IOException {
+        if (channel == null) {
+            path = Files.createTempFile("maxcell-", ".spill");
+            path.toFile().deleteOnExit();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            end = 0;
+        } else if (end >= compactThreshold && 2 * SegmentFile.of(path).liveLength() < end) {
+            compact();
+        }
+        // Si falla a medias, lo escrito despues de end se sobreescribe en el siguiente
+        channel.position(end);
+        SegmentSource source = WorkbookWriter.appendSheet(matrix.freeze(), channel, SegmentFile.of(path));
+        end += source.getLength();
+        return source;
+    }
+
+    /**
+     * Deja en el archivo solo los segmentos que siguen en uso; las hojas que
+     * los usan pasan a su posicion nueva.
+     */
+    private void compact() throws IOException {
+        channel.close();
+        try {
+            end = SegmentFile.of(path).compact();
+        } finally {
+            // Si no se puede volver a abrir, el siguiente spill empieza otro archivo
+            channel = null;
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    /**
+     * Cierra y borra el archivo; las hojas que siguen en el ya no se pueden
+     * cargar. Se llama al salir. El siguiente spill abre un archivo nuevo.
+     */
+    synchronized void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Se borra al salir
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+/**
+ * Constantes del formato binario de los libros.
+ * <pre>
+ * Encabezado (32 bytes; 24 en la version 1, sin la generacion):
+ *   int   MAGIC ("MXCL")
+ *   short version
+ *   short banderas (reservado)
+ *   int   cantidad de hojas
+ *   int   indice de la hoja activa
+ *   long  posicion del directorio de hojas
+ *   long  generacion (identifica el diario de cambios que le corresponde)
+ * Segmento de cada hoja (con la bandera COMPRESSED):
+ *   bloques de filas comprimidos con Deflate; cada uno, sin comprimir, son
+ *   registros por filas: varint (fila - filaAnterior), luego por celda
+ *   byte tipo, varint (col - colAnterior - 1) y su valor; END_ROW cierra
+ *   la fila y un varint 0 cierra el bloque. La fila anterior al inicio de
+ *   cada bloque es -1, asi cada bloque se lee por separado.
+ *   diccionario de textos comprimido: varint cantidad y cada texto
+ *   (varint bytes + UTF-8)
+ *   indice: varint cantidad de bloques y por bloque int primera fila,
+ *   int ultima fila, long posicion, int largo comprimido, int largo; luego
+ *   long posicion, int largo comprimido e int largo del diccionario.
+ * Segmento sin la bandera COMPRESSED (version 2 y anteriores): los
+ *   registros sin comprimir en un solo bloque y despues el diccionario.
+ * Directorio (al final del archivo), por hoja:
+ *   nombre (varint bytes + UTF-8), int filas, int columnas, byte banderas,
+ *   int celdas, long posicion, long largo, long posicion del indice (o del
+ *   diccionario, sin comprimir) dentro del segmento.
+ * </pre>
+ * Los numeros van como double; textos y formulas como indice del
+ * diccionario de la hoja, asi un texto repetido se guarda una sola vez.
+ * @author maryori
+ */
+final class WorkbookFormat {
+    static final int MAGIC = 0x4D58434C;
+    static final short VERSION = 3;
+    static final int HEADER_SIZE = 32;
+    static final int HEADER_SIZE_V1 = 24;
+    static final int DIRECTORY_OFFSET_POSITION = 16;
+
+    // Tipos de registro de celda
+    static final byte END_ROW = 0;
+    static final byte NUMBER = 1;
+    // Numero cuyo texto no es el que genera Cell.formatNumber (ej. "1.50")
+    static final byte NUMBER_TEXT = 2;
+    static final byte TEXT = 3;
+    static final byte FORMULA = 4;
+
+    // Banderas de hoja
+    static final int COLUMNAR_NUMBERS = 1;
+    static final int RANGE_SUM_INDEX = 2;
+    static final int COMPRESSED = 4;
+
+    private WorkbookFormat() {
+    }
+}
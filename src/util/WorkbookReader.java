@@ -0,0 +1,305 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import model.Cell;
+import model.CellType;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.Workbook;
+
+/**
+ * Lee un libro guardado en el formato binario de {@link WorkbookFormat}.
+ * Cada hoja se lee de su segmento en una sola pasada por filas, la primera
+ * vez que se usa; las celdas se agregan al final de su fila y de su
+ * columna, asi que la carga es lineal en las celdas ocupadas. Los bloques
+ * comprimidos se descomprimen de uno en uno.
+ * @author maryori
+ */
+class WorkbookReader {
+
+    private WorkbookReader() {
+    }
+
+    /**
+     * Indica si un archivo esta en el formato binario (y no en el formato
+     * anterior de serializacion de Java).
+     * @param file Archivo a revisar.
+     * @return true si empieza con el numero magico del formato.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    static boolean isBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.size() >= WorkbookFormat.HEADER_SIZE_V1
+                && readFully(channel, 0, Integer.BYTES).getInt() == WorkbookFormat.MAGIC;
+        }
+    }
+
+    /**
+     * Abre un libro. Solo se leen el encabezado y el directorio; el segmento
+     * de cada hoja se lee hasta que la hoja se usa (ver {@link SegmentSource}).
+     * El archivo no se queda abierto.
+     * @param file Archivo a leer.
+     * @return Libro con sus hojas sin cargar.
+     * @throws IOException Si el archivo no se puede leer o esta danado.
+     */
+    static Workbook read(Path file) throws IOException {
+        SegmentFile segments = SegmentFile.of(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            header.getShort();
+            int sheetCount = header.getInt();
+            int currentSheet = header.getInt();
+            long directoryOffset = header.getLong();
+
+            ByteBuffer directory = readFully(channel, directoryOffset, (int) (channel.size() - directoryOffset));
+            Workbook workbook = new Workbook();
+            List<Sheet> sheets = new ArrayList<>(sheetCount);
+            for (int i = 0; i < sheetCount; i++) {
+                String name = getString(directory);
+                int rows = directory.getInt();
+                int cols = directory.getInt();
+                int flags = directory.get();
+                int cells = directory.getInt();
+                long offset = directory.getLong();
+                long length = directory.getLong();
+                int dictionary = (int) directory.getLong();
+                if (length > Integer.MAX_VALUE || offset + length > directoryOffset) {
+                    throw new IOException("Segmento de hoja inválido: " + name);
+                }
+
+                // La hoja se carga hasta que se use
+                Sheet sheet = new Sheet(name);
+                sheet.setSource(new SegmentSource(segments, offset, (int) length, dictionary, rows, cols, flags, cells));
+                sheets.add(sheet);
+            }
+            // El libro nuevo ya trae "Hoja 1"; se reemplaza si el archivo tiene hojas
+            for (Sheet sheet : sheets) {
+                workbook.addSheet(sheet);
+            }
+            if (!sheets.isEmpty()) {
+                workbook.removeSheet(0);
+            }
+            workbook.setCurrentSheetIndex(Math.max(0, Math.min(currentSheet, workbook.getSheets().size() - 1)));
+            return workbook;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("El archivo del libro está dañado", e);
+        }
+    }
+
+    /**
+     * Lee la generacion de un libro, que indica que diario de cambios le
+     * corresponde. Los archivos de la version 1 tienen generacion 0.
+     * @param file Archivo del libro.
+     * @return Generacion del archivo.
+     * @throws IOException Si el archivo no se puede leer o no es un libro.
+     */
+    static long readGeneration(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            return header.limit() >= WorkbookFormat.HEADER_SIZE ? header.getLong(24) : 0;
+        }
+    }
+
+    /**
+     * Lee y valida el encabezado; lo deja posicionado despues de la version.
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, 0, WorkbookFormat.HEADER_SIZE_V1);
+        if (header.getInt() != WorkbookFormat.MAGIC) {
+            throw new IOException("El archivo no es un libro");
+        }
+        short version = header.getShort();
+        if (version > WorkbookFormat.VERSION) {
+            throw new IOException("Versión de archivo no soportada: " + version);
+        }
+        if (version >= 2) {
+            header = readFully(channel, 0, WorkbookFormat.HEADER_SIZE);
+            header.position(6);
+        }
+        return header;
+    }
+
+    /**
+     * Lee las celdas del segmento de una hoja.
+     * @param segment Bytes del segmento.
+     * @param indexOffset Posicion del indice de bloques (o del diccionario, si
+     *        el segmento no esta comprimido) dentro del segmento.
+     * @param flags Banderas de la hoja (ver {@link WorkbookFormat}).
+     * @param matrix Matriz donde se cargan las celdas.
+     */
+    static void readSheet(ByteBuffer segment, int indexOffset, int flags, OrthogonalMatrix matrix) {
+        readRows(segment, indexOffset, flags, 0, Integer.MAX_VALUE, matrix);
+    }
+
+    /**
+     * Lee solo las celdas de un rango de filas. En un segmento comprimido se
+     * descomprimen unicamente los bloques que tienen esas filas (y el
+     * diccionario).
+     * @param segment Bytes del segmento.
+     * @param indexOffset Posicion del indice (ver {@link #readSheet}).
+     * @param flags Banderas de la hoja.
+     * @param firstRow Primera fila a leer.
+     * @param lastRow Ultima fila a leer.
+     * @param matrix Matriz donde se cargan las celdas.
+     */
+    static void readRows(ByteBuffer segment, int indexOffset, int flags, int firstRow, int lastRow,
+            OrthogonalMatrix matrix) {
+        if ((flags & WorkbookFormat.COMPRESSED) == 0) {
+            segment.position(indexOffset);
+            String[] strings = readDictionary(segment);
+            segment.position(0);
+            readRecords(segment, strings, firstRow, lastRow, matrix);
+            return;
+        }
+
+        segment.position(indexOffset);
+        int count = getVarint(segment);
+        ByteBuffer index = segment.slice();
+        index.position(count * 24);
+        long dictionaryOffset = index.getLong();
+        int dictionaryCompressed = index.getInt();
+        int dictionaryLength = index.getInt();
+
+        Inflater inflater = new Inflater();
+        try {
+            String[] strings = readDictionary(inflate(inflater, segment, dictionaryOffset,
+                dictionaryCompressed, dictionaryLength));
+            index.position(0);
+            for (int i = 0; i < count; i++) {
+                int blockFirst = index.getInt();
+                int blockLast = index.getInt();
+                long offset = index.getLong();
+                int compressed = index.getInt();
+                int length = index.getInt();
+                if (blockLast < firstRow || blockFirst > lastRow) continue;
+                readRecords(inflate(inflater, segment, offset, compressed, length), strings,
+                    firstRow, lastRow, matrix);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer inflate(Inflater inflater, ByteBuffer segment, long offset, int compressed, int length) {
+        ByteBuffer input = segment.duplicate();
+        input.limit((int) offset + compressed).position((int) offset);
+        ByteBuffer output = ByteBuffer.allocate(length);
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            while (output.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(output) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Bloque comprimido incompleto");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Bloque comprimido dañado", e);
+        }
+        output.flip();
+        return output;
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer) {
+        String[] strings = new String[getVarint(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getString(buffer);
+        }
+        return strings;
+    }
+
+    /**
+     * Lee registros por filas, desde la fila -1, hasta el varint 0 final.
+     * Solo se cargan las celdas dentro de las filas indicadas.
+     */
+    private static void readRecords(ByteBuffer records, String[] strings, int firstRow, int lastRow,
+            OrthogonalMatrix matrix) {
+        int row = -1;
+        for (int rowGap = getVarint(records); rowGap != 0; rowGap = getVarint(records)) {
+            row += rowGap;
+            boolean load = row >= firstRow && row <= lastRow;
+            int col = -1;
+            for (byte tag = records.get(); tag != WorkbookFormat.END_ROW; tag = records.get()) {
+                col += getVarint(records) + 1;
+                switch (tag) {
+                    case WorkbookFormat.NUMBER: {
+                        double number = records.getDouble();
+                        if (!load) break;
+                        // Con almacen por columnas el texto no se guarda
+                        String content = matrix.isColumnarNumbers() ? null : Cell.formatNumber(number);
+                        matrix.loadCell(row, col, CellType.NUMBER, content, number);
+                        break;
+                    }
+                    case WorkbookFormat.NUMBER_TEXT: {
+                        double number = records.getDouble();
+                        String content = strings[getVarint(records)];
+                        if (load) matrix.loadCell(row, col, CellType.NUMBER, content, number);
+                        break;
+                    }
+                    case WorkbookFormat.TEXT: {
+                        String content = strings[getVarint(records)];
+                        if (load) matrix.loadCell(row, col, CellType.TEXT, content, 0);
+                        break;
+                    }
+                    case WorkbookFormat.FORMULA: {
+                        String content = strings[getVarint(records)];
+                        if (load) matrix.loadCell(row, col, CellType.FORMULA, content, 0);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Tipo de celda desconocido: " + tag);
+                }
+            }
+            if (row > lastRow) return;
+        }
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Entero mal codificado");
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        String text;
+        if (buffer.hasArray()) {
+            text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("El archivo del libro está incompleto");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
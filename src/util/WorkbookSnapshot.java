@@ -0,0 +1,158 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import model.FrozenMatrix;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.SheetSource;
+import model.Workbook;
+
+/**
+ * Copia inmutable del contenido de un libro en un momento dado, lista para
+ * guardarse desde otro hilo mientras el libro se sigue editando.
+ * <p>
+ * Tomarla es barato y no depende del numero de celdas: las hojas sin cargar
+ * ya son un segmento inmutable, una hoja cuya marca de version
+ * ({@link OrthogonalMatrix#getVersion()}) no cambio desde la instantanea
+ * anterior reutiliza su segmento, y las hojas editadas solo se congelan
+ * ({@link OrthogonalMatrix#freeze()}). Se debe tomar en el hilo que edita el
+ * libro; las hojas congeladas se codifican despues, en el hilo que guarda
+ * ({@link #encode()}).
+ * @author maryori
+ */
+final class WorkbookSnapshot {
+    private final List<Sheet> sheets = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    // Marca de version de cada hoja cargada (0 si la hoja no estaba cargada)
+    private final List<Long> versions = new ArrayList<>();
+    private int currentSheet;
+
+    private WorkbookSnapshot() {
+    }
+
+    /**
+     * Toma la instantanea de un libro.
+     * @param workbook Libro a copiar.
+     * @param previous Instantanea anterior del mismo libro (o null); sus
+     *        hojas sin cambios se reutilizan.
+     * @return Instantanea del libro.
+     */
+    static WorkbookSnapshot capture(Workbook workbook, WorkbookSnapshot previous) {
+        WorkbookSnapshot snapshot = new WorkbookSnapshot();
+        snapshot.currentSheet = workbook.getCurrentSheetIndex();
+        for (Sheet sheet : workbook.getSheets()) {
+            SheetSource source = sheet.getSource();
+            Segment segment;
+            long version = 0;
+            if (source instanceof SegmentSource) {
+                segment = new Segment((SegmentSource) source);
+            } else {
+                OrthogonalMatrix matrix = sheet.getMatrix();
+                version = matrix.getVersion();
+                segment = previous != null ? previous.find(sheet, version) : null;
+                if (segment == null) {
+                    segment = new Segment(matrix.freeze());
+                }
+            }
+            snapshot.sheets.add(sheet);
+            snapshot.names.add(sheet.getName());
+            snapshot.segments.add(segment);
+            snapshot.versions.add(version);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Busca el segmento de una hoja que no ha cambiado.
+     */
+    private Segment find(Sheet sheet, long version) {
+        for (int i = 0; i < sheets.size(); i++) {
+            if (sheets.get(i) == sheet && versions.get(i) == version) {
+                return segments.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Codifica las hojas congeladas que falten, en paralelo, una por hilo
+     * ({@link ParallelSheets}). Se llama desde el hilo que guarda.
+     */
+    void encode() {
+        List<Segment> pending = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (!segment.isEncoded()) pending.add(segment);
+        }
+        ParallelSheets.map(pending, Segment::get);
+    }
+
+    /**
+     * Arma un libro con las hojas de la instantanea sin cargar, como si se
+     * hubiera leido de un archivo. Codifica las hojas que falten.
+     * @return Libro nuevo; sus hojas se cargan de los segmentos de la instantanea.
+     */
+    Workbook toWorkbook() {
+        encode();
+        Workbook workbook = new Workbook();
+        for (int i = 0; i < segments.size(); i++) {
+            Sheet sheet = new Sheet(names.get(i));
+            sheet.setSource(segments.get(i).get());
+            workbook.addSheet(sheet);
+        }
+        // El libro nuevo ya trae "Hoja 1"
+        if (!segments.isEmpty()) {
+            workbook.removeSheet(0);
+        }
+        workbook.setCurrentSheetIndex(currentSheet);
+        return workbook;
+    }
+
+    int getSheetCount() {
+        return segments.size();
+    }
+    int getCurrentSheetIndex() {
+        return currentSheet;
+    }
+    String getName(int index) {
+        return names.get(index);
+    }
+    SegmentSource getSegment(int index) {
+        return segments.get(index).get();
+    }
+
+    /**
+     * Segmento de una hoja. El de una hoja editada se codifica la primera
+     * vez que se pide; lo comparten las instantaneas siguientes mientras la
+     * hoja no cambie, asi que se codifica una sola vez.
+     */
+    private static final class Segment {
+        private FrozenMatrix frozen;
+        private SegmentSource source;
+
+        Segment(SegmentSource source) {
+            this.source = source;
+        }
+
+        Segment(FrozenMatrix frozen) {
+            this.frozen = frozen;
+        }
+
+        synchronized boolean isEncoded() {
+            return source != null;
+        }
+
+        synchronized SegmentSource get() {
+            if (source == null) {
+                source = WorkbookWriter.encodeSheet(frozen);
+                frozen = null;
+            }
+            return source;
+        }
+    }
+}
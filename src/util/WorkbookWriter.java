@@ -0,0 +1,469 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import model.Cell;
+import model.CellType;
+import model.CellVisitor;
+import model.FrozenMatrix;
+import model.OrthogonalMatrix;
+import model.Workbook;
+
+/**
+ * Escribe un libro en el formato binario de {@link WorkbookFormat}.
+ * Recorre cada hoja una sola vez por filas (sin recursion sobre los enlaces
+ * de las celdas) y la codifica en memoria; las hojas se codifican en
+ * paralelo (ver {@link WorkbookSnapshot}) y las que no se han cargado se
+ * copian tal cual de su archivo. Escribe a traves de un {@link ByteBuffer}
+ * sobre un {@link FileChannel}. Al reemplazar el archivo de un libro abierto,
+ * sus hojas sin cargar pasan a leerse del archivo nuevo ({@link SegmentFile}).
+ * @author maryori
+ */
+class WorkbookWriter {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Tamano aproximado (sin comprimir) de los bloques de filas
+    private static final int BLOCK_SIZE = 64 << 10;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    // Posicion en el archivo del inicio del buffer
+    private long flushed;
+    // Archivo que se va a reemplazar y posicion nueva de los segmentos que se copian de el
+    private SegmentFile target;
+    private final Map<Long, Long> moved = new HashMap<>();
+
+    private WorkbookWriter(WritableByteChannel channel, ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Guarda un libro. Se escribe primero en un archivo temporal que luego
+     * reemplaza al original, asi un error a medias no deja el archivo roto.
+     * @param workbook Libro a guardar.
+     * @param file Archivo destino.
+     * @param generation Generacion del archivo (ver {@link EditJournal}).
+     * @throws IOException Si no se puede escribir.
+     */
+    static void write(Workbook workbook, Path file, long generation) throws IOException {
+        write(WorkbookSnapshot.capture(workbook, null), file, generation);
+    }
+
+    /**
+     * Guarda una instantanea de un libro (ver {@link WorkbookSnapshot}).
+     * Las hojas editadas se codifican aqui y las demas solo copian su
+     * segmento; se puede llamar desde cualquier hilo mientras el libro se
+     * sigue editando.
+     * @param snapshot Instantanea a guardar.
+     * @param file Archivo destino.
+     * @param generation Generacion del archivo (ver {@link EditJournal}).
+     * @throws IOException Si no se puede escribir.
+     */
+    static void write(WorkbookSnapshot snapshot, Path file, long generation) throws IOException {
+        writeAtomically(file, writer -> writer.writeSnapshot(snapshot, generation));
+    }
+
+    /**
+     * Codifica una hoja en memoria con el formato de su segmento.
+     * @param matrix Contenido congelado de la hoja (ver {@link OrthogonalMatrix#freeze()}).
+     * @return Segmento de la hoja.
+     */
+    static SegmentSource encodeSheet(FrozenMatrix matrix) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WorkbookWriter writer = new WorkbookWriter(Channels.newChannel(out), ByteBuffer.allocate(64 << 10));
+        try {
+            long[] segment = writer.writeSheet(matrix);
+            writer.flush();
+            return new SegmentSource(ByteBuffer.wrap(out.toByteArray()), (int) segment[2],
+                matrix.getRows(), matrix.getCols(), flags(matrix), matrix.getCellCount());
+        } catch (IOException e) {
+            // No pasa al escribir en memoria
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.deflater.end();
+        }
+    }
+
+    /**
+     * Codifica una hoja directo en un archivo de segmentos, a partir de la
+     * posicion actual del canal, sin armar el segmento en memoria.
+     * @param matrix Contenido congelado de la hoja (ver {@link OrthogonalMatrix#freeze()}).
+     * @param channel Canal del archivo, en la posicion donde empieza el segmento.
+     * @param file Archivo de segmentos al que pertenece el canal.
+     * @return Fuente del segmento escrito.
+     * @throws IOException Si no se puede escribir.
+     */
+    static SegmentSource appendSheet(FrozenMatrix matrix, FileChannel channel, SegmentFile file) throws IOException {
+        long offset = channel.position();
+        WorkbookWriter writer = new WorkbookWriter(channel, ByteBuffer.allocate(64 << 10));
+        try {
+            long[] segment = writer.writeSheet(matrix);
+            writer.flush();
+            return new SegmentSource(file, offset, (int) segment[1], (int) segment[2],
+                matrix.getRows(), matrix.getCols(), flags(matrix), matrix.getCellCount());
+        } finally {
+            writer.deflater.end();
+        }
+    }
+
+    private interface WriteAction {
+        void write(WorkbookWriter writer) throws IOException;
+    }
+
+    private static void writeAtomically(Path file, WriteAction action) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        WorkbookWriter writer;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer = new WorkbookWriter(channel, ByteBuffer.allocateDirect(BUFFER_SIZE));
+            writer.target = SegmentFile.of(file);
+            try {
+                action.write(writer);
+            } finally {
+                writer.deflater.end();
+            }
+            channel.force(false);
+        }
+        writer.target.replace(temp, writer.moved);
+    }
+
+    private void writeSnapshot(WorkbookSnapshot snapshot, long generation) throws IOException {
+        snapshot.encode();
+        int count = snapshot.getSheetCount();
+        writeHeader(count, snapshot.getCurrentSheetIndex(), generation);
+
+        String[] names = new String[count];
+        long[][] segments = new long[count][];
+        int[][] info = new int[count][];
+        for (int i = 0; i < count; i++) {
+            names[i] = snapshot.getName(i);
+            segments[i] = copySegment(snapshot.getSegment(i));
+            info[i] = info(snapshot.getSegment(i));
+        }
+        writeDirectory(names, segments, info);
+    }
+
+    private static int flags(FrozenMatrix matrix) {
+        return WorkbookFormat.COMPRESSED
+            | (matrix.isColumnarNumbers() ? WorkbookFormat.COLUMNAR_NUMBERS : 0)
+            | (matrix.isRangeSumIndex() ? WorkbookFormat.RANGE_SUM_INDEX : 0);
+    }
+
+    private static int[] info(SegmentSource segment) {
+        return new int[]{segment.getRows(), segment.getCols(), segment.getFlags(), segment.getCellCount()};
+    }
+
+    private void writeHeader(int sheetCount, int currentSheet, long generation) {
+        buffer.putInt(WorkbookFormat.MAGIC);
+        buffer.putShort(WorkbookFormat.VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(sheetCount);
+        buffer.putInt(currentSheet);
+        buffer.putLong(0); // posicion del directorio, se escribe al final
+        buffer.putLong(generation);
+    }
+
+    /**
+     * Escribe el directorio de hojas y su posicion en el encabezado.
+     */
+    private void writeDirectory(String[] names, long[][] segments, int[][] info) throws IOException {
+        FileChannel file = (FileChannel) channel;
+        long directory = position();
+        for (int i = 0; i < names.length; i++) {
+            putString(names[i]);
+            ensure(37);
+            buffer.putInt(info[i][0]);
+            buffer.putInt(info[i][1]);
+            buffer.put((byte) info[i][2]);
+            buffer.putInt(info[i][3]);
+            buffer.putLong(segments[i][0]);
+            buffer.putLong(segments[i][1]);
+            buffer.putLong(segments[i][2]);
+        }
+        flush();
+
+        ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).putLong(directory);
+        offset.flip();
+        while (offset.hasRemaining()) {
+            file.write(offset, WorkbookFormat.DIRECTORY_OFFSET_POSITION + offset.position());
+        }
+    }
+
+    /**
+     * Escribe el segmento de una hoja: sus filas en bloques comprimidos,
+     * el diccionario comprimido y el indice de bloques.
+     * @return Posicion, largo y posicion del indice (relativa al segmento).
+     */
+    private long[] writeSheet(FrozenMatrix matrix) throws IOException {
+        long start = position();
+        RecordVisitor records = new RecordVisitor(start);
+        try {
+            matrix.scanRowMajor(records);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        records.endBlock();
+
+        BlockBuffer dictionary = new BlockBuffer();
+        dictionary.putVarint(records.strings.size());
+        for (String text : records.strings) {
+            dictionary.putString(text);
+        }
+        long dictionaryOffset = position() - start;
+        int dictionaryLength = writeCompressed(dictionary.data);
+
+        long index = position() - start;
+        putVarint(records.blocks.size());
+        for (long[] block : records.blocks) {
+            ensure(24);
+            buffer.putInt((int) block[0]);
+            buffer.putInt((int) block[1]);
+            buffer.putLong(block[2]);
+            buffer.putInt((int) block[3]);
+            buffer.putInt((int) block[4]);
+        }
+        ensure(16);
+        buffer.putLong(dictionaryOffset);
+        buffer.putInt(dictionaryLength);
+        buffer.putInt(dictionary.data.position());
+        return new long[]{start, position() - start, index};
+    }
+
+    /**
+     * Comprime y escribe un bloque.
+     * @param raw Bytes del bloque (de 0 a su posicion).
+     * @return Largo comprimido.
+     */
+    private int writeCompressed(ByteBuffer raw) throws IOException {
+        long before = position();
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, raw.position());
+        deflater.finish();
+        while (!deflater.finished()) {
+            ensure(BLOCK_SIZE / 4);
+            deflater.deflate(buffer);
+        }
+        return (int) (position() - before);
+    }
+
+    /**
+     * Copia el segmento de una hoja sin cargar.
+     * @return Posicion, largo y posicion del diccionario (relativa al segmento).
+     */
+    private long[] copySegment(SegmentSource source) throws IOException {
+        flush();
+        long start = position();
+        long from = source.copyTo(channel);
+        if (source.getFile() != null && source.getFile() == target) {
+            moved.put(from, start);
+        }
+        flushed += source.getLength();
+        return new long[]{start, source.getLength(), source.getDictionaryOffset()};
+    }
+
+    /**
+     * Visitante que escribe las celdas ocupadas en orden por filas. Junta
+     * filas completas en un bloque hasta llenar {@link #BLOCK_SIZE} y lo
+     * escribe comprimido; cada bloque empieza con la fila -1 como anterior,
+     * asi se puede leer sin los demas.
+     */
+    private class RecordVisitor implements CellVisitor {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        // Por bloque: primera fila, ultima fila, posicion, largo comprimido y largo
+        private final List<long[]> blocks = new ArrayList<>();
+        private final BlockBuffer block = new BlockBuffer();
+        private final long segmentStart;
+        private int firstRow;
+        private int lastRow = -1;
+        private int lastCol;
+
+        RecordVisitor(long segmentStart) {
+            this.segmentStart = segmentStart;
+        }
+
+        @Override
+        public void visitCell(Cell cell) {
+            if (cell.getType() == CellType.NUMBER) {
+                if (cell.getContent().equals(Cell.formatNumber(cell.getNumber()))) {
+                    startCell(cell.getY(), cell.getX(), WorkbookFormat.NUMBER);
+                    block.putDouble(cell.getNumber());
+                } else {
+                    startCell(cell.getY(), cell.getX(), WorkbookFormat.NUMBER_TEXT);
+                    block.putDouble(cell.getNumber());
+                    block.putVarint(index(cell.getContent()));
+                }
+            } else {
+                startCell(cell.getY(), cell.getX(),
+                    cell.getType() == CellType.FORMULA ? WorkbookFormat.FORMULA : WorkbookFormat.TEXT);
+                block.putVarint(index(cell.getContent()));
+            }
+        }
+
+        @Override
+        public void visitNumber(int row, int col, double number) {
+            startCell(row, col, WorkbookFormat.NUMBER);
+            block.putDouble(number);
+        }
+
+        /**
+         * Escribe el salto de fila (si cambio), el tipo y el salto de columna.
+         */
+        private void startCell(int row, int col, byte tag) {
+            if (row != lastRow) {
+                if (block.data.position() >= BLOCK_SIZE) {
+                    try {
+                        endBlock();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (lastRow >= 0) {
+                    block.put(WorkbookFormat.END_ROW);
+                } else {
+                    firstRow = row;
+                }
+                block.putVarint(row - lastRow);
+                lastRow = row;
+                lastCol = -1;
+            }
+            block.put(tag);
+            block.putVarint(col - lastCol - 1);
+            lastCol = col;
+        }
+
+        /**
+         * Cierra el bloque actual (si tiene filas) y lo escribe.
+         */
+        void endBlock() throws IOException {
+            if (lastRow < 0) return;
+            block.put(WorkbookFormat.END_ROW);
+            block.putVarint(0);
+            long offset = position() - segmentStart;
+            int compressed = writeCompressed(block.data);
+            blocks.add(new long[]{firstRow, lastRow, offset, compressed, block.data.position()});
+            block.data.clear();
+            lastRow = -1;
+        }
+
+        private int index(String text) {
+            Integer index = indexes.get(text);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(text, index);
+                strings.add(text);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Buffer en el heap que crece, para armar un bloque antes de comprimirlo.
+     */
+    private static class BlockBuffer {
+        private ByteBuffer data = ByteBuffer.allocate(BLOCK_SIZE + (BLOCK_SIZE >> 2));
+
+        void putDouble(double value) {
+            ensure(Double.BYTES);
+            data.putDouble(value);
+        }
+
+        void put(byte value) {
+            ensure(1);
+            data.put(value);
+        }
+
+        void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                data.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            data.put((byte) value);
+        }
+
+        void putString(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            ensure(bytes.length);
+            data.put(bytes);
+        }
+
+        private void ensure(int bytes) {
+            if (data.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * data.capacity(), data.position() + bytes));
+                data.flip();
+                data = larger.put(data);
+            }
+        }
+    }
+
+    private void putDouble(double value) throws IOException {
+        ensure(Double.BYTES);
+        buffer.putDouble(value);
+    }
+
+    private void put(byte value) throws IOException {
+        ensure(1);
+        buffer.put(value);
+    }
+
+    /**
+     * Escribe un entero no negativo en 1 a 5 bytes (7 bits por byte).
+     */
+    private void putVarint(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void putString(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        putVarint(bytes.length);
+        if (bytes.length <= buffer.capacity()) {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        } else {
+            flush();
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) flushed += channel.write(large);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private long position() {
+        return flushed + buffer.position();
+    }
+}
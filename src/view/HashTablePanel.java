@@ -5,8 +5,9 @@
 package view;
 
 /**
- * Panel grafico que permite ingresar claves y calcular el valor hash con el controlador.
- * Muestra una tabla con las claves y sus valores hash.
+ * Panel grafico que permite ingresar y quitar claves y calcular el valor hash con el controlador.
+ * Muestra una tabla con las claves y sus valores hash, la funcion hash en
+ * uso y las medidas de sondeo de la tabla.
  * @author maryori
  */
 
@@ -14,6 +15,8 @@ import controller.HashTableController;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import model.ProbeStats;
+import model.StandardHash;
 
 public class HashTablePanel extends JPanel {
     private JTable table;
@@ -21,6 +24,10 @@ public class HashTablePanel extends JPanel {
     private HashTableController controller;
     private JTextField keyField;
     private JButton addButton;
+    private JButton removeButton;
+    private JCheckBox robinHoodCheckBox;
+    private JComboBox<StandardHash> hashComboBox;
+    private JLabel statusLabel;
 
     /**
      * Constructor del panel de la tabla hash.
@@ -45,17 +52,101 @@ public class HashTablePanel extends JPanel {
         
         addButton = new JButton("Calcular Hash");
         addButton.addActionListener(this::addKeyAction);
+
+        removeButton = new JButton("Eliminar Clave");
+        removeButton.addActionListener(this::removeKeyAction);
+
+        robinHoodCheckBox = new JCheckBox("Robin Hood", controller.isRobinHood());
+        robinHoodCheckBox.setToolTipText("Sondeo Robin Hood: distancias parejas y sondeos cortos con mucha carga");
+        robinHoodCheckBox.addActionListener(this::changeProbingAction);
         
+        hashComboBox = new JComboBox<>(StandardHash.values());
+        hashComboBox.setSelectedItem(controller.getHashStrategy());
+        hashComboBox.setToolTipText("Función hash");
+        hashComboBox.addActionListener(this::changeHashAction);
+
+        inputPanel.add(hashComboBox, BorderLayout.WEST);
         inputPanel.add(keyField, BorderLayout.CENTER);
-        inputPanel.add(addButton, BorderLayout.EAST);
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttonPanel.add(robinHoodCheckBox);
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        inputPanel.add(buttonPanel, BorderLayout.EAST);
         
         // Tabla para mostrar la tabla hash
         tableModel = new HashTableModel();
         table = new JTable(tableModel);
         
+        statusLabel = new JLabel();
+        updateStatus();
+
         // Agregar componentes al panel
         add(inputPanel, BorderLayout.NORTH);
         add(new JScrollPane(table), BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Muestra cuantas claves hay, la capacidad actual de la tabla y las
+     * medidas de sondeo.
+     */
+    private void updateStatus() {
+        ProbeStats stats = controller.getStats();
+        StringBuilder clusters = new StringBuilder();
+        int[] histogram = stats.getClusterHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] == 0) continue;
+            int from = 1 << i;
+            int to = (from << 1) - 1;
+            if (clusters.length() > 0) clusters.append(", ");
+            clusters.append(from == to ? String.valueOf(from) : from + "-" + to).append(": ").append(histogram[i]);
+        }
+        statusLabel.setText(String.format("<html>Claves: %d / Capacidad: %d / Carga: %.2f<br>"
+            + "Sondeo promedio: %.2f / Sondeo máximo: %d<br>Grupos por tamaño: %s</html>",
+            stats.getKeys(), stats.getCapacity(), stats.getLoadFactor(),
+            stats.getAverageProbe(), stats.getMaxProbe(), clusters.length() > 0 ? clusters : "-"));
+    }
+
+    /**
+     * Quita de la tabla hash la clave del txtField.
+     * @param e Evento de accion generado por el boton.
+     */
+    private void removeKeyAction(ActionEvent e) {
+        String key = keyField.getText();
+        if (key.isEmpty()) return;
+        if (controller.removeKey(key)) {
+            tableModel.refresh();
+            updateStatus();
+            keyField.setText("");
+        } else {
+            JOptionPane.showMessageDialog(this,
+                "La clave " + key + " no está en la tabla",
+                "Eliminar Clave",
+                JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    /**
+     * Cambia entre sondeo lineal simple y Robin Hood; las claves se reacomodan.
+     * @param e Evento de accion generado por la casilla.
+     */
+    private void changeProbingAction(ActionEvent e) {
+        controller.setRobinHood(robinHoodCheckBox.isSelected());
+        tableModel.refresh();
+        updateStatus();
+    }
+
+    /**
+     * Cambia la funcion hash por la elegida; las claves se reacomodan.
+     * @param e Evento de accion generado por la lista.
+     */
+    private void changeHashAction(ActionEvent e) {
+        StandardHash strategy = (StandardHash) hashComboBox.getSelectedItem();
+        if (strategy != null && strategy != controller.getHashStrategy()) {
+            controller.setHashStrategy(strategy);
+            tableModel.refresh();
+            updateStatus();
+        }
     }
 
     /**
@@ -66,7 +157,8 @@ public class HashTablePanel extends JPanel {
         String key = keyField.getText();
         if (!key.isEmpty()) {
             controller.addKey(key);
-            tableModel.fireTableDataChanged();
+            tableModel.refresh();
+            updateStatus();
             keyField.setText("");
             
             // Mostrar el valor hash calculado
@@ -80,12 +172,26 @@ public class HashTablePanel extends JPanel {
 
     /**
      * Modelo para la JTable que represenat la estructura de la tabla hash 
-     * (clave y valor).
+     * (clave y valor). Guarda una copia de las posiciones que se toma en
+     * {@link #refresh()}, porque con la tabla concurrente pedir las claves
+     * copia la tabla completa y otros hilos la pueden cambiar.
      */
     private class HashTableModel extends javax.swing.table.AbstractTableModel {
+        private String[] keys = controller.getKeys();
+        private int[] hashValues = controller.getHashValues();
+
+        /**
+         * Vuelve a tomar las claves del controlador y redibuja la tabla.
+         */
+        void refresh() {
+            keys = controller.getKeys();
+            hashValues = controller.getHashValues();
+            fireTableDataChanged();
+        }
+
         @Override
         public int getRowCount() {
-            return controller.getTableSize();
+            return Math.min(keys.length, hashValues.length);
         }
 
         @Override
@@ -96,10 +202,10 @@ public class HashTablePanel extends JPanel {
         @Override
         public Object getValueAt(int rowIndex, int columnIndex) {
             if (columnIndex == 0) {
-                String key = controller.getKeys()[rowIndex];
+                String key = keys[rowIndex];
                 return key != null ? key : "";
             } else {
-                int value = controller.getHashValues()[rowIndex];
+                int value = hashValues[rowIndex];
                 return value != 0 ? value : "";
             }
         }
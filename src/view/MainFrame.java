@@ -17,8 +17,20 @@ import controller.HashTableController;
 import controller.SheetController;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import model.FrozenMatrix;
+import model.Sheet;
+import model.SheetLoadException;
 
 public class MainFrame extends JFrame {
+    // Segundos entre guardados automaticos (0 para no guardar)
+    private static final int AUTOSAVE_SECONDS = Integer.getInteger("maxcell.autosave.seconds", 120);
     private SheetPanel sheetPanel;
     private JTabbedPane tabbedPane;
     private JMenuBar menuBar;
@@ -36,8 +48,15 @@ public class MainFrame extends JFrame {
         
         initializeUI();
         setupMenuBar();
+        setupAutosave();
         
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                sheetController.close();
+            }
+        });
         setSize(800, 600);
         setLocationRelativeTo(null);
     }
@@ -72,11 +91,59 @@ public class MainFrame extends JFrame {
             }
         });
         
+        JMenuItem renameSheetItem = new JMenuItem("Renombrar Hoja...");
+        renameSheetItem.addActionListener(e -> {
+            int index = sheetController.getWorkbook().getCurrentSheetIndex();
+            String name = JOptionPane.showInputDialog(this, "Nombre nuevo de la hoja:",
+                sheetController.getWorkbook().getCurrentSheet().getName());
+            if (name == null) return;
+            if (sheetController.renameSheet(index, name)) {
+                sheetPanel.refresh();
+            } else {
+                JOptionPane.showMessageDialog(this, "El nombre está vacío, tiene comas o ya es de otra hoja.",
+                    "Renombrar", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        JMenuItem moveSheetItem = new JMenuItem("Mover Hoja...");
+        moveSheetItem.addActionListener(e -> {
+            int count = sheetController.getWorkbook().getSheetCount();
+            String position = JOptionPane.showInputDialog(this, "Nueva posición de la hoja (1 a " + count + "):");
+            if (position == null) return;
+            try {
+                int to = Integer.parseInt(position.trim()) - 1;
+                sheetController.moveSheet(sheetController.getWorkbook().getCurrentSheetIndex(), to);
+                sheetPanel.refresh();
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "La posición debe ser un número.",
+                    "Mover", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        JMenuItem removeSheetItem = new JMenuItem("Eliminar Hoja");
+        removeSheetItem.addActionListener(e -> {
+            Sheet current = sheetController.getWorkbook().getCurrentSheet();
+            if (JOptionPane.showConfirmDialog(this, "¿Eliminar la hoja \"" + current.getName() + "\"?",
+                    "Eliminar", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+                return;
+            }
+            if (sheetController.removeSheet(sheetController.getWorkbook().getCurrentSheetIndex())) {
+                sheetPanel.refresh();
+            } else {
+                JOptionPane.showMessageDialog(this, "El libro debe tener al menos una hoja.",
+                    "Eliminar", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
         JMenuItem saveItem = new JMenuItem("Guardar");
         saveItem.addActionListener(e -> {
             JFileChooser fileChooser = new JFileChooser();
             if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-                sheetController.saveToFile(fileChooser.getSelectedFile().getAbsolutePath());
+                // Se escribe en segundo plano para no congelar la ventana
+                sheetController.saveToFileAsync(fileChooser.getSelectedFile().getAbsolutePath())
+                    .whenComplete((result, error) -> {
+                        if (error != null) SwingUtilities.invokeLater(() -> showSaveError(error));
+                    });
             }
         });
         
@@ -84,11 +151,31 @@ public class MainFrame extends JFrame {
         loadItem.addActionListener(e -> {
             JFileChooser fileChooser = new JFileChooser();
             if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-                sheetController.loadFromFile(fileChooser.getSelectedFile().getAbsolutePath());
+                try {
+                    sheetController.loadFromFile(fileChooser.getSelectedFile().getAbsolutePath());
+                } catch (SheetLoadException ex) {
+                    JOptionPane.showMessageDialog(this, ex.getMessage(), "Abrir", JOptionPane.ERROR_MESSAGE);
+                }
                 sheetPanel.refresh();
             }
         });
         
+        JMenuItem importItem = new JMenuItem("Importar CSV/TSV...");
+        importItem.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                importDelimited(fileChooser.getSelectedFile());
+            }
+        });
+
+        JMenuItem exportItem = new JMenuItem("Exportar hoja a CSV/TSV...");
+        exportItem.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                exportDelimited(fileChooser.getSelectedFile());
+            }
+        });
+
         JMenuItem hashTableItem = new JMenuItem("Tabla Hash");
         hashTableItem.addActionListener(e -> {
             HashTablePanel hashTablePanel = new HashTablePanel(hashTableController);
@@ -97,10 +184,16 @@ public class MainFrame extends JFrame {
         });
         
         fileMenu.add(newSheetItem);
+        fileMenu.add(renameSheetItem);
+        fileMenu.add(moveSheetItem);
+        fileMenu.add(removeSheetItem);
         fileMenu.addSeparator();
         fileMenu.add(saveItem);
         fileMenu.add(loadItem);
         fileMenu.addSeparator();
+        fileMenu.add(importItem);
+        fileMenu.add(exportItem);
+        fileMenu.addSeparator();
         fileMenu.add(hashTableItem);
         
         // Menú Ayuda
@@ -118,4 +211,118 @@ public class MainFrame extends JFrame {
         
         setJMenuBar(menuBar);
     }
+
+    /**
+     * Importa un archivo CSV/TSV como hoja nueva. El archivo se lee en
+     * segundo plano con una barra de progreso; al terminar, la hoja se
+     * agrega al libro y se muestra.
+     * @param file Archivo a importar.
+     */
+    private void importDelimited(File file) {
+        String fileName = file.getName();
+        int dot = fileName.lastIndexOf('.');
+        String sheetName = sheetController.uniqueSheetName(dot > 0 ? fileName.substring(0, dot) : fileName);
+        ProgressMonitor monitor = new ProgressMonitor(this, "Importando " + fileName, null, 0, 1000);
+
+        new SwingWorker<Sheet, Integer>() {
+            @Override
+            protected Sheet doInBackground() throws IOException {
+                return sheetController.importSheet(file.getAbsolutePath(), sheetName, progress -> {
+                    if (isCancelled()) throw new CancellationException();
+                    publish((int) (progress * 1000));
+                });
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                if (monitor.isCanceled()) {
+                    cancel(false);
+                } else {
+                    monitor.setProgress(chunks.get(chunks.size() - 1));
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                if (isCancelled()) return;
+                try {
+                    sheetController.addImportedSheet(get());
+                    sheetController.switchSheet(sheetController.getWorkbook().getSheetCount() - 1);
+                    sheetPanel.refresh();
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(MainFrame.this, "No se pudo importar el archivo:\n"
+                        + cause.getMessage(), "Importar", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Exporta la hoja actual como CSV/TSV. La hoja se congela aqui y el
+     * archivo se escribe en segundo plano con una barra de progreso, asi que
+     * se puede seguir editando mientras tanto.
+     * @param file Archivo destino.
+     */
+    private void exportDelimited(File file) {
+        FrozenMatrix sheet = sheetController.freezeCurrentSheet();
+        ProgressMonitor monitor = new ProgressMonitor(this, "Exportando " + file.getName(), null, 0, 1000);
+
+        new SwingWorker<Void, Integer>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                sheetController.exportSheet(sheet, file.getAbsolutePath(), progress -> {
+                    if (isCancelled()) throw new CancellationException();
+                    publish((int) (progress * 1000));
+                });
+                return null;
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                if (monitor.isCanceled()) {
+                    cancel(false);
+                } else {
+                    monitor.setProgress(chunks.get(chunks.size() - 1));
+                }
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                if (isCancelled()) return;
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(MainFrame.this, "No se pudo exportar la hoja:\n"
+                        + cause.getMessage(), "Exportar", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Programa el guardado automatico. El timer corre en el hilo de eventos,
+     * donde se toma la instantanea del libro; la escritura va en segundo plano.
+     */
+    private void setupAutosave() {
+        if (AUTOSAVE_SECONDS <= 0) return;
+        Timer timer = new Timer(AUTOSAVE_SECONDS * 1000, e ->
+            sheetController.autosave().whenComplete((result, error) -> {
+                if (error != null) SwingUtilities.invokeLater(() -> showSaveError(error));
+            }));
+        timer.start();
+    }
+
+    /**
+     * Muestra un error al guardar el libro.
+     * @param error Error de la escritura.
+     */
+    private void showSaveError(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        JOptionPane.showMessageDialog(this, "No se pudo guardar el libro:\n" + cause.getMessage(),
+            "Guardar", JOptionPane.ERROR_MESSAGE);
+    }
 }
@@ -18,8 +18,15 @@ import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import model.Cell;
+import model.CellType;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.SheetLoadException;
 
 public class SheetPanel extends JPanel {
+    // Fila y columna vacias extra para poder seguir escribiendo fuera del area en uso
+    private static final int SPARE_ROWS = 1;
+    private static final int SPARE_COLS = 1;
     private JTable table;
     private SheetTableModel tableModel;
     private SheetController controller;
@@ -27,6 +34,8 @@ public class SheetPanel extends JPanel {
     private JTextField formulaField;
     private JButton applyButton;
     private JButton rejectButton;
+    // Evita cambiar de hoja mientras se llena el combo
+    private boolean updatingComboBox;
 
     /**
      * Constructor del panel que recibe al controlador de hojas.
@@ -52,8 +61,14 @@ public class SheetPanel extends JPanel {
         sheetComboBox = new JComboBox<>();
         updateSheetComboBox();
         sheetComboBox.addActionListener(e -> {
-            controller.switchSheet(sheetComboBox.getSelectedIndex());
-            tableModel.fireTableDataChanged();
+            if (updatingComboBox) return;
+            try {
+                controller.switchSheet(sheetComboBox.getSelectedIndex());
+            } catch (SheetLoadException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Cambiar de hoja", JOptionPane.ERROR_MESSAGE);
+                updateSheetComboBox();
+            }
+            refreshTable();
         });
         
         // Campo de fórmula
@@ -78,11 +93,17 @@ public class SheetPanel extends JPanel {
         tableModel = new SheetTableModel();
         table = new JTable(tableModel);
         table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        // Al editar una celda se muestra su formula y no el resultado
+        table.setDefaultEditor(Object.class, new DefaultCellEditor(new JTextField()) {
+            @Override
+            public Component getTableCellEditorComponent(JTable table, Object value,
+                    boolean isSelected, int row, int column) {
+                return super.getTableCellEditorComponent(table,
+                    controller.getCellContent(row, column), isSelected, row, column);
+            }
+        });
         
-        // Configurar el ancho de las columnas
-        for (int i = 0; i < 20; i++) {
-            table.getColumnModel().getColumn(i).setPreferredWidth(100);
-        }
+        configureColumns();
         
         // Agregar componentes al panel
         add(topPanel, BorderLayout.NORTH);
@@ -98,18 +119,11 @@ public class SheetPanel extends JPanel {
         
         if (row >= 0 && col >= 0) {
             String formula = formulaField.getText();
-            // Si es una fórmula de suma
-            if (formula.toLowerCase().startsWith("=suma(")) {
-                double resultado = controller.evaluarFormula(formula, row, col);
-                controller.setCellValue(row, col, String.valueOf(resultado));
-            } else if (formula.toLowerCase().startsWith("=multiplicacion(") || formula.toLowerCase().startsWith("=mult(")){
-                double resultado = controller.evaluarFormula(formula, row, col);
-                controller.setCellValue(row, col, String.valueOf(resultado));
-            } else {
-                controller.setCellValue(row, col, formula);
-            }
+            // La formula se guarda como formula: se recalcula sola cuando
+            // cambian las celdas que usa
+            controller.setCellValue(row, col, formula);
 
-            tableModel.fireTableDataChanged();
+            refreshTable();
             formulaField.setText("");
         }
     }
@@ -120,18 +134,47 @@ public class SheetPanel extends JPanel {
      */
     public void refresh() {
         updateSheetComboBox();
-        tableModel.fireTableDataChanged();
+        refreshTable();
+    }
+
+    /**
+     * Recarga los datos de la tabla. Si la hoja crecio o se cambio a una
+     * hoja con otra cantidad de columnas, vuelve a crear las columnas.
+     */
+    private void refreshTable() {
+        if (table.getColumnCount() != tableModel.getColumnCount()) {
+            tableModel.fireTableStructureChanged();
+            configureColumns();
+        } else {
+            tableModel.fireTableDataChanged();
+        }
+    }
+
+    /**
+     * Configura el ancho de las columnas.
+     */
+    private void configureColumns() {
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(100);
+        }
     }
 
     /**
      * Actualiza el comboBox de seleccion de hoja con los nombres del libro.
      */
     private void updateSheetComboBox() {
-        sheetComboBox.removeAllItems();
-        for (var sheet : controller.getWorkbook().getSheets()) {
-            sheetComboBox.addItem(sheet.getName());
+        // Al llenar el combo se selecciona la primera hoja; se conserva la actual
+        int current = controller.getWorkbook().getCurrentSheetIndex();
+        updatingComboBox = true;
+        try {
+            sheetComboBox.removeAllItems();
+            for (var sheet : controller.getWorkbook().getSheets()) {
+                sheetComboBox.addItem(sheet.getName());
+            }
+            sheetComboBox.setSelectedIndex(current);
+        } finally {
+            updatingComboBox = false;
         }
-        sheetComboBox.setSelectedIndex(controller.getWorkbook().getCurrentSheetIndex());
     }
     
     /**
@@ -141,21 +184,24 @@ public class SheetPanel extends JPanel {
     private class SheetTableModel extends AbstractTableModel {
         @Override
         public int getRowCount() {
-            return controller.getWorkbook().getCurrentSheet().getMatrix().getRows();
+            OrthogonalMatrix matrix = currentMatrix();
+            return matrix == null ? 0 : matrix.getRows() + SPARE_ROWS;
         }
 
         @Override
         public int getColumnCount() {
-            return controller.getWorkbook().getCurrentSheet().getMatrix().getCols();
+            OrthogonalMatrix matrix = currentMatrix();
+            return matrix == null ? 0 : matrix.getCols() + SPARE_COLS;
         }
 
         @Override
         public Object getValueAt(int row, int col) {
-            Cell cell = controller.getWorkbook()
-                                .getCurrentSheet()
-                                .getMatrix()
-                                .getCell(row, col);
-            return (cell != null && cell.getContent() != null) ? cell.getContent() : "";
+            OrthogonalMatrix matrix = currentMatrix();
+            Cell cell = matrix == null ? null : matrix.getCell(row, col);
+            if (cell == null) return "";
+            // Las formulas muestran su resultado
+            if (cell.getType() == CellType.FORMULA) return cell.getValue();
+            return cell.getContent() != null ? cell.getContent() : "";
         }
         /*@Override
         public Object getValueAt(int rowIndex, int columnIndex) {
@@ -164,7 +210,16 @@ public class SheetPanel extends JPanel {
 
         @Override
         public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+            int oldRows = getRowCount();
+            int oldCols = getColumnCount();
             controller.setCellValue(rowIndex, columnIndex, aValue.toString());
+            if (getColumnCount() != oldCols) {
+                refreshTable();
+                return;
+            }
+            if (getRowCount() > oldRows) {
+                fireTableRowsInserted(oldRows, getRowCount() - 1);
+            }
             fireTableCellUpdated(rowIndex, columnIndex);
         }
 
@@ -173,9 +228,23 @@ public class SheetPanel extends JPanel {
             return true;
         }
 
+        /**
+         * Regresa la matriz de la hoja activa.
+         * @return Matriz o null si la hoja no se pudo cargar (se muestra vacia).
+         */
+        private OrthogonalMatrix currentMatrix() {
+            Sheet sheet = controller.getWorkbook().getCurrentSheet();
+            return sheet.isLoadFailed() ? null : sheet.getMatrix();
+        }
+
         @Override
         public String getColumnName(int column) {
-            return Character.toString((char) ('A' + column));
+            // A..Z, AA..AZ, BA.. como en cualquier hoja de calculo
+            StringBuilder name = new StringBuilder();
+            for (int n = column + 1; n > 0; n = (n - 1) / 26) {
+                name.insert(0, (char) ('A' + (n - 1) % 26));
+            }
+            return name.toString();
         }
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Prueba de carga de la tabla hash concurrente: varios hilos escriben
+ * mientras otro cambia la funcion hash y el modo, lo que obliga a las
+ * operaciones a reintentar cuando la funcion cambia a medias.
+ * @author maryori
+ */
+public class ConcurrentHashTableTest {
+    private static final int WRITERS = 8;
+    private static final int OPERATIONS = 40000;
+
+    @Test
+    public void writersWhileStrategyChanges() throws Exception {
+        ConcurrentHashTable table = new ConcurrentHashTable(8, 16, 0.75f, StandardHash.MURMUR3);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+        AtomicBoolean stop = new AtomicBoolean();
+        try {
+            List<Future<Set<String>>> writers = new ArrayList<>();
+            for (int id = 0; id < WRITERS; id++) {
+                int writer = id;
+                writers.add(executor.submit(() -> write(table, writer)));
+            }
+            Future<Integer> flipper = executor.submit(() -> {
+                StandardHash[] strategies = StandardHash.values();
+                int changes = 0;
+                while (!stop.get()) {
+                    table.setHashStrategy(strategies[changes % strategies.length]);
+                    table.setRobinHood(changes % 2 == 0);
+                    changes++;
+                    table.getStats();
+                    table.getKeys();
+                    Thread.sleep(2);
+                }
+                return changes;
+            });
+
+            Set<String> expected = new HashSet<>();
+            for (Future<Set<String>> writer : writers) {
+                expected.addAll(writer.get(2, TimeUnit.MINUTES));
+            }
+            stop.set(true);
+            assertTrue(flipper.get(1, TimeUnit.MINUTES) > 0);
+
+            assertEquals(expected.size(), table.size());
+            Set<String> keys = new HashSet<>();
+            for (String key : table.getKeys()) {
+                if (key != null) assertTrue(key, keys.add(key));
+            }
+            assertEquals(expected, keys);
+            for (String key : expected) {
+                assertTrue(key, table.getHashValue(key) >= 0);
+            }
+        } finally {
+            stop.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Inserta, quita y busca claves propias del hilo y compara cada
+     * resultado con un {@link HashSet} del mismo hilo.
+     * @return Claves que el hilo dejo en la tabla.
+     */
+    private static Set<String> write(ConcurrentHashTable table, int writer) {
+        Random random = new Random(writer);
+        Set<String> mine = new HashSet<>();
+        for (int i = 0; i < OPERATIONS; i++) {
+            String key = "t" + writer + "-" + random.nextInt(OPERATIONS / 2);
+            switch (random.nextInt(3)) {
+                case 0:
+                    table.put(key);
+                    mine.add(key);
+                    assertTrue(key, table.getHashValue(key) >= 0);
+                    break;
+                case 1:
+                    assertEquals(key, mine.remove(key), table.remove(key));
+                    assertTrue(key, table.getHashValue(key) < 0);
+                    break;
+                default:
+                    assertEquals(key, mine.contains(key), table.getHashValue(key) >= 0);
+            }
+        }
+        return mine;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package model;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de la tabla hash contra {@link HashSet}: inserciones, bajas y
+ * busquedas mezcladas, con sondeo lineal (bajas con el algoritmo R de Knuth)
+ * y con Robin Hood (bajas con corrimiento hacia atras).
+ * @author maryori
+ */
+public class HashTableTest {
+    // Todas las claves caen en las ultimas posiciones y sus grupos dan la vuelta
+    private static final HashStrategy AT_END = key -> Integer.MAX_VALUE - (key.hashCode() & 3);
+    // Bits bajos pobres: grupos largos que cruzan los tramos del reacomodo paralelo
+    private static final HashStrategy CLUSTERED = key -> key.hashCode() << 4;
+
+    @Test
+    public void linearProbingMatchesHashSet() {
+        mixedOperations(false, StandardHash.MURMUR3, 20000, 1);
+        mixedOperations(false, StandardHash.POLYNOMIAL, 20000, 2);
+    }
+
+    @Test
+    public void robinHoodMatchesHashSet() {
+        mixedOperations(true, StandardHash.MURMUR3, 20000, 3);
+        mixedOperations(true, StandardHash.POLYNOMIAL, 20000, 4);
+    }
+
+    @Test
+    public void clustersThatWrapAround() {
+        mixedOperations(false, AT_END, 600, 5);
+        mixedOperations(true, AT_END, 600, 6);
+    }
+
+    @Test
+    public void switchingModeKeepsKeys() {
+        HashTable table = new HashTable(16, 0.9f, false, CLUSTERED);
+        Set<String> expected = new HashSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            String key = "k" + random.nextInt(5000);
+            table.put(key);
+            expected.add(key);
+        }
+        for (boolean robinHood : new boolean[]{true, false, true}) {
+            table.setRobinHood(robinHood);
+            assertTable(table, expected);
+        }
+        table.setHashStrategy(StandardHash.FNV_1A);
+        assertTable(table, expected);
+    }
+
+    @Test
+    public void parallelAndSerialRehashKeepSameKeys() {
+        for (boolean robinHood : new boolean[]{false, true}) {
+            for (HashStrategy strategy : new HashStrategy[]{StandardHash.MURMUR3, CLUSTERED}) {
+                HashTable parallel = new HashTable(16, 0.75f, true, strategy);
+                HashTable serial = new HashTable(16, 0.75f, false, strategy);
+                parallel.setRobinHood(robinHood);
+                serial.setRobinHood(robinHood);
+                Set<String> expected = new HashSet<>();
+                Random random = new Random(robinHood ? 11 : 12);
+                // Pasa de 1 << 16 posiciones, donde el reacomodo se hace en paralelo
+                for (int i = 0; i < 200000; i++) {
+                    String key = "k" + random.nextInt(150000);
+                    if (random.nextInt(4) == 0) {
+                        boolean had = expected.remove(key);
+                        assertEquals(had, parallel.remove(key));
+                        assertEquals(had, serial.remove(key));
+                    } else {
+                        parallel.put(key);
+                        serial.put(key);
+                        expected.add(key);
+                    }
+                }
+                assertTrue(parallel.capacity() > 1 << 16);
+                assertEquals(serial.capacity(), parallel.capacity());
+                assertEquals(keySet(serial), keySet(parallel));
+                assertTable(parallel, expected);
+                assertTable(serial, expected);
+            }
+        }
+    }
+
+    /**
+     * Mezcla inserciones, bajas y busquedas al azar sobre pocas claves, desde
+     * una tabla chica, para que crezca varias veces. La tabla se revisa
+     * completa cada vez que crece.
+     */
+    private static void mixedOperations(boolean robinHood, HashStrategy strategy, int operations, long seed) {
+        HashTable table = new HashTable(16, 0.9f, false, strategy);
+        table.setRobinHood(robinHood);
+        Set<String> expected = new HashSet<>();
+        Random random = new Random(seed);
+        int keys = operations / 4;
+        int capacity = table.capacity();
+        int resizes = 0;
+        for (int i = 0; i < operations; i++) {
+            String key = "k" + random.nextInt(keys);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(key, expected.remove(key), table.remove(key));
+                    break;
+                case 1:
+                    table.put(key);
+                    expected.add(key);
+                    break;
+                default:
+                    assertEquals(key, expected.contains(key), table.getHashValue(key) >= 0);
+            }
+            if (table.capacity() != capacity) {
+                capacity = table.capacity();
+                resizes++;
+                assertTable(table, expected);
+            }
+        }
+        assertTrue(resizes >= 3);
+        assertTable(table, expected);
+        for (int i = 0; i < keys; i++) {
+            assertTrue(table.getHashValue("z" + i) < 0);
+        }
+    }
+
+    /**
+     * Revisa que la tabla tenga las mismas claves que el conjunto y que cada
+     * clave se pueda alcanzar desde su posicion inicial sin pasar por una
+     * posicion vacia. En Robin Hood, ademas, la distancia a la posicion
+     * inicial crece a lo mas de uno en uno dentro de un grupo.
+     */
+    private static void assertTable(HashTable table, Set<String> expected) {
+        String[] keys = table.getKeys();
+        int[] hashes = table.getHashValues();
+        int mask = keys.length - 1;
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            count++;
+            int home = hashes[i] & mask;
+            assertEquals(table.hashFunction(keys[i]), hashes[i]);
+            for (int j = home; j != i; j = (j + 1) & mask) {
+                assertNotNull("Hueco antes de " + keys[i], keys[j]);
+            }
+            int next = (i + 1) & mask;
+            if (table.isRobinHood() && keys[next] != null) {
+                int distance = (i - home) & mask;
+                int nextDistance = (next - (hashes[next] & mask)) & mask;
+                assertTrue("Robin Hood fuera de orden en " + next, nextDistance <= distance + 1);
+            }
+        }
+        assertEquals(expected.size(), count);
+        assertEquals(expected.size(), table.size());
+        assertEquals(expected, keySet(table));
+        for (String key : expected) {
+            assertTrue(key, table.getHashValue(key) >= 0);
+        }
+    }
+
+    private static Set<String> keySet(HashTable table) {
+        Set<String> keys = new HashSet<>();
+        for (String key : table.getKeys()) {
+            if (key != null) keys.add(key);
+        }
+        return keys;
+    }
+}
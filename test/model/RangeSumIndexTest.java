@@ -0,0 +1,66 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package model;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de que la suma de un rango con el indice por bloques da lo mismo
+ * que sin indice despues de cambios que se cancelan entre numeros de
+ * magnitudes muy distintas.
+ * @author maryori
+ */
+public class RangeSumIndexTest {
+
+    @Test
+    public void cancellationDoesNotDrift() {
+        assertCancellation(false);
+    }
+
+    @Test
+    public void cancellationDoesNotDriftWithColumnarNumbers() {
+        assertCancellation(true);
+    }
+
+    private static void assertCancellation(boolean columnar) {
+        OrthogonalMatrix indexed = new OrthogonalMatrix();
+        OrthogonalMatrix plain = new OrthogonalMatrix();
+        indexed.setColumnarNumbers(columnar);
+        plain.setColumnarNumbers(columnar);
+        indexed.setRangeSumIndex(true);
+
+        String[][] edits = {
+            {"0", "1e16"}, {"1", "1"}, {"0", "-1e16"}, {"0", ""},
+            {"5", "1e16"}, {"5", "texto"}, {"70", "3"}, {"70", ""}
+        };
+        for (String[] edit : edits) {
+            int row = Integer.parseInt(edit[0]);
+            indexed.setCellValue(row, 2, edit[1]);
+            plain.setCellValue(row, 2, edit[1]);
+            assertSums(indexed, plain);
+        }
+        assertEquals(1, indexed.sumRange(0, 0, 127, 10), 0);
+
+        // Resultados de formulas
+        indexed.setCellValue(9, 2, "=x");
+        plain.setCellValue(9, 2, "=x");
+        for (Object value : new Object[]{1e16, -1e16, "#ERROR"}) {
+            indexed.setFormulaValue(9, 2, value);
+            plain.setFormulaValue(9, 2, value);
+            assertSums(indexed, plain);
+        }
+        assertEquals(1, indexed.sumRange(0, 0, 127, 10), 0);
+    }
+
+    /**
+     * Compara rangos de una columna y de varias que cubren la banda completa.
+     */
+    private static void assertSums(OrthogonalMatrix indexed, OrthogonalMatrix plain) {
+        assertEquals(plain.sumRange(0, 2, 63, 2), indexed.sumRange(0, 2, 63, 2), 0);
+        assertEquals(plain.sumRange(0, 0, 127, 10), indexed.sumRange(0, 0, 127, 10), 0);
+        assertEquals(plain.sumRange(0, 0, 63, 63), indexed.sumRange(0, 0, 63, 63), 0);
+    }
+}
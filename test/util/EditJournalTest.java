@@ -0,0 +1,178 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package util;
+
+import controller.SheetController;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import model.Sheet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de recuperacion del diario de cambios despues de una caida. Cada
+ * prueba deja los archivos como los dejaria una caida (diario cortado o
+ * danado, "next" a medio integrar) y revisa el libro que se abre con
+ * {@link FileManager#loadWorkbook}.
+ * @author maryori
+ */
+public class EditJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private Path journal;
+    private Path next;
+
+    @Before
+    public void setUp() {
+        file = folder.getRoot().toPath().resolve("libro.mxc");
+        journal = file.resolveSibling("libro.mxc.journal");
+        next = file.resolveSibling("libro.mxc.journal.next");
+    }
+
+    @Test
+    public void tornLastRecordIsDiscarded() throws IOException {
+        SheetController controller = savedWithJournal("uno", "dos");
+        controller.close();
+        // El ultimo byte del registro de "dos" se pierde: su CRC ya no coincide
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        SheetController reopened = open();
+        assertEquals("base", reopened.getCellContent(0, 0));
+        assertEquals("uno", reopened.getCellContent(1, 0));
+        assertEquals("", reopened.getCellContent(2, 0));
+
+        // El diario queda cortado en el ultimo registro valido y sigue creciendo
+        reopened.setCellValue(3, 0, "tres");
+        reopened.saveToFile(file.toString());
+        reopened.close();
+        SheetController again = open();
+        assertEquals("uno", again.getCellContent(1, 0));
+        assertEquals("", again.getCellContent(2, 0));
+        assertEquals("tres", again.getCellContent(3, 0));
+        again.close();
+    }
+
+    @Test
+    public void corruptRecordStopsReplay() throws IOException {
+        SheetController controller = savedWithJournal("uno", "dos");
+        controller.close();
+        byte[] bytes = Files.readAllBytes(journal);
+        bytes[bytes.length - 2] ^= 0x55;
+        Files.write(journal, bytes);
+
+        SheetController reopened = open();
+        assertEquals("uno", reopened.getCellContent(1, 0));
+        assertEquals("", reopened.getCellContent(2, 0));
+        reopened.close();
+    }
+
+    @Test
+    public void nextWithMatchingGenerationIsPromoted() throws IOException {
+        SheetController controller = savedWithJournal("uno");
+        byte[] oldJournal = Files.readAllBytes(journal);
+        assertTrue(controller.autosave().join());
+        controller.setCellValue(2, 0, "dos");
+        controller.saveToFile(file.toString());
+        controller.close();
+
+        // Se cayo despues de reemplazar el libro y antes de reemplazar el diario
+        Files.move(journal, next);
+        Files.write(journal, oldJournal);
+
+        SheetController reopened = open();
+        assertEquals("uno", reopened.getCellContent(1, 0));
+        assertEquals("dos", reopened.getCellContent(2, 0));
+        assertFalse(Files.exists(next));
+        reopened.close();
+    }
+
+    @Test
+    public void crashDuringCompactionKeepsBothJournals() throws IOException {
+        SheetController controller = savedWithJournal("uno");
+        byte[] oldBase = Files.readAllBytes(file);
+        byte[] oldJournal = Files.readAllBytes(journal);
+        assertTrue(controller.autosave().join());
+        controller.setCellValue(2, 0, "dos");
+        controller.saveToFile(file.toString());
+        controller.close();
+
+        // Se cayo antes de reemplazar el libro: siguen el libro y el diario
+        // anteriores, y los cambios nuevos estan en "next"
+        Files.move(journal, next);
+        Files.write(journal, oldJournal);
+        Files.write(file, oldBase);
+
+        SheetController reopened = open();
+        assertEquals("uno", reopened.getCellContent(1, 0));
+        assertEquals("dos", reopened.getCellContent(2, 0));
+        assertFalse(Files.exists(next));
+        reopened.close();
+
+        SheetController again = open();
+        assertEquals("dos", again.getCellContent(2, 0));
+        again.close();
+    }
+
+    @Test
+    public void failedFullRewriteKeepsJournalEdits() throws IOException {
+        SheetController controller = savedWithJournal("uno");
+        Path csv = folder.newFile("datos.csv").toPath();
+        Files.write(csv, "1,2\n3,4\n".getBytes());
+        Sheet imported = controller.importSheet(csv.toString(), "Datos", progress -> { });
+        controller.addImportedSheet(imported);
+
+        // El libro nuevo no se puede escribir (el temporal es una carpeta):
+        // el diario con "uno" no se debe haber vaciado antes
+        Path temp = Files.createDirectory(file.resolveSibling("libro.mxc.tmp"));
+        assertTrue(controller.saveToFileAsync(file.toString()).handle((done, error) -> error != null).join());
+        controller.setCellValue(2, 0, "dos");
+        controller.saveToFile(file.toString());
+
+        SheetController crashed = open();
+        assertEquals(1, crashed.getWorkbook().getSheetCount());
+        assertEquals("uno", crashed.getCellContent(1, 0));
+        crashed.close();
+
+        // Al poder escribirse, el siguiente guardado lleva la hoja importada
+        Files.delete(temp);
+        controller.saveToFile(file.toString());
+        controller.close();
+        SheetController reopened = open();
+        assertEquals(2, reopened.getWorkbook().getSheetCount());
+        assertEquals("dos", reopened.getCellContent(2, 0));
+        reopened.close();
+    }
+
+    /**
+     * Guarda un libro con "base" en A1 y despues anota en su diario un valor
+     * por fila, desde la fila 1.
+     */
+    private SheetController savedWithJournal(String... values) {
+        SheetController controller = new SheetController();
+        controller.setCellValue(0, 0, "base");
+        controller.saveToFile(file.toString());
+        for (int i = 0; i < values.length; i++) {
+            controller.setCellValue(i + 1, 0, values[i]);
+        }
+        controller.saveToFile(file.toString());
+        return controller;
+    }
+
+    private SheetController open() {
+        SheetController controller = new SheetController();
+        controller.loadFromFile(file.toString());
+        return controller;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package util;
+
+import controller.SheetController;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import model.Cell;
+import model.CellType;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.Workbook;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de que los libros guardados por serializacion con la primera
+ * version (cuadricula enlazada de 20x20) se siguen abriendo. El archivo
+ * legacy-workbook.ser se genero con esa version: "Hoja 1" tiene 12.5 y 30
+ * en la columna 1, "nombre" en (1,2), =suma((1,1),(2,1)) en (3,1) y
+ * "esquina" en (20,20); "Datos" tiene 7 en (5,4) y =mult((5,4),(5,4)) en (6,4).
+ * @author maryori
+ */
+public class LegacyWorkbookTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SheetController controller = new SheetController();
+
+    @After
+    public void tearDown() {
+        controller.close();
+    }
+
+    @Test
+    public void legacyWorkbookOpens() throws IOException {
+        controller.loadFromFile(fixture().toString());
+        assertLegacyContent(controller.getWorkbook());
+
+        // Las formulas quedan registradas: cambiar un numero las recalcula
+        controller.switchSheet(0);
+        controller.setCellValue(1, 0, "40");
+        assertEquals(52.5, controller.getCellValue(2, 0));
+    }
+
+    @Test
+    public void migratedWorkbookSerializesAgain() throws IOException {
+        controller.loadFromFile(fixture().toString());
+        Path file = folder.getRoot().toPath().resolve("otra-vez.ser");
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(file))) {
+            out.writeObject(controller.getWorkbook());
+        }
+        SheetController reopened = new SheetController();
+        try {
+            reopened.loadFromFile(file.toString());
+            assertLegacyContent(reopened.getWorkbook());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private Path fixture() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("legacy-workbook.ser");
+        try (InputStream in = getClass().getResourceAsStream("legacy-workbook.ser")) {
+            assertNotNull("Falta legacy-workbook.ser", in);
+            Files.copy(in, file);
+        }
+        return file;
+    }
+
+    private static void assertLegacyContent(Workbook workbook) {
+        assertEquals(2, workbook.getSheetCount());
+        Sheet first = workbook.getSheet(0);
+        assertEquals("Hoja 1", first.getName());
+        OrthogonalMatrix matrix = first.getMatrix();
+        assertSame(first, matrix.getSheet());
+        assertEquals(5, matrix.getCellCount());
+        assertNumber(matrix.getCell(0, 0), "12.5", 12.5);
+        assertNumber(matrix.getCell(1, 0), "30", 30);
+        assertEquals(CellType.TEXT, matrix.getCell(0, 1).getType());
+        assertEquals("nombre", matrix.getCell(0, 1).getValue());
+        assertEquals("=suma((1,1),(2,1))", matrix.getCell(2, 0).getFormula());
+        assertEquals(42.5, matrix.getCell(2, 0).getValue());
+        assertEquals("esquina", matrix.getCell(19, 19).getContent());
+
+        Sheet second = workbook.getSheet(1);
+        assertEquals("Datos", second.getName());
+        OrthogonalMatrix data = second.getMatrix();
+        assertSame(second, data.getSheet());
+        assertEquals(2, data.getCellCount());
+        assertNumber(data.getCell(4, 3), "7", 7);
+        assertEquals(CellType.FORMULA, data.getCell(5, 3).getType());
+    }
+
+    private static void assertNumber(Cell cell, String content, double number) {
+        assertEquals(CellType.NUMBER, cell.getType());
+        assertEquals(content, cell.getContent());
+        assertEquals(number, cell.getNumber(), 0);
+        assertEquals(number, cell.getNumericValue(), 0);
+    }
+}
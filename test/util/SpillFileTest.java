@@ -0,0 +1,86 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package util;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import model.OrthogonalMatrix;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Pruebas del archivo donde se guardan las hojas que se sacan de memoria.
+ * @author maryori
+ */
+public class SpillFileTest {
+    private static final int ROWS = 2000;
+
+    // Se revisa si conviene compactar en cada spill
+    private final SpillFile spill = new SpillFile(0);
+
+    @After
+    public void tearDown() {
+        spill.close();
+    }
+
+    @Test
+    public void spilledSheetLoadsBack() throws IOException {
+        SegmentSource source = (SegmentSource) spill.spill(sheet("a", ROWS));
+        assertNotNull(source.getFile());
+        assertSheet(source, "a", ROWS);
+    }
+
+    @Test
+    public void compactionKeepsSegmentsInUse() throws IOException {
+        // La hoja que se queda es chica, asi que cualquier hoja soltada ya es
+        // mas de la mitad del archivo aunque se haya compactado antes
+        SegmentSource kept = (SegmentSource) spill.spill(sheet("a", ROWS / 20));
+        List<WeakReference<Object>> dropped = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            dropped.add(new WeakReference<>(spill.spill(sheet("b" + i, ROWS))));
+        }
+        for (int i = 0; i < 50 && !collected(dropped); i++) {
+            System.gc();
+        }
+        assumeTrue(collected(dropped));
+
+        // Solo "a" sigue en uso: se compacta antes de escribir la hoja nueva
+        SegmentSource last = (SegmentSource) spill.spill(sheet("d", ROWS));
+        assertEquals(0, kept.getOffset());
+        assertEquals(kept.getLength(), last.getOffset());
+        assertSheet(kept, "a", ROWS / 20);
+        assertSheet(last, "d", ROWS);
+    }
+
+    private static boolean collected(List<WeakReference<Object>> references) {
+        for (WeakReference<Object> reference : references) {
+            if (reference.get() != null) return false;
+        }
+        return true;
+    }
+
+    private static OrthogonalMatrix sheet(String prefix, int rows) {
+        OrthogonalMatrix matrix = new OrthogonalMatrix();
+        for (int row = 0; row < rows; row++) {
+            matrix.setCellValue(row, 0, prefix + " fila " + row);
+            matrix.setCellValue(row, 3, Integer.toString(row * 7));
+        }
+        return matrix;
+    }
+
+    private static void assertSheet(SegmentSource source, String prefix, int rows) {
+        OrthogonalMatrix matrix = new OrthogonalMatrix();
+        source.load(matrix);
+        assertEquals(2 * rows, matrix.getCellCount());
+        for (int row = 0; row < rows; row += 7) {
+            assertEquals(prefix + " fila " + row, matrix.getCell(row, 0).getContent());
+            assertEquals(Integer.toString(row * 7), matrix.getCell(row, 3).getContent());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import model.Cell;
+import model.CellVisitor;
+import model.OrthogonalMatrix;
+import model.Workbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Pruebas de que una instantanea guarda el libro como estaba al tomarla,
+ * aunque la hoja se siga editando antes de escribirla.
+ * @author maryori
+ */
+public class WorkbookSnapshotTest {
+    private static final int ROWS = 200;
+    private static final int COLS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void laterEditsDoNotChangeSnapshot() throws IOException {
+        Workbook workbook = new Workbook();
+        OrthogonalMatrix matrix = workbook.getSheet(0).getMatrix();
+        Map<String, String> frozen = fill(matrix);
+        WorkbookSnapshot snapshot = WorkbookSnapshot.capture(workbook, null);
+
+        Map<String, String> live = new HashMap<>(frozen);
+        edit(matrix, live);
+        assertMatrix(live, matrix);
+
+        Path file = folder.getRoot().toPath().resolve("libro.mxc");
+        WorkbookWriter.write(snapshot, file, 1);
+        assertMatrix(frozen, WorkbookReader.read(file).getSheet(0).getMatrix());
+
+        // Una instantanea nueva ve las ediciones
+        WorkbookWriter.write(WorkbookSnapshot.capture(workbook, snapshot), file, 2);
+        assertMatrix(live, WorkbookReader.read(file).getSheet(0).getMatrix());
+    }
+
+    @Test
+    public void laterEditsDoNotChangeColumnarNumbers() throws IOException {
+        Workbook workbook = new Workbook();
+        OrthogonalMatrix matrix = workbook.getSheet(0).getMatrix();
+        matrix.setColumnarNumbers(true);
+        Map<String, String> frozen = fill(matrix);
+        WorkbookSnapshot snapshot = WorkbookSnapshot.capture(workbook, null);
+
+        Map<String, String> live = new HashMap<>(frozen);
+        edit(matrix, live);
+        matrix.setColumnarNumbers(false);
+        assertMatrix(live, matrix);
+
+        Path file = folder.getRoot().toPath().resolve("numeros.mxc");
+        WorkbookWriter.write(snapshot, file, 1);
+        OrthogonalMatrix reread = WorkbookReader.read(file).getSheet(0).getMatrix();
+        assertTrue(reread.isColumnarNumbers());
+        assertMatrix(frozen, reread);
+    }
+
+    /**
+     * Llena la hoja con numeros y texto que cruzan varios bloques de 64x64.
+     */
+    private static Map<String, String> fill(OrthogonalMatrix matrix) {
+        Map<String, String> expected = new HashMap<>();
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                int c = col * 9;
+                String value = (row + col) % 3 == 0 ? "t" + row + "_" + c : Integer.toString(row * 100 + c);
+                set(matrix, expected, row, c, value);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Cambia, quita y agrega celdas en bloques ya compartidos y en bloques nuevos.
+     */
+    private static void edit(OrthogonalMatrix matrix, Map<String, String> expected) {
+        for (int row = 0; row < ROWS; row += 3) {
+            set(matrix, expected, row, 9, "cambio " + row);
+            set(matrix, expected, row + 1, 18, "");
+            set(matrix, expected, row, 70, Integer.toString(-row));
+        }
+        set(matrix, expected, 500, 500, "lejos");
+        set(matrix, expected, 0, 0, "");
+        set(matrix, expected, 63, 63, "orilla");
+    }
+
+    private static void set(OrthogonalMatrix matrix, Map<String, String> expected, int row, int col, String value) {
+        matrix.setCellValue(row, col, value);
+        if (value.isEmpty()) {
+            expected.remove(row + "," + col);
+        } else {
+            expected.put(row + "," + col, value);
+        }
+    }
+
+    /**
+     * Revisa el contenido por posicion y por los dos recorridos enlazados.
+     */
+    private static void assertMatrix(Map<String, String> expected, OrthogonalMatrix matrix) {
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            String[] position = entry.getKey().split(",");
+            Cell cell = matrix.getCell(Integer.parseInt(position[0]), Integer.parseInt(position[1]));
+            assertNotNull(entry.getKey(), cell);
+            assertEquals(entry.getKey(), entry.getValue(), cell.getContent());
+        }
+        assertEquals(expected, collect(matrix, true));
+        assertEquals(expected, collect(matrix, false));
+        assertEquals(expected.size(), matrix.getCellCount());
+    }
+
+    private static Map<String, String> collect(OrthogonalMatrix matrix, boolean byRows) {
+        Map<String, String> found = new HashMap<>();
+        CellVisitor visitor = cell -> assertNull(found.put(cell.getY() + "," + cell.getX(), cell.getContent()));
+        if (byRows) {
+            matrix.scanRowMajor(0, 0, OrthogonalMatrix.MAX_ROWS - 1, OrthogonalMatrix.MAX_COLS - 1, visitor);
+        } else {
+            matrix.scanColumnMajor(0, 0, OrthogonalMatrix.MAX_ROWS - 1, OrthogonalMatrix.MAX_COLS - 1, visitor);
+        }
+        return found;
+    }
+}
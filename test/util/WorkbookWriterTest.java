@@ -0,0 +1,114 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit4TestClass.java to edit this template
+ */
+package util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import model.Cell;
+import model.OrthogonalMatrix;
+import model.Sheet;
+import model.Workbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Pruebas de guardar un libro sobre el mismo archivo del que se abrio.
+ * @author maryori
+ */
+public class WorkbookWriterTest {
+    private static final int SHEETS = 4;
+    private static final int ROWS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveOverOpenedFile() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("libro.mxc");
+        WorkbookWriter.write(createWorkbook(), file, 1);
+
+        // Solo se carga y se cambia la primera hoja; las demas se copian
+        // del archivo que se esta reemplazando
+        Workbook opened = WorkbookReader.read(file);
+        OrthogonalMatrix first = opened.getSheet(0).getMatrix();
+        for (int row = 0; row < ROWS; row++) {
+            first.setCellValue(row, 2, "nuevo texto mas largo " + row);
+        }
+        WorkbookWriter.write(opened, file, 2);
+        assertEquals(2, WorkbookReader.readGeneration(file));
+
+        // Las hojas sin cargar del libro abierto se leen del archivo nuevo
+        for (int i = 1; i < SHEETS; i++) {
+            assertFalse(opened.getSheet(i).isLoaded());
+            assertSheet(opened.getSheet(i), i);
+        }
+        Workbook reread = WorkbookReader.read(file);
+        for (int i = 1; i < SHEETS; i++) {
+            assertSheet(reread.getSheet(i), i);
+        }
+        assertEquals("nuevo texto mas largo 7", reread.getSheet(0).getMatrix().getCell(7, 2).getContent());
+        assertFalse(Files.exists(file.resolveSibling("libro.mxc.tmp")));
+
+        // Se puede guardar otra vez encima con las hojas ya reubicadas
+        WorkbookWriter.write(opened, file, 3);
+        assertSheet(WorkbookReader.read(file).getSheet(SHEETS - 1), SHEETS - 1);
+    }
+
+    @Test
+    public void openedFileIsNotMapped() throws IOException {
+        Path maps = Paths.get("/proc/self/maps");
+        assumeTrue(Files.isReadable(maps));
+        Path file = folder.getRoot().toPath().resolve("mapeo.mxc");
+        WorkbookWriter.write(createWorkbook(), file, 1);
+
+        Workbook opened = WorkbookReader.read(file);
+        assertSheet(opened.getSheet(1), 1);
+        assertFalse(new String(Files.readAllBytes(maps)).contains(file.toString()));
+    }
+
+    @Test
+    public void segmentNotCopiedIsNoLongerAvailable() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("otro.mxc");
+        WorkbookWriter.write(createWorkbook(), file, 1);
+        Workbook opened = WorkbookReader.read(file);
+        SegmentSource removed = (SegmentSource) opened.getSheet(1).getSource();
+
+        opened.removeSheet(1);
+        WorkbookWriter.write(opened, file, 2);
+        assertFalse(removed.isAvailable());
+        assertTrue(opened.getSheet(1).getSource().isAvailable());
+        assertSheet(opened.getSheet(1), 2);
+    }
+
+    private static Workbook createWorkbook() {
+        Workbook workbook = new Workbook();
+        for (int i = 1; i < SHEETS; i++) {
+            workbook.addSheet("Hoja " + (i + 1));
+        }
+        for (int i = 0; i < SHEETS; i++) {
+            OrthogonalMatrix matrix = workbook.getSheet(i).getMatrix();
+            for (int row = 0; row < ROWS; row++) {
+                matrix.setCellValue(row, 0, String.valueOf(row * (i + 1)));
+                matrix.setCellValue(row, 1, "hoja " + i + " fila " + row);
+            }
+        }
+        return workbook;
+    }
+
+    private static void assertSheet(Sheet sheet, int index) {
+        OrthogonalMatrix matrix = sheet.getMatrix();
+        assertEquals(2 * ROWS, matrix.getCellCount());
+        for (int row = 0; row < ROWS; row += 37) {
+            Cell number = matrix.getCell(row, 0);
+            assertEquals(row * (index + 1), number.getNumber(), 0);
+            assertEquals("hoja " + index + " fila " + row, matrix.getCell(row, 1).getContent());
+        }
+    }
+}